@@ -0,0 +1,60 @@
+package com.biiuse.motivewave;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Session close low / high lookup as the look back grows. Every call asks for a different session, so the per
+ * session cache of the index does not apply and each call measures a full lookup.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionCloseExtremaBenchmark {
+
+	@Param({ "5", "10", "20", "60", "250" })
+	public int lookBackSessions;
+
+	@Param({ "5000" })
+	public int sessions;
+
+	@Setup
+	public void setUp() {
+		index = new SessionCloseIndex();
+		double close = 1.1;
+		Random random = new Random(42);
+		for (int i = 0; i < sessions; ++i) {
+			close += random.nextGaussian() * 0.005;
+			//one session per 1440 one minute bars
+			index.add(i * 1440 + 1439, close);
+		}
+		index.setLastScannedBar(sessions * 1440 - 1);
+		nextSession = lookBackSessions;
+	}
+
+	@Benchmark
+	public double sessionCloseExtrema() throws DataException {
+		if (nextSession == sessions) nextSession = lookBackSessions;
+		//the first bar of the session following session nextSession - 1
+		index.computeExtrema(nextSession++ * 1440, lookBackSessions);
+		return index.getLowestClose() + index.getHighestClose();
+	}
+
+	private SessionCloseIndex index;
+	private int nextSession;
+}
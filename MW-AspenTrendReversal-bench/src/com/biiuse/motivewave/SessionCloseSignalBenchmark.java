@@ -0,0 +1,76 @@
+package com.biiuse.motivewave;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.biiuse.motivewave.AspenTrendReversalStudySingleTimeFrame.Signals;
+
+/**
+ * Cost of the per bar work the study does in calculate(): maintaining the session close index, checking the session
+ * close window and comparing the close against the session close extrema.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SessionCloseSignalBenchmark {
+
+	@Param({ "1", "5", "60", "1440" })
+	public int barMinutes;
+
+	@Param({ "100000" })
+	public int bars;
+
+	@Setup
+	public void setUp() {
+		series = SyntheticBars.create(bars, barMinutes, 42);
+		generator = new SessionCloseSignalGenerator();
+		generator.configure(ReversalParameters.getDefaults(), barMinutes >= 1440);
+		nextBar = 0;
+	}
+
+	/**
+	 * calculate() for the next bar of the series, as called by the platform when a bar completes. Wraps around to
+	 * the start of the series (with a reset) when all bars have been calculated.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object calculateBar() {
+		if (nextBar == series.size()) {
+			generator.reset();
+			nextBar = 0;
+		}
+		return generator.calculate(series, nextBar++);
+	}
+
+	/**
+	 * calculate() for every bar of the series from scratch, as after a settings change or a reload of the chart
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int recalculateHistory() {
+		generator.reset();
+		int signals = 0;
+		for (int i = 0; i < series.size(); ++i) {
+			if (generator.calculate(series, i) != Signals.NONE) signals++;
+		}
+		return signals;
+	}
+
+	private BarSeries series;
+	private SessionCloseSignalGenerator generator;
+	private int nextBar;
+}
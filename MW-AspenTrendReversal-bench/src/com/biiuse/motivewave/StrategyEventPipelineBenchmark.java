@@ -0,0 +1,150 @@
+package com.biiuse.motivewave;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishing into the strategy's event pipeline from several platform threads at once: three threads publish quotes
+ * and one publishes signals. After every iteration the handling is checked: it never overlapped, the quotes of each
+ * thread were handled in the order they were published (coalescing only skips quotes) and no signal was lost. A
+ * violation fails the run.
+ */
+@State(Scope.Group)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrategyEventPipelineBenchmark {
+
+	//quote times carry the publishing thread above these bits and its sequence below
+	final static int SEQUENCE_BITS = 40;
+	final static int MAX_PRODUCERS = 16;
+
+	@Param({ "64", "1024" })
+	public int capacity;
+
+	/**
+	 * Id and quote sequence of a publishing thread
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+		final int id = nextId.getAndIncrement() % MAX_PRODUCERS;
+		long sequence = 0;
+
+		private final static AtomicInteger nextId = new AtomicInteger();
+	}
+
+	@Setup(Level.Trial)
+	public void createPipeline() {
+		pipeline = new StrategyEventPipeline(new StrategyEventPipeline.Handler() {
+			@Override
+			public void onActivate(Object context) {
+			}
+
+			@Override
+			public void onDeactivate() {
+			}
+
+			@Override
+			public void onSettings(ReversalParameters parameters) {
+				enter();
+				leave();
+			}
+
+			@Override
+			public void onSignal(Object signal, long barEndTime, double close) {
+				enter();
+				signalsHandled.incrementAndGet();
+				leave();
+			}
+
+			@Override
+			public void onQuote(long time, double bidPrice, double askPrice) {
+				enter();
+				int id = (int) (time >>> SEQUENCE_BITS);
+				long sequence = time & ((1L << SEQUENCE_BITS) - 1);
+				if (sequence <= lastSequences[id]) outOfOrder.incrementAndGet();
+				lastSequences[id] = sequence;
+				leave();
+			}
+
+			@Override
+			public void onPositionClosed() {
+			}
+
+			@Override
+			public void onOrderRejected(Object order) {
+			}
+
+			@Override
+			public void onOrderFilled(Object order) {
+			}
+
+			@Override
+			public void onOrderCancelled(Object order) {
+			}
+		}, capacity);
+	}
+
+	@Benchmark
+	@Group("pipeline")
+	@GroupThreads(3)
+	public boolean publishQuote(Producer producer) {
+		return pipeline.publishQuote(((long) producer.id << SEQUENCE_BITS) | ++producer.sequence, 1.1, 1.1001);
+	}
+
+	@Benchmark
+	@Group("pipeline")
+	@GroupThreads(1)
+	public long publishSignal() {
+		signalsPublished.incrementAndGet();
+		return pipeline.publishSignal(SIGNAL, 0, 1.1);
+	}
+
+	@TearDown(Level.Iteration)
+	public void check() {
+		if (!pipeline.awaitHandled(pipeline.publishSettings(null), 60000)) throw new IllegalStateException("Events not handled");
+		if (overlaps.get() != 0) throw new IllegalStateException(overlaps.get() + " overlapping handler calls");
+		if (outOfOrder.get() != 0) throw new IllegalStateException(outOfOrder.get() + " quotes handled out of order");
+		if (signalsHandled.get() != signalsPublished.get()) throw new IllegalStateException((signalsPublished.get() - signalsHandled.get()) + " signals lost");
+	}
+
+	private void enter() {
+		if (!handling.compareAndSet(false, true)) overlaps.incrementAndGet();
+	}
+
+	private void leave() {
+		handling.set(false);
+	}
+
+	private final static Object SIGNAL = new Object();
+
+	private final AtomicBoolean handling = new AtomicBoolean();
+	private final AtomicLong overlaps = new AtomicLong();
+	private final AtomicLong outOfOrder = new AtomicLong();
+	private final AtomicLong signalsPublished = new AtomicLong();
+	private final AtomicLong signalsHandled = new AtomicLong();
+	//only touched by the handler
+	private final long[] lastSequences = new long[MAX_PRODUCERS];
+
+	private StrategyEventPipeline pipeline;
+}
@@ -0,0 +1,31 @@
+package com.biiuse.motivewave;
+
+import java.util.Random;
+
+/**
+ * Random walk bars for the benchmarks. Bars are generated around the clock (including week ends, as some feeds
+ * deliver them), starting at midnight EST so that session closes fall on bar boundaries for all bar sizes.
+ */
+public final class SyntheticBars {
+
+	//2015-01-05 00:00 EST, a Monday
+	final static long START_TIME = 1420434000000L;
+
+	private SyntheticBars() {
+	}
+
+	public static BarSeries create(int size, int barMinutes, long seed) {
+		Random random = new Random(seed);
+		BarSeries bars = new BarSeries(barMinutes, size);
+		double volatility = 0.0003 * Math.sqrt(barMinutes);
+		double close = 1.1;
+		for (int i = 0; i < size; ++i) {
+			double open = close;
+			close = open + random.nextGaussian() * volatility;
+			double high = Math.max(open, close) + Math.abs(random.nextGaussian()) * volatility / 2;
+			double low = Math.min(open, close) - Math.abs(random.nextGaussian()) * volatility / 2;
+			bars.add(START_TIME + i * barMinutes * SessionCalendar.MILLIS_PER_MINUTE, open, high, low, close);
+		}
+		return bars;
+	}
+}
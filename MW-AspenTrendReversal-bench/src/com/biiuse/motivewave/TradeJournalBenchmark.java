@@ -0,0 +1,83 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of logging a trade (writeToCSV in the strategy): queueing it in the journal, and formatting the CSV row as
+ * done by the journal's writer thread.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TradeJournalBenchmark {
+
+	@Param({ "0", "1000" })
+	public int flushIntervalMillis;
+
+	@Param({ "false", "true" })
+	public boolean binaryLog;
+
+	@Setup(Level.Iteration)
+	public void openJournal() throws IOException {
+		file = File.createTempFile("journal", ".csv");
+		journal = new TradeJournal(file.getPath(), 64 * 1024, flushIntervalMillis, false);
+		if (binaryLog) {
+			binaryFile = File.createTempFile("journal", ".bin");
+			journal.setBinaryLog(new BinaryTradeLogWriter(binaryFile.getPath(), "EUR/USD", ReversalParameters.getDefaults().toMap()));
+		}
+		journal.start();
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeJournal() {
+		journal.close(60000);
+		file.delete();
+		if (binaryFile != null) binaryFile.delete();
+	}
+
+	/**
+	 * Queues a trade. If the writer thread cannot keep up the record is dropped, which is part of what is measured.
+	 */
+	@Benchmark
+	public boolean appendTrade() {
+		entryTime += SessionCalendar.MILLIS_PER_MINUTE;
+		return journal.append(entryTime, "EUR/USD", "LONG", 10000, 1.10234, 1.10987, 75.3, 0.00012);
+	}
+
+	/**
+	 * Formats one CSV row
+	 */
+	@Benchmark
+	public int formatCsvRow() {
+		entryTime += SessionCalendar.MILLIS_PER_MINUTE;
+		buffer.setLength(0);
+		return TradeJournal.appendCsvRow(buffer, calendar, entryTime, "EUR/USD", "LONG", 10000, 1.10234, 1.10987, 75.3, 0.00012).length();
+	}
+
+	private final SessionCalendar calendar = new SessionCalendar(ZoneId.systemDefault());
+	private final StringBuilder buffer = new StringBuilder(128);
+	private TradeJournal journal;
+	private File file;
+	private File binaryFile;
+	private long entryTime = SyntheticBars.START_TIME;
+}
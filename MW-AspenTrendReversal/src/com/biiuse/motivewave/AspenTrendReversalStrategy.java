@@ -1,9 +1,7 @@
 package com.biiuse.motivewave;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
@@ -25,6 +23,7 @@ import com.motivewave.platform.sdk.common.desc.MarkerDescriptor;
 import com.motivewave.platform.sdk.common.desc.SettingGroup;
 import com.motivewave.platform.sdk.common.desc.SettingTab;
 import com.motivewave.platform.sdk.common.desc.SettingsDescriptor;
+import com.motivewave.platform.sdk.order_mgmt.Order;
 import com.motivewave.platform.sdk.order_mgmt.OrderContext;
 import com.motivewave.platform.sdk.study.RuntimeDescriptor;
 import com.motivewave.platform.sdk.study.StudyHeader;
@@ -55,6 +54,17 @@ public class AspenTrendReversalStrategy extends AspenTrendReversalStudySingleTim
 	
 	final static String POSITION_SIZE = "positionSize";
 	final static String STOP_LOSS_POINTS = "stopLossPoints";
+	final static String NET_REVERSAL = "netReversal";
+	final static String JOURNAL_FLUSH_INTERVAL = "journalFlushInterval";
+	final static String JOURNAL_FSYNC = "journalFsync";
+	final static String BINARY_LOG = "binaryLog";
+	
+	final static int JOURNAL_CAPACITY = 1024;
+	//maximum number of events waiting for the strategy (more than a burst of session close signals and quotes)
+	final static int EVENT_CAPACITY = 1024;
+	final static long JOURNAL_CLOSE_TIMEOUT_MILLIS = 5000;
+	//the strategy trades one instrument, so its position has a single stop
+	final static int STOP_ID = 0;
 	
 	
 	@Override
@@ -67,6 +77,13 @@ public class AspenTrendReversalStrategy extends AspenTrendReversalStudySingleTim
 		tab.addGroup(ma2);
 		ma2.addRow(new IntegerDescriptor(POSITION_SIZE, "Position size", 10000, 1, 1000000, 1));
 		ma2.addRow(new DoubleDescriptor(STOP_LOSS_POINTS, "Stop loss in terms of price", 50, 0, 9999, 1));
+		ma2.addRow(new BooleanDescriptor(NET_REVERSAL, "Reverse with a single net order?", false));
+		
+		SettingGroup journalGroup = new SettingGroup("Trade Journal");
+		tab.addGroup(journalGroup);
+		journalGroup.addRow(new IntegerDescriptor(JOURNAL_FLUSH_INTERVAL, "Journal flush interval in ms (0 = every trade)", 1000, 0, 60000, 100));
+		journalGroup.addRow(new BooleanDescriptor(JOURNAL_FSYNC, "Force journal to disk on every flush?", false));
+		journalGroup.addRow(new BooleanDescriptor(BINARY_LOG, "Write binary trade and signal log?", false));
 		
 		
 		//sd.addInvisibleSetting(new BarSizeDescriptor(Inputs.BARSIZE, "Daily Timefame", BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)));
@@ -101,46 +118,74 @@ public class AspenTrendReversalStrategy extends AspenTrendReversalStudySingleTim
 		}
 		*/
 		
-		this.isActivated = true;
-		info("Aspen Trend Reversal Strategy is active and trades may be taken");
-		this.context = ctx;
+		events.publishActivate(ctx);
+	}
+	
+	/**
+	 * Starts trading through the order context (on the event pipeline)
+	 */
+	private void activate(OrderContext ctx) {
+		log.info("Aspen Trend Reversal Strategy is active and trades may be taken");
+		this.orders = new OrderContextGateway(ctx);
+		trader.configure(getReversalParameters());
+		trader.setNetReversal(getSettings().getBoolean(NET_REVERSAL, false));
 		
 		DateTimeFormatter dtfwithHours = DateTimeFormat.forPattern("yyyyMMddHHmmss");
 		this.logFileName = dtfwithHours.print(new DateTime()) + "_" + ctx.getInstrument().getSymbol().replace("/", "") + ".csv";
-		
+		this.journal = new TradeJournal(logFileName, JOURNAL_CAPACITY, getSettings().getInteger(JOURNAL_FLUSH_INTERVAL), getSettings().getBoolean(JOURNAL_FSYNC));
+		if (getSettings().getBoolean(BINARY_LOG)) {
+			String binaryLogFileName = logFileName.substring(0, logFileName.length() - ".csv".length()) + ".bin";
+			this.journal.setBinaryLog(new BinaryTradeLogWriter(binaryLogFileName, ctx.getInstrument().getSymbol(), getLoggedSettings()));
+		}
+		this.journal.start();
 	}
 	
 	@Override
 	public void onDeactivate(OrderContext ctx) {
-		this.isActivated = false;
-		info("Aspen Trend Reversal Strategy is inactive - no trades will be taken");
+		//the journal is closed by the handler: wait for it, or deactivate right away if called from within the handler
+		if (events.isHandlerThread()) deactivate();
+		else if (!events.awaitHandled(events.publishDeactivate(), JOURNAL_CLOSE_TIMEOUT_MILLIS)) {
+			log.log(DiagnosticLog.Level.WARNING, "Deactivation still pending - the journal may not be closed yet");
+		}
 		super.onDeactivate(ctx);
 	}
 	
-	private void writeToCSV(DateTime timeStamp, Instrument ins, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
-		//check if file exists or is empty
-		boolean alreadyExists = new File(this.logFileName).exists();
-		if (!alreadyExists) {
-			try {
-				new File(this.logFileName).createNewFile();
-				BufferedWriter out = new BufferedWriter(new FileWriter(this.logFileName));
-				out.write("DATE, SYMBOL, TRADE DIRECTION, POSITION SIZE, ENTRY PRICE, EXIT PRICE, P/L $, DRAW DOWN" + "\n");
-				out.close();
-			} 
-			catch (IOException e) {
-				info ("Could not write to log file" + e.toString());
-			}
+	/**
+	 * Stops trading and closes the journal (on the event pipeline)
+	 */
+	private void deactivate() {
+		if (orders == null) return;
+		orders = null;
+		log.info("Aspen Trend Reversal Strategy is inactive - no trades will be taken");
+		if (journal != null) {
+			//write out all pending trades before going inactive
+			journal.close(JOURNAL_CLOSE_TIMEOUT_MILLIS);
+			if (journal.getLastError() != null) log.error("Could not write to log file" + journal.getLastError().toString());
+			if (journal.getDroppedRecords() > 0) log.log(DiagnosticLog.Level.WARNING, journal.getDroppedRecords() + " trades could not be written to " + journal.getFileName());
+			journal = null;
 		}
-		try {
-			DateTimeFormatter dtfwithHours = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
-			BufferedWriter out = new BufferedWriter(new FileWriter(this.logFileName, true));
-			
-			out.write(dtfwithHours.print(timeStamp) + "," + ins.getSymbol() + "," + tradeDirection + "," + positionSize + "," + String.format("%.5f",entryPrice) + "," + 
-					String.format("%.5f",exitPrice) + "," + String.format("%.2f",PL) + ", " + String.format("%.5f",drawDown) + "\n");
-			out.close();
+		stops.removeStop(STOP_ID);
+		watchingStop = false;
+	}
+	
+	/**
+	 * Settings that determine the trades, recorded in the header of the binary log
+	 */
+	private Map<String, String> getLoggedSettings() {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		for (String key : new String[] { LOOKBACK_DAYS, SESSION_CLOSE_HOURS, SESSION_CLOSE_MINUTES, LOOKAHEAD_SESSION_CLOSE, OMIT_CONSECUTIVE_LL_HH, POSITION_SIZE, STOP_LOSS_POINTS, NET_REVERSAL }) {
+			settings.put(key, String.valueOf(getSettings().getInput(key)));
 		}
-		catch (IOException e) {
-			info ("Could not write to log file" + e.toString());
+		return settings;
+	}
+	
+	private void writeToCSV(long timeStamp, Instrument ins, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+		if (journal == null) return;
+		long start = System.nanoTime();
+		boolean appended = journal.append(timeStamp, ins.getSymbol(), tradeDirection, positionSize, entryPrice, exitPrice, PL, drawDown);
+		getMetrics(orders.getOrderContext().getDataContext()).recordSince(CallbackMetrics.Latency.JOURNAL_WRITE, start);
+		if (!appended) {
+			log.log(DiagnosticLog.Level.WARNING, "Trade journal is full - trade not written to " + journal.getFileName());
 		}
 	}
 	
@@ -148,99 +193,175 @@ public class AspenTrendReversalStrategy extends AspenTrendReversalStudySingleTim
 	@Override
 	public void onSignal(OrderContext ctx, Object signal)
 	  {
-		info("OnSignal");
-		
-		if (!this.isActivated)
-			return;
+		log.debug("OnSignal");
+		//only the look back of the strategy is traded, not the additional look backs of the study
+		if (!(signal instanceof Signals)) return;
 		
-		int positionSize = getSettings().getInteger(POSITION_SIZE);
+		long start = System.nanoTime();
 		DataSeries series = ctx.getDataContext().getDataSeries();
-		DateTime barEndTime = new DateTime(series.getEndTime());
-		DateTimeFormatter dtfwithHours = DateTimeFormat.forPattern("MM/dd/yyyy HH:mm:ss");
-		
+		events.publishSignal(signal, series.getEndTime(), series.getClose());
+		getMetrics(ctx.getDataContext()).recordSince(CallbackMetrics.Latency.ON_SIGNAL, start);
+	}
+	
+	/**
+	 * Trades a signal of the bar ending at barEndTime (on the event pipeline)
+	 */
+	private void handleSignal(Object signal, long barEndTime, double close) {
+		if (orders == null) return;
+		OrderContext ctx = orders.getOrderContext();
+		if (journal != null) journal.appendSignal(barEndTime, ctx.getInstrument().getSymbol(), signal == Signals.HIGH ? "SHORT" : "LONG", close);
 		
-		if (ctx.getPosition() == 0) {
-			if (signal == Signals.LOW) {
-				info(dtfwithHours.print(barEndTime) + " " + barEndTime.getZone().getID() + " " + ctx.getInstrument().getSymbol() +  " New lowest low found at: "
-						+ String.format("%.5f", series.getClose())
-						+ ": Going LONG at market");
-				ctx.buy(positionSize);
-				entryPrice = series.getClose();
-				return;
-			}
-			if (signal == Signals.HIGH) {
-				info(dtfwithHours.print(barEndTime) + " " + barEndTime.getZone().getID() + " " + ctx.getInstrument().getSymbol() +  " New highest high found at: "
-						+ String.format("%.5f", series.getClose())
-						+ ": Going SHORT at market");
-				ctx.sell(positionSize);
-				entryPrice = series.getClose();
-				entryDate = barEndTime;
-				return;
-			}
-			
+		ReversalTrader.Action action = trader.onSignal(orders, signal, barEndTime, close);
+		if (action != ReversalTrader.Action.NONE) {
+			CallbackMetrics metrics = getMetrics(ctx.getDataContext());
+			metrics.record(CallbackMetrics.Latency.BAR_CLOSE_TO_ORDER, (System.currentTimeMillis() - barEndTime) * 1000000L);
+			//a reversal closes the position and opens the opposite one, unless it is sent as one net order
+			boolean reversal = (action == ReversalTrader.Action.REVERSE_TO_LONG) || (action == ReversalTrader.Action.REVERSE_TO_SHORT);
+			metrics.add(CallbackMetrics.Counter.ORDERS_SENT, reversal && !getSettings().getBoolean(NET_REVERSAL, false) ? 2 : 1);
+			boolean isLong = action.isLong();
+			stops.setStop(STOP_ID, isLong, trader.getStopLevel(isLong ? 1 : -1));
+			watchingStop = true;
 		}
-		
-		// if we are long look for position reversal
-		if (ctx.getPosition() > 0) {
-			if (signal == Signals.HIGH) {
-				info(dtfwithHours.print(barEndTime) + " " + barEndTime.getZone().getID() + " " + ctx.getInstrument().getSymbol() + " New highest high found at: "
-						+ String.format("%.5f", series.getClose())
-						+ ": Reversing position to go SHORT at market");
-				ctx.closeAtMarket();
-				//log to CSV
-				writeToCSV(entryDate, ctx.getInstrument() , "LONG", positionSize, entryPrice, series.getClose(), ctx.getRealizedPnL(), looserPips);
-				ctx.sell(positionSize);
-				entryPrice = series.getClose();
-				entryDate = barEndTime;
-				looserPips = 0.0;
-				return;
-			}
+		if (!log.isEnabled(DiagnosticLog.Level.INFO)) return;
+		String barEndTimeInEST = calendar.formatDateTime(barEndTime) + " " + calendar.getZone().getId();
+		switch (action) {
+		case ENTER_LONG:
+			log.info(barEndTimeInEST + " " + ctx.getInstrument().getSymbol() +  " New lowest low found at: "
+					+ String.format("%.5f", close)
+					+ ": Going LONG at market");
+			break;
+		case ENTER_SHORT:
+			log.info(barEndTimeInEST + " " + ctx.getInstrument().getSymbol() +  " New highest high found at: "
+					+ String.format("%.5f", close)
+					+ ": Going SHORT at market");
+			break;
+		case REVERSE_TO_SHORT:
+			log.info(barEndTimeInEST + " " + ctx.getInstrument().getSymbol() + " New highest high found at: "
+					+ String.format("%.5f", close)
+					+ ": Reversing position to go SHORT at market");
+			break;
+		case REVERSE_TO_LONG:
+			log.info(barEndTimeInEST + " " + ctx.getInstrument().getSymbol() + " New lowest low found at: "
+					+ String.format("%.5f", close)
+					+ ": Reversing position to go LONG at market");
+			break;
+		default:
+			break;
 		}
-		
-		if (context.getPosition() < 0) {
-			if (signal == Signals.LOW) {
-				info(dtfwithHours.print(barEndTime) + " " + barEndTime.getZone().getID() + " " + context.getInstrument().getSymbol() + " New lowest low found at: "
-						+ String.format("%.5f", series.getClose())
-						+ ": Reversing position to go LONG at market");
-				context.closeAtMarket();
-				//log to CSV
-				writeToCSV(entryDate, context.getInstrument() , "SHORT", positionSize, entryPrice, series.getClose(), context.getRealizedPnL(), looserPips);
-				context.buy(positionSize);
-				
-				entryPrice = series.getClose();
-				entryDate = barEndTime;
-				looserPips = 0.0;
-				return;
-			}
+	}
+	
+	@Override
+	public void onSettingsUpdated(DataContext ctx) {
+		events.publishSettings(getReversalParameters());
+		super.onSettingsUpdated(ctx);
+	}
+	
+	/**
+	 * Applies changed settings (on the event pipeline)
+	 */
+	private void configure(ReversalParameters parameters) {
+		trader.configure(parameters);
+		trader.setNetReversal(getSettings().getBoolean(NET_REVERSAL, false));
+		//a changed stop loss applies to the open position
+		if ((orders != null) && stops.hasStop(STOP_ID)) {
+			int position = orders.getPosition();
+			if (position != 0) stops.setStop(STOP_ID, position > 0, trader.getStopLevel(position));
 		}
 	}
 	
+	@Override
+	protected ReversalParameters getReversalParameters() {
+		ReversalParameters study = super.getReversalParameters();
+		return new ReversalParameters(study.getLookBackDays(), study.getSessionCloseHours(), study.getSessionCloseMinutes(), study.getLookAheadMinutes(),
+				study.isOmitConsecutive(), getSettings().getInteger(POSITION_SIZE), getSettings().getDouble(STOP_LOSS_POINTS));
+	}
+	
 	
 	@Override
 	protected void calculate(int index, DataContext ctx) {
 		super.calculate(index, ctx);
-		if (context == null) return;
+		publishQuote(ctx);
+	}
 	
-		
-		if (this.context.getPosition() < 0) {
-			//if short
-			if (ctx.getInstrument().getAskPrice() > this.entryPrice + getSettings().getDouble(STOP_LOSS_POINTS)) {
-				context.closeAtMarket();
-				int positionSize = getSettings().getInteger(POSITION_SIZE);
-				writeToCSV(entryDate, context.getInstrument() , "SHORT", positionSize, entryPrice, ctx.getDataSeries().getClose(), context.getRealizedPnL(), looserPips);
-			}
-		}
-		
-		if (this.context.getPosition() > 0) {
-			//if long
-			if (ctx.getInstrument().getBidPrice() < this.entryPrice - getSettings().getDouble(STOP_LOSS_POINTS)) {
-				int positionSize = getSettings().getInteger(POSITION_SIZE);
-				context.closeAtMarket();
-				writeToCSV(entryDate, context.getInstrument() , "LONG", positionSize, entryPrice, ctx.getDataSeries().getClose(), context.getRealizedPnL(), looserPips);
-			}
+	/**
+	 * Called on every quote update of the forming bar - the closest the SDK comes to a tick callback - so a stop loss
+	 * is hit at the first quote beyond its level instead of at the next bar
+	 */
+	@Override
+	public void onBarUpdate(OrderContext ctx) {
+		publishQuote(ctx.getDataContext());
+	}
+	
+	/**
+	 * Closing a position outside the strategy (e.g. by hand) also ends its stop loss
+	 */
+	@Override
+	public void onPositionClosed(OrderContext ctx) {
+		events.publishPositionClosed();
+		super.onPositionClosed(ctx);
+	}
+	
+	@Override
+	public void onOrderRejected(OrderContext ctx, Order order) {
+		events.publishOrderRejected(order);
+		super.onOrderRejected(ctx, order);
+	}
+	
+	@Override
+	public void onOrderFilled(OrderContext ctx, Order order) {
+		events.publishOrderFilled(order);
+		super.onOrderFilled(ctx, order);
+	}
+	
+	@Override
+	public void onOrderCancelled(OrderContext ctx, Order order) {
+		events.publishOrderCancelled(order);
+		super.onOrderCancelled(ctx, order);
+	}
+	
+	/**
+	 * Passes the current quote on to the stop loss, if the position has one. Under load only the latest quote is
+	 * checked.
+	 */
+	private void publishQuote(DataContext ctx) {
+		if (!watchingStop) return;
+		Instrument instrument = ctx.getInstrument();
+		if (!events.publishQuote(instrument.getLastTimestamp(), instrument.getBidPrice(), instrument.getAskPrice())) {
+			getMetrics(ctx).increment(CallbackMetrics.Counter.QUOTES_COALESCED);
 		}
 	}
 	
+	/**
+	 * Checks the stop loss against a quote (on the event pipeline)
+	 */
+	private void checkStopLoss(long time, double bidPrice, double askPrice) {
+		if ((orders == null) || (stops.size() == 0)) return;
+		long start = System.nanoTime();
+		stops.onQuote(time, bidPrice, askPrice);
+		getMetrics(orders.getOrderContext().getDataContext()).recordSince(CallbackMetrics.Latency.STOP_LOSS_CHECK, start);
+	}
+	
+	/**
+	 * Removes the stop loss if the position has been closed (on the event pipeline)
+	 */
+	private void handlePositionClosed() {
+		//the opening order of a reversal may still be working
+		if ((orders == null) || !stops.hasStop(STOP_ID) || (orders.getPosition() + orders.getWorkingQuantity() != 0)) return;
+		stops.removeStop(STOP_ID);
+		watchingStop = false;
+		log.info("Position closed - stop loss removed");
+	}
+	
+	/**
+	 * Stops tracking an order the platform has filled, cancelled or rejected, and passes its fills on to the trader
+	 * (on the event pipeline)
+	 */
+	private void handleOrderDone(Order order, boolean filled) {
+		if (orders == null) return;
+		int quantity = filled ? orders.onOrderFilled(order) : orders.onOrderEnded(order);
+		if (quantity != 0) trader.onFill(orders, quantity, order.getAvgFillPrice());
+	}
+	
 	
 		
 	/*    
@@ -354,14 +475,78 @@ public class AspenTrendReversalStrategy extends AspenTrendReversalStudySingleTim
 		
 	}
 	*/
-	private OrderContext context;
-	private boolean isActivated = false;
+	//the position state (orders, journal, trader, stops) is only touched by the handler of the event pipeline
+	private OrderContextGateway orders;
 	private boolean sufficientHistoricalDataAvailable = false;
 	private String logFileName;
+	private TradeJournal journal;
 	
-	private double entryPrice;
-	private DateTime entryDate;
-	private double looserPips;
+	private final SessionCalendar calendar = SessionCalendar.getNewYorkCalendar();
+	private final ReversalTrader trader = new ReversalTrader(new ReversalTrader.TradeListener() {
+		@Override
+		public void onTradeClosed(long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+			writeToCSV(entryTime, orders.getOrderContext().getInstrument(), tradeDirection, positionSize, entryPrice, exitPrice, PL, drawDown);
+		}
+	});
+	private final StopLossMonitor stops = new StopLossMonitor(new StopLossMonitor.Listener() {
+		@Override
+		public void onStop(int id, boolean isLong, double level, long time, double bidPrice, double askPrice) {
+			if (orders == null) return;
+			log.log(DiagnosticLog.Level.INFO, "Stop loss at ", level, 5);
+			trader.stopOut(orders, isLong ? bidPrice : askPrice);
+			watchingStop = false;
+			getMetrics(orders.getOrderContext().getDataContext()).increment(CallbackMetrics.Counter.ORDERS_SENT);
+		}
+	});
+	//hint for the publishers whether quotes are needed, written by the handler
+	private volatile boolean watchingStop = false;
+	private final StrategyEventPipeline events = new StrategyEventPipeline(new StrategyEventPipeline.Handler() {
+		@Override
+		public void onActivate(Object context) {
+			activate((OrderContext) context);
+		}
+
+		@Override
+		public void onDeactivate() {
+			deactivate();
+		}
+
+		@Override
+		public void onSettings(ReversalParameters parameters) {
+			configure(parameters);
+		}
+
+		@Override
+		public void onSignal(Object signal, long barEndTime, double close) {
+			handleSignal(signal, barEndTime, close);
+		}
+
+		@Override
+		public void onQuote(long time, double bidPrice, double askPrice) {
+			checkStopLoss(time, bidPrice, askPrice);
+		}
+
+		@Override
+		public void onPositionClosed() {
+			handlePositionClosed();
+		}
+
+		@Override
+		public void onOrderRejected(Object order) {
+			log.log(DiagnosticLog.Level.WARNING, "Order rejected: " + order);
+			handleOrderDone((Order) order, false);
+		}
+
+		@Override
+		public void onOrderFilled(Object order) {
+			handleOrderDone((Order) order, true);
+		}
+
+		@Override
+		public void onOrderCancelled(Object order) {
+			handleOrderDone((Order) order, false);
+		}
+	}, EVENT_CAPACITY);
 	
 	
 }
@@ -1,20 +1,11 @@
 package com.biiuse.motivewave;
 
-import java.awt.BasicStroke;
-import java.awt.Color;
-import java.time.DayOfWeek;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeConstants;
-import org.joda.time.Minutes;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.motivewave.platform.sdk.common.BarSize;
-import com.motivewave.platform.sdk.common.Coordinate;
 import com.motivewave.platform.sdk.common.DataContext;
 import com.motivewave.platform.sdk.common.DataSeries;
 import com.motivewave.platform.sdk.common.Defaults;
@@ -22,18 +13,16 @@ import com.motivewave.platform.sdk.common.Enums;
 import com.motivewave.platform.sdk.common.Enums.BarSizeType;
 import com.motivewave.platform.sdk.common.Enums.IntervalType;
 import com.motivewave.platform.sdk.common.Inputs;
-import com.motivewave.platform.sdk.common.MarkerInfo;
+import com.motivewave.platform.sdk.common.NVP;
 import com.motivewave.platform.sdk.common.desc.BarSizeDescriptor;
 import com.motivewave.platform.sdk.common.desc.BooleanDescriptor;
+import com.motivewave.platform.sdk.common.desc.DiscreteDescriptor;
 import com.motivewave.platform.sdk.common.desc.IntegerDescriptor;
 import com.motivewave.platform.sdk.common.desc.MarkerDescriptor;
 import com.motivewave.platform.sdk.common.desc.SettingGroup;
 import com.motivewave.platform.sdk.common.desc.SettingTab;
 import com.motivewave.platform.sdk.common.desc.SettingsDescriptor;
 import com.motivewave.platform.sdk.draw.Figure;
-import com.motivewave.platform.sdk.draw.Label;
-import com.motivewave.platform.sdk.draw.Line;
-import com.motivewave.platform.sdk.draw.Marker;
 import com.motivewave.platform.sdk.study.RuntimeDescriptor;
 import com.motivewave.platform.sdk.study.Study;
 import com.motivewave.platform.sdk.study.StudyHeader;
@@ -57,6 +46,15 @@ public class AspenTrendReversalStudySingleTimeFrame extends Study {
 	
 	enum Signals { NONE, LOW, HIGH };
 	
+	//signals of the additional look backs, per slot
+	enum EnsembleSignals {
+		LOW_1, HIGH_1, LOW_2, HIGH_2, LOW_3, HIGH_3, LOW_4, HIGH_4;
+		
+		static EnsembleSignals of(int slot, Signals signal) {
+			return values()[slot * 2 + (signal == Signals.HIGH ? 1 : 0)];
+		}
+	};
+	
 	//input identifiers
 	final static String LOOKBACK_DAYS = "lookBackDays";
 	final static String SESSION_CLOSE_HOURS = "sessionCloseHours";
@@ -65,6 +63,34 @@ public class AspenTrendReversalStudySingleTimeFrame extends Study {
 	final static String HH_LL_MARKER = "HHLLMarker";
 	final static String SHOW_END_OF_SESSION = "showEndOfSession";
 	final static String OMIT_CONSECUTIVE_LL_HH = "omitConsecutiveLLHH";
+	final static String BAR_STORE = "barStore";
+	final static String SIGNAL_CACHE_FILES = "signalCacheFiles";
+	final static String DAILY_SESSION_CLOSES = "dailySessionCloses";
+	final static String LOG_LEVEL = "logLevel";
+	final static String DUMP_DIAGNOSTICS = "dumpDiagnostics";
+	//additional look backs evaluated in the same pass (0 = off)
+	final static String[] ENSEMBLE_LOOKBACK_DAYS = { "ensembleLookBackDays1", "ensembleLookBackDays2", "ensembleLookBackDays3", "ensembleLookBackDays4" };
+	
+	//settings that change the signals (the bar store provides the history of the look back); the others only
+	//change how the signals are drawn, so their signals can be reused from the signal cache
+	final static String[] SIGNAL_SETTINGS = { LOOKBACK_DAYS, SESSION_CLOSE_HOURS, SESSION_CLOSE_MINUTES, LOOKAHEAD_SESSION_CLOSE, OMIT_CONSECUTIVE_LL_HH, BAR_STORE,
+			DAILY_SESSION_CLOSES, ENSEMBLE_LOOKBACK_DAYS[0], ENSEMBLE_LOOKBACK_DAYS[1], ENSEMBLE_LOOKBACK_DAYS[2], ENSEMBLE_LOOKBACK_DAYS[3] };
+	final static String[] VISUAL_SETTINGS = { HH_LL_MARKER, SHOW_END_OF_SESSION };
+	
+	final static BarSize DAILY_BAR_SIZE = BarSize.getBarSize(BarSizeType.LINEAR, IntervalType.DAY, 1);
+	
+	//number of settings combinations per chart whose signals are kept
+	final static int SIGNAL_CACHE_SIZE = 8;
+	
+	//the last bars of the chart are always calculated bar by bar, and a bulk pass over fewer bars is not worth it
+	final static int LIVE_BARS = 2;
+	final static int MIN_HISTORY_BARS = 64;
+	
+	//system properties overriding the directories of the bar store, of the signal cache files and of the diagnostics
+	//(dumps, metrics snapshot)
+	final static String BAR_STORE_DIRECTORY_PROPERTY = "aspen.barStore";
+	final static String SIGNAL_CACHE_DIRECTORY_PROPERTY = "aspen.signalCache";
+	final static String DIAGNOSTICS_DIRECTORY_PROPERTY = "aspen.diagnostics";
 	
 	@Override
 	public void initialize(Defaults defaults) {
@@ -89,7 +115,25 @@ public class AspenTrendReversalStudySingleTimeFrame extends Study {
 		ma1.addRow(new BooleanDescriptor(SHOW_END_OF_SESSION, "Show end of session?", true));
 
 		ma1.addRow(new BooleanDescriptor(OMIT_CONSECUTIVE_LL_HH, "Omit consecutive LL or HHs", true));
+		
+		ma1.addRow(new BooleanDescriptor(BAR_STORE, "Record bars to / read history from bar store?", false));
+		
+		ma1.addRow(new BooleanDescriptor(DAILY_SESSION_CLOSES, "Take session closes from the daily series?", false));
+		
+		ma1.addRow(new BooleanDescriptor(SIGNAL_CACHE_FILES, "Keep calculated signals in cache files for a faster start?", true));
+		
+		SettingGroup ensemble = new SettingGroup("Additional Look Backs (signals only, 0 = off)");
+		tab.addGroup(ensemble);
+		for (int slot = 0; slot < ENSEMBLE_LOOKBACK_DAYS.length; ++slot) {
+			ensemble.addRow(new IntegerDescriptor(ENSEMBLE_LOOKBACK_DAYS[slot], "LookBackDays " + (slot + 1), 0, 0, 9999, 1));
+		}
 
+		SettingGroup diagnostics = new SettingGroup("Diagnostics");
+		tab.addGroup(diagnostics);
+		List<NVP> levels = new ArrayList<NVP>();
+		for (DiagnosticLog.Level level : DiagnosticLog.Level.values()) levels.add(new NVP(level.name(), level.name()));
+		diagnostics.addRow(new DiscreteDescriptor(LOG_LEVEL, "Log level (DEBUG and TRACE are only kept for dumps)", DiagnosticLog.Level.INFO.name(), levels));
+		diagnostics.addRow(new BooleanDescriptor(DUMP_DIAGNOSTICS, "Dump recent log messages to file now?", false));
 		
 		// Runtime Settings
 		RuntimeDescriptor desc = new RuntimeDescriptor();
@@ -97,233 +141,91 @@ public class AspenTrendReversalStudySingleTimeFrame extends Study {
 		// Signals
 	    desc.declareSignal(Signals.HIGH, "Session close high");
 	    desc.declareSignal(Signals.LOW, "Session close low");
+	    for (int slot = 0; slot < ENSEMBLE_LOOKBACK_DAYS.length; ++slot) {
+	    	desc.declareSignal(EnsembleSignals.of(slot, Signals.HIGH), "Session close high (additional look back " + (slot + 1) + ")");
+	    	desc.declareSignal(EnsembleSignals.of(slot, Signals.LOW), "Session close low (additional look back " + (slot + 1) + ")");
+	    }
 		desc.setLabelSettings(LOOKBACK_DAYS, SESSION_CLOSE_HOURS, SESSION_CLOSE_MINUTES, LOOKAHEAD_SESSION_CLOSE);
 	    desc.setLabelPrefix("Session Close HH/LL Study - rev");
 	}
 	
-	private double getSessionCloseLow(DataContext ctx, int lookBackSessions, int barIndex) throws DataException {
-		
-		info ("LookBackSessions: " + lookBackSessions);
-		
-		//if daily charts simply check the previous bars
-		if (ctx.getChartBarSize().getIntervalMinutes() == 1440) {
-			info ("Bar: " + new DateTime(ctx.getDataSeries().getStartTime(barIndex)).toString());
-			double low = 999999;
-			for (int i = 1; i <= lookBackSessions; ++i) {
-				if (ctx.getDataSeries().getClose(barIndex-i) < low) low = ctx.getDataSeries().getClose(barIndex-i);
-				info (new DateTime(ctx.getDataSeries().getStartTime(barIndex-i)).toString() + " " + ctx.getDataSeries().getClose(barIndex-i));
-			}
-			return low;
-		//otherwise it's a bit more complicated
-		} else {
-			double low = 999999;
-		
-			int sessionCloseHours = getSettings().getInteger(SESSION_CLOSE_HOURS);
-			int sessionCloseMinutes = getSettings().getInteger(SESSION_CLOSE_MINUTES);
-			
-			DateTime dateTimeOfCurrentBar = new DateTime(ctx.getDataSeries().getStartTime(barIndex)); 
-			
-			ZonedDateTime sessionCloseDateTimeInEST = ZonedDateTime.of(dateTimeOfCurrentBar.getYear(), 
-																   dateTimeOfCurrentBar.getMonthOfYear(),
-																   dateTimeOfCurrentBar.getDayOfMonth(), 
-																   sessionCloseHours,
-																   sessionCloseMinutes,
-																   0,0,
-																   ZoneId.of("America/New_York"));
-			int numberOfSessionsAnalyzed = 0;
-			while (numberOfSessionsAnalyzed < lookBackSessions) {
-				//calculate the close date and time of the previous session in EST, ensure to skip weekends
-				do {
-					sessionCloseDateTimeInEST = sessionCloseDateTimeInEST.minusDays(1);
-					sessionCloseDateTimeInEST = ZonedDateTime.of(sessionCloseDateTimeInEST.getYear(), 
-																 sessionCloseDateTimeInEST.getMonthValue(),
-																 sessionCloseDateTimeInEST.getDayOfMonth(),
-																 sessionCloseHours,
-																 sessionCloseMinutes,
-																 0,0,
-																 ZoneId.of("America/New_York"));
-					
-					
-				} while ((sessionCloseDateTimeInEST.getDayOfWeek() == DayOfWeek.SUNDAY) ||
-						 (sessionCloseDateTimeInEST.getDayOfWeek() == DayOfWeek.SATURDAY));
-				
-				
-				//find corresponding time in EST
-				DateTime sessionCloseDateTimeinUTC = new DateTime(sessionCloseDateTimeInEST.getYear(),
-																  sessionCloseDateTimeInEST.getMonthValue(),
-																  sessionCloseDateTimeInEST.getDayOfMonth(),
-																  sessionCloseDateTimeInEST.getHour(),
-																  sessionCloseDateTimeInEST.getMinute(),
-																  sessionCloseDateTimeInEST.getSecond()).
-																  minusHours(sessionCloseDateTimeInEST.getOffset().getTotalSeconds()/3600).
-																  minusMinutes(ctx.getChartBarSize().getIntervalMinutes());
-				
-				//info ("Predicted session start bar in UTC: " + sessionCloseDateTimeinUTC);
-				
-				
-				int indexOfSessionCloseBar = ctx.getDataSeries().findIndex(sessionCloseDateTimeinUTC.getMillis());
-				if (indexOfSessionCloseBar == -1) throw new InsufficientDataException();
-				double closeOfSession = ctx.getDataSeries().getClose(indexOfSessionCloseBar);
-				
-				if (closeOfSession < low) low = closeOfSession;
-				numberOfSessionsAnalyzed++;
-
-			}
-			
-			if (low == 999999) throw new DataException("Lowest low could not be estblished");
-			return low;
-		}
+	/**
+	 * Snapshot of the settings that drive the signals
+	 */
+	protected ReversalParameters getReversalParameters() {
+		ReversalParameters defaults = ReversalParameters.getDefaults();
+		return new ReversalParameters(getSettings().getInteger(LOOKBACK_DAYS), getSettings().getInteger(SESSION_CLOSE_HOURS), getSettings().getInteger(SESSION_CLOSE_MINUTES),
+				getSettings().getInteger(LOOKAHEAD_SESSION_CLOSE), getSettings().getBoolean(OMIT_CONSECUTIVE_LL_HH), defaults.getPositionSize(), defaults.getStopLossPoints());
 	}
 	
-	private double getSessionCloseHigh(DataContext ctx, int lookBackSessions, int barIndex) throws DataException {
-		//for daily charts simply count back the lookback bars
-		if (ctx.getChartBarSize().getIntervalMinutes() == 1440) {
-			double high = -1;
-			for (int i = 1; i <= lookBackSessions; ++i) {
-				if (ctx.getDataSeries().getClose(barIndex-i) > high) high = ctx.getDataSeries().getClose(barIndex-i);
-			}
-			return high;
-		}
-		else {
-			double high = -1;
-			int sessionCloseHours = getSettings().getInteger(SESSION_CLOSE_HOURS);
-			int sessionCloseMinutes = getSettings().getInteger(SESSION_CLOSE_MINUTES);
-			
-			DateTime dateTimeOfCurrentBar = new DateTime(ctx.getDataSeries().getStartTime(barIndex)); 
-			
-			ZonedDateTime sessionCloseDateTimeInEST = ZonedDateTime.of(dateTimeOfCurrentBar.getYear(), 
-																   dateTimeOfCurrentBar.getMonthOfYear(),
-																   dateTimeOfCurrentBar.getDayOfMonth(), 
-																   sessionCloseHours,
-																   sessionCloseMinutes,
-																   0,0,
-																   ZoneId.of("America/New_York"));
-			int numberOfSessionsAnalyzed = 0;
-			while (numberOfSessionsAnalyzed < lookBackSessions) {
-				//calculate the close date and time of the previous session in EST, ensure to skip weekends
-				do {
-					sessionCloseDateTimeInEST = sessionCloseDateTimeInEST.minusDays(1);
-					sessionCloseDateTimeInEST = ZonedDateTime.of(sessionCloseDateTimeInEST.getYear(), 
-																 sessionCloseDateTimeInEST.getMonthValue(),
-																 sessionCloseDateTimeInEST.getDayOfMonth(),
-																 sessionCloseHours,
-																 sessionCloseMinutes,
-																 0,0,
-																 ZoneId.of("America/New_York"));
-					
-					
-				} while ((sessionCloseDateTimeInEST.getDayOfWeek() == DayOfWeek.SUNDAY) ||
-						 (sessionCloseDateTimeInEST.getDayOfWeek() == DayOfWeek.SATURDAY));
-				
-				//find corresponding time in EST
-				DateTime sessionCloseDateTimeinUTC = new DateTime(sessionCloseDateTimeInEST.getYear(),
-																  sessionCloseDateTimeInEST.getMonthValue(),
-																  sessionCloseDateTimeInEST.getDayOfMonth(),
-																  sessionCloseDateTimeInEST.getHour(),
-																  sessionCloseDateTimeInEST.getMinute(),
-																  sessionCloseDateTimeInEST.getSecond()).
-																  minusHours(sessionCloseDateTimeInEST.getOffset().getTotalSeconds()/3600).
-																  minusMinutes(ctx.getChartBarSize().getIntervalMinutes());
-				
-				//info ("Predicted session start bar in UTC: " + sessionCloseDateTimeinUTC);
-				
-				int indexOfSessionCloseBar = ctx.getDataSeries().findIndex(sessionCloseDateTimeinUTC.getMillis());
-				if (indexOfSessionCloseBar == -1) throw new InsufficientDataException();
-				double closeOfSession = ctx.getDataSeries().getClose(indexOfSessionCloseBar);
-				if (closeOfSession > high) high = closeOfSession;
-				numberOfSessionsAnalyzed++;
-				//info ("Time of session start bar in UTC: " + new DateTime(ctx.getDataSeries().getStartTime(indexOfSessionCloseBar)));
-			}
-			
-			if (high == -1) throw new DataException("Lowest low could not be estblished");
-			return high;
-		}
+	/**
+	 * Additional look backs in sessions, per slot (0 if off)
+	 */
+	private int[] getEnsembleLookBacks() {
+		int[] lookBacks = new int[ENSEMBLE_LOOKBACK_DAYS.length];
+		for (int slot = 0; slot < lookBacks.length; ++slot) lookBacks[slot] = Math.max(getSettings().getInteger(ENSEMBLE_LOOKBACK_DAYS[slot], 0) - 1, 0);
+		return lookBacks;
 	}
 	
-	
-	private double getLowFromDailyBars(DataContext ctx, int lookBackSessions, int barIndexOfCurrentChart) throws DataException{
-		/*
-		DateTime refBarStartTime = new DateTime(ctx.getDataSeries().getStartTime(barIndexOfCurrentChart));
-		//respective index on Daily Chart
-		
-		
-		int barIndexOnDailyChart;
-		do {
-			barIndexOnDailyChart = ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).findIndex(refBarStartTime.getMillis());
-		} while (ctx.isLoadingData());
-		*/
-		
-		int barIndexOnDailyChart = barIndexOfCurrentChart;
-		
-		//info("Size is: " + ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).size());
-		
-		//if (barIndexOnDailyChart > ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).size()) throw new InsufficientDataException();
-		
-		double low = 999999;
-		for (int i = 1; i<=lookBackSessions;++i) {
-			double closeOfSession = ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).getClose(barIndexOnDailyChart-i);
-			if (closeOfSession < low) low = closeOfSession;
-		}
-		if (low == 999999) throw new DataException("Lowest low could not be estblished");
-		return low;
-	}
-	
-	private double getHighFromDailyBars(DataContext ctx, int lookBackSessions, int barIndexOfCurrentChart) throws DataException{
-		/*
-		DateTime refBarStartTime = new DateTime(ctx.getDataSeries().getStartTime(barIndexOfCurrentChart));
-		//respective index on Daily Chart
-		int barIndexOnDailyChart;
-		
-		do {
-			barIndexOnDailyChart = ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).findIndex(refBarStartTime.getMillis());
-		} while (ctx.isLoadingData());
-		*/
-		int barIndexOnDailyChart = barIndexOfCurrentChart;
-		
-		//info("Size is: " + ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).size());
-		
-		//if (barIndexOnDailyChart > ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).size()) throw new InsufficientDataException();
-		
-		double high = -1;
-		for (int i = 1; i<=lookBackSessions;++i) {
-			double closeOfSession = ctx.getDataSeries(BarSize.getBarSize(BarSizeType.LINEAR, Enums.IntervalType.DAY, 1)).getClose(barIndexOnDailyChart-i);
-			if (closeOfSession > high) high = closeOfSession;
-		}
-		if (high == -1) throw new DataException("Highest high could not be estblished");
-		return high;
+	protected boolean isDailyChart(DataContext ctx) {
+		return (ctx.getChartBarSize().getIntervalMinutes() == 1440) || (ctx.getChartBarSize().getIntervalType() == IntervalType.DAY);
 	}
 	
+	/**
+	 * Any intraday chart (time, tick, range, ... bars of any size) or daily chart. The session closes are derived
+	 * from the bars as they come, see {@link SessionCloseAggregator}. Other charts are reported once per data series
+	 * or settings change.
+	 */
 	protected boolean isValidChartType(DataContext ctx) {
-		switch (ctx.getChartBarSize().getIntervalMinutes()) {
-		case 1:
-		case 2: 
-		case 5: 
-		case 10: 
-		case 15:
-		case 20: 
-		case 30:
-		case 60: 
-		case 1440: return true;
-		default: {
-			error ("Study only works for: 1, 2, 5, 10, 20, 30, 60mins and daily charts");
-			return false;
-			}
-		}
+		IntervalType type = ctx.getChartBarSize().getIntervalType();
+		if ((type != IntervalType.WEEK) && (type != IntervalType.MONTH)) return true;
+		if (!invalidChartReported) log.log(DiagnosticLog.Level.WARNING, "Study only works for intraday and daily charts");
+		invalidChartReported = true;
+		return false;
 	}
 	
 	
+	@Override
+	public void onLoad(Defaults defaults) {
+		super.onLoad(defaults);
+		log.setLevel(getLogLevel());
+	}
+	
 	@Override
 	public void onNewDataSeries(DataContext ctx) {
 		
 		//isOnValidChart = isValidChartType(ctx);
+		invalidChartReported = false;
+		updateDiagnostics(ctx);
 		this.clearFigures();
+		figures.clear();
+		saveSignalHistory();
+		closeBarStore();
+		generator.reset();
+		bars.clearColumns();
+		deferredFrom = -1;
+		emittedUpTo = -1;
+		metrics = null;
+		signalCache.clear();
+		signalHistory = null;
 		super.onNewDataSeries(ctx);
 	}
 	
 	@Override
 	public void onSettingsUpdated(DataContext ctx) {
 		//isOnValidChart = isValidChartType(ctx);
+		invalidChartReported = false;
+		updateDiagnostics(ctx);
+		//the figures are rebuilt from the signals, which come from the signal cache unless they have never been
+		//computed with the (signal) settings
 		this.clearFigures();
+		figures.clear();
+		//retry a bar store that could not be opened
+		barStoreFailed = false;
+		saveSignalHistory();
+		signalHistory = null;
+		deferredFrom = -1;
+		emittedUpTo = -1;
 		super.onSettingsUpdated(ctx);
 	}
 	
@@ -333,6 +235,7 @@ public class AspenTrendReversalStudySingleTimeFrame extends Study {
 		//isOnValidChart = isValidChartType(ctx);
 		super.onDataSeriesMoved(ctx);
 		//this.clearFigures();
+		updateVisibleRange(ctx.getDataSeries());
 	};
 	
 	@Override
@@ -340,134 +243,443 @@ public class AspenTrendReversalStudySingleTimeFrame extends Study {
 		//isOnValidChart = isValidChartType(ctx);
 		super.onDataSeriesUpdated(ctx);
 		//this.clearFigures();
+		updateVisibleRange(ctx.getDataSeries());
+		if (deferredFrom >= 0) calculateDeferred(ctx.getDataSeries().size(), ctx);
 	}; 
 	
+	/**
+	 * Calculates the history in bulk before the platform calls calculate for every bar; calculate then only has
+	 * to deal with the live bars
+	 */
+	@Override
+	protected void calculateValues(DataContext ctx) {
+		calculateHistory(ctx);
+		super.calculateValues(ctx);
+	}
+	
 	@Override
 	protected void calculate(int index, DataContext ctx) {
+		//the figures and signals of the bar have been added (in bulk or bar by bar) since the figures were cleared
+		if (index <= emittedUpTo) return;
+		long start = System.nanoTime();
+		try {
+			calculateBar(index, ctx);
+		}
+		finally {
+			getMetrics(ctx).recordSince(CallbackMetrics.Latency.CALCULATE, start);
+		}
+	}
+	
+	private void calculateBar(int index, DataContext ctx) {
 		
 		if(!this.isValidChartType(ctx)) return;
-		DateTimeFormatter dtfwithHours = DateTimeFormat.forPattern("MM/dd/yyyy HH:mm:ss");
 		
 		DataSeries series = ctx.getDataSeries();
+		//the latest bars are calculated after loading and on every update, so follow the chart from there
+		if (index >= series.size() - 2) updateVisibleRange(series);
 		if (!series.isBarComplete(index))
 			return;
 		
-		DateTime barEndTime = new DateTime(series.getEndTime(index));
-		LocalDateTime javaTimeBarEndTime = LocalDateTime.of(barEndTime.getYear(), barEndTime.getMonthOfYear(), barEndTime.getDayOfMonth(), barEndTime.getHourOfDay(), barEndTime.getMinuteOfHour());
-		ZonedDateTime barEndTimeInEST = ZonedDateTime.of(javaTimeBarEndTime, ZoneId.of("America/New_York"));
-		
-		int sessionCloseHours = getSettings().getInteger(SESSION_CLOSE_HOURS);
-		int sessionCloseMinutes = getSettings().getInteger(SESSION_CLOSE_MINUTES);
-		int lookBackPeriod = getSettings().getInteger(LOOKBACK_DAYS)-1; //
-		
-		int sessionCloseTotalMinutes = sessionCloseHours * 60 + sessionCloseMinutes;
-		
-		int barEndTotalMinutesinEST = barEndTimeInEST.plusSeconds(barEndTimeInEST.getOffset().getTotalSeconds()).getHour() * 60	+ barEndTimeInEST.plusSeconds(barEndTimeInEST.getOffset().getTotalSeconds()).getMinute();
+		long barEndTime = series.getEndTime(index);
+		CallbackMetrics metrics = getMetrics(ctx);
+		bars.setSeries(series);
+		generator.configure(getReversalParameters(), isDailyChart(ctx));
+		generator.setEnsembleLookBacks(getEnsembleLookBacks());
+		updateBarStore(ctx);
+		updateDailyBars(ctx);
+		SignalCache.History history = getSignalHistory(ctx, series);
+		if ((index > history.getComputedUpTo()) && !isReady(index, ctx)) return;
 		
 		//check if we are at the end of the session
-		if ((barEndTotalMinutesinEST == sessionCloseTotalMinutes) && (barEndTime.getDayOfWeek() != DateTimeConstants.SUNDAY)){
-			if((getSettings().getBoolean(SHOW_END_OF_SESSION)) && (!(ctx.getChartBarSize().getIntervalMinutes()>=1440))){
-			    Coordinate lineStart = new Coordinate(series.getEndTime(index), 0);
-				Coordinate lineEnd = new Coordinate(series.getEndTime(index), 100000);
-				Line sessionEndMarker = new Line(lineStart, lineEnd);
-				sessionEndMarker.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{5}, 0));
-				sessionEndMarker.setColor(Color.GRAY);
-				addFigure(sessionEndMarker);
+		if((getSettings().getBoolean(SHOW_END_OF_SESSION)) && (!isDailyChart(ctx))){
+			long sessionCloseTime = generator.getSessionCloseTime(bars, index);
+			if (sessionCloseTime != Long.MIN_VALUE) figures.addSessionEnd(sessionCloseTime);
+		}
+		
+		Signals signal;
+		if (index <= history.getComputedUpTo()) {
+			signal = history.getSignal(index);
+		}
+		else {
+			//continue from the checkpoint of the history if the bars before have not been calculated by the generator
+			if (generator.getLastCalculatedBar() != history.getComputedUpTo()) resumeGenerator(history);
+			if (log.isEnabled(DiagnosticLog.Level.TRACE) && generator.isEvaluationBar(barEndTime)) log.log(DiagnosticLog.Level.TRACE, "Getting session low / high of bar ", index);
+			signal = generator.calculate(bars, index);
+			history.record(index, signal, generator.getLastSignal(), generator.getEnsembleSignals(), generator.getEnsembleLastSignals());
+			metrics.add(CallbackMetrics.Counter.INSUFFICIENT_DATA, generator.getInsufficientDataCount() - countedInsufficientData);
+			countedInsufficientData = generator.getInsufficientDataCount();
+		}
+		if (barStore != null) recordBar(series, index);
+		metrics.increment(CallbackMetrics.Counter.BARS_PROCESSED);
+		if (signal != Signals.NONE) metrics.increment(CallbackMetrics.Counter.SIGNALS_EMITTED);
+		emitSignal(index, signal, ctx);
+		if (hasEnsemble()) metrics.add(CallbackMetrics.Counter.SIGNALS_EMITTED, emitEnsembleSignals(index, history, ctx));
+		if (index == emittedUpTo + 1) emittedUpTo = index;
+	}
+	
+	/**
+	 * Bulk mode for the history (on first load, after a settings change, or when many bars arrived at once): the
+	 * settings and the chart are checked once, the end times and closes are copied into primitive columns and all
+	 * completed bars except the live ones are run through the generator in one loop; their figures and signals are
+	 * added in the same pass. Bars that wait for the daily series are left to the bar by bar path.
+	 */
+	private void calculateHistory(DataContext ctx) {
+		DataSeries series = ctx.getDataSeries();
+		if ((series == null) || (series.size() == 0)) return;
+		long firstBarTime = series.getStartTime(0);
+		if (firstBarTime != emittedFirstBar) {
+			//bars were inserted before the first bar, so the bar indexes changed: add everything again
+			if (emittedUpTo >= 0) {
+				clearFigures();
+				figures.clear();
 			}
+			emittedUpTo = -1;
+			emittedFirstBar = firstBarTime;
 		}
-			
-		int lookAHead = getSettings().getInteger(LOOKAHEAD_SESSION_CLOSE);
+		int from = emittedUpTo + 1;
+		int end = series.size() - LIVE_BARS;
+		if ((end - from < MIN_HISTORY_BARS) || (deferredFrom >= 0) || !isValidChartType(ctx)) return;
+		for (int i = from; i < end; ++i) {
+			if (series.isBarComplete(i)) continue;
+			end = i;
+			break;
+		}
+		if (end - from < MIN_HISTORY_BARS) return;
 		
-		//info ("barEndTotalMinutesInEST: " + barEndTotalMinutesinEST + " sessioncloseTotalMinutes: " + sessionCloseTotalMinutes + " lookAhead: " + lookAHead);
+		long start = System.nanoTime();
+		CallbackMetrics metrics = getMetrics(ctx);
+		bars.setSeries(series);
+		generator.configure(getReversalParameters(), isDailyChart(ctx));
+		generator.setEnsembleLookBacks(getEnsembleLookBacks());
+		updateBarStore(ctx);
+		updateDailyBars(ctx);
+		if (!generator.isReady(bars, end - 1)) return;
+		SignalCache.History history = getSignalHistory(ctx, series);
+		bars.loadColumns(end);
+		boolean showSessionEnds = getSettings().getBoolean(SHOW_END_OF_SESSION) && !isDailyChart(ctx);
+		boolean ensemble = hasEnsemble();
 		
-		if ((ctx.getChartBarSize().getIntervalType() == IntervalType.DAY) || ((barEndTotalMinutesinEST >= sessionCloseTotalMinutes-lookAHead) && (barEndTotalMinutesinEST <= sessionCloseTotalMinutes) && (barEndTime.getDayOfWeek() != DateTimeConstants.SUNDAY))){
-			// get previous highest highs and lowest lows
-			double previousLowestLow = -1;
-			double previousHighestHigh = 9999;
-			try {
-				info ("Getting session low / high");
-				previousLowestLow = getSessionCloseLow(ctx, lookBackPeriod, index);
-				previousHighestHigh = getSessionCloseHigh(ctx, lookBackPeriod, index);
-				/*
-				if (ctx.getChartBarSize().getIntervalType() != IntervalType.DAY) {
-					previousLowestLow = getSessionCloseLow(ctx, lookBackPeriod, index);
-					previousHighestHigh = getSessionCloseHigh(ctx, lookBackPeriod, index);
-				} else {
-					previousLowestLow =  getLowFromDailyBars(ctx, lookBackPeriod, index);
-					previousHighestHigh = getHighFromDailyBars(ctx, lookBackPeriod, index);
-				
-				
-				} */
-			} catch (DataException e) {
-				 //info (e.toString());
-				return;
+		int signals = 0;
+		for (int index = from; index < end; ++index) {
+			if (showSessionEnds) {
+				long sessionCloseTime = generator.getSessionCloseTime(bars, index);
+				if (sessionCloseTime != Long.MIN_VALUE) figures.addSessionEnd(sessionCloseTime);
 			}
-			
-			
-			if (series.getClose(index) < previousLowestLow) {
-				if ((!getSettings().getBoolean(OMIT_CONSECUTIVE_LL_HH)) || (this.lastSignal != Signals.LOW)) {
-					//info(new DateTime(series.getEndTime(index)).toString() + " prevLL is: " + previousLowestLow + " close is" + series.getClose(index));
-					this.lastSignal = Signals.LOW;
-					//deleteLastFigures(barEndTime, lookAHead);
-					
-					//info(dtfwithHours.print(barEndTime) + ": New lowest low found");
-					Coordinate c = new Coordinate(series.getStartTime(index), series.getLow(index));
-					
-					MarkerInfo marker = getSettings().getMarker(HH_LL_MARKER);
-					Marker arrow = new Marker(c, Enums.Position.BOTTOM, marker);
-					addFigure(arrow);
-					
-					Coordinate labelCoordinate = new Coordinate(series.getStartTime(index), series.getLow(index)); // - ((series.getHigh() - series.getLow())*0.7));
-					Label priceLabel = new Label(labelCoordinate, "Low: " + String.format("%.5f", series.getClose(index)));
-					addFigure(priceLabel);
-					dateOfLastFigure = barEndTime;
-					lastFigureMarker = arrow;
-					lastFigureLabel = priceLabel;
-					ctx.signal(index, Signals.LOW, "New low on session close", series.getClose(index));
-				}
+			Signals signal;
+			if (index <= history.getComputedUpTo()) {
+				signal = history.getSignal(index);
 			}
-				
-			if (series.getClose(index) > previousHighestHigh) {
-				if ((!getSettings().getBoolean(OMIT_CONSECUTIVE_LL_HH)) || (this.lastSignal != Signals.HIGH)) {
-					this.lastSignal = Signals.HIGH;
-					
-					//deleteLastFigures(barEndTime, lookAHead);
-					//info(dtfwithHours.print(barEndTime) + ": New highest high found");
-					Coordinate c = new Coordinate(series.getStartTime(index), series.getHigh(index));
-					
-					MarkerInfo marker = getSettings().getMarker(HH_LL_MARKER);
-					Marker arrow = new Marker(c, Enums.Position.TOP, marker);
-					addFigure(arrow);
-					
-					Coordinate labelCoordinate = new Coordinate(series.getStartTime(index), series.getHigh(index)); // + ((series.getHigh() - series.getLow())*0.7));
-					Label priceLabel = new Label(labelCoordinate, "High: " + String.format("%.5f", series.getClose(index)));
-					addFigure(priceLabel);
-					dateOfLastFigure = barEndTime;
-					lastFigureMarker = arrow;
-					lastFigureLabel = priceLabel;
-					ctx.signal(index, Signals.HIGH, "New high on session close", series.getClose(index));
-				}
-				
+			else {
+				if (generator.getLastCalculatedBar() != history.getComputedUpTo()) resumeGenerator(history);
+				signal = generator.calculate(bars, index);
+				history.record(index, signal, generator.getLastSignal(), generator.getEnsembleSignals(), generator.getEnsembleLastSignals());
 			}
+			if (barStore != null) recordBar(series, index);
+			if (ensemble) signals += emitEnsembleSignals(index, history, ctx);
+			if (signal == Signals.NONE) continue;
+			signals++;
+			emitSignal(index, signal, ctx);
 		}
+		emittedUpTo = end - 1;
+		
+		metrics.add(CallbackMetrics.Counter.BARS_PROCESSED, end - from);
+		metrics.add(CallbackMetrics.Counter.SIGNALS_EMITTED, signals);
+		metrics.add(CallbackMetrics.Counter.INSUFFICIENT_DATA, generator.getInsufficientDataCount() - countedInsufficientData);
+		countedInsufficientData = generator.getInsufficientDataCount();
+		metrics.recordSince(CallbackMetrics.Latency.CALCULATE_HISTORY, start);
+		if (log.isEnabled(DiagnosticLog.Level.DEBUG)) log.log(DiagnosticLog.Level.DEBUG, "Calculated bars " + from + " to " + (end - 1) + " in bulk");
 	}
 	
-	private void deleteLastFigures(DateTime barDate, int lookAhead) {
-		//info("CurrBar: " + barDate + " Lastbar: " + dateOfLastFigure + " " + " Lookahead: " + lookAhead);
-		if ((lastFigureMarker != null) && (lastFigureLabel != null)) {
-			if (Minutes.minutesBetween(dateOfLastFigure, barDate).getMinutes() <= lookAhead) {
-				//info("Diff is: " + Minutes.minutesBetween(barDate, dateOfLastFigure).getMinutes());
-				this.removeFigure(lastFigureMarker);
-				this.removeFigure(lastFigureLabel);
-			}
+	/**
+	 * Adds the figure of a signal and passes the signal on to the platform
+	 */
+	private void emitSignal(int index, Signals signal, DataContext ctx) {
+		DataSeries series = ctx.getDataSeries();
+		if (signal == Signals.LOW) {
+			//info(dtfwithHours.print(barEndTime) + ": New lowest low found");
+			figures.setMarkerInfo(getSettings().getMarker(HH_LL_MARKER));
+			figures.addSignal(series.getStartTime(index), series.getLow(index), series.getClose(index), false);
+			ctx.signal(index, Signals.LOW, "New low on session close", series.getClose(index));
 		}
 		
-		
+		if (signal == Signals.HIGH) {
+			//info(dtfwithHours.print(barEndTime) + ": New highest high found");
+			figures.setMarkerInfo(getSettings().getMarker(HH_LL_MARKER));
+			figures.addSignal(series.getStartTime(index), series.getHigh(index), series.getClose(index), true);
+			ctx.signal(index, Signals.HIGH, "New high on session close", series.getClose(index));
+		}
+	}
+	
+	/**
+	 * Passes the signals of the additional look backs of the bar on to the platform (they are not drawn) and returns
+	 * their number
+	 */
+	private int emitEnsembleSignals(int index, SignalCache.History history, DataContext ctx) {
+		int count = 0;
+		for (int slot = 0; slot < ENSEMBLE_LOOKBACK_DAYS.length; ++slot) {
+			Signals signal = history.getEnsembleSignal(index, slot);
+			if (signal == Signals.NONE) continue;
+			int lookBackDays = getSettings().getInteger(ENSEMBLE_LOOKBACK_DAYS[slot], 0);
+			ctx.signal(index, EnsembleSignals.of(slot, signal), "New " + (signal == Signals.HIGH ? "high" : "low") + " on session close (" + lookBackDays + " days look back)",
+					ctx.getDataSeries().getClose(index));
+			count++;
+		}
+		return count;
+	}
+	
+	private boolean hasEnsemble() {
+		for (String setting : ENSEMBLE_LOOKBACK_DAYS) {
+			if (getSettings().getInteger(setting, 0) > 1) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Continues the generator from the checkpoint of the history, including the states of the additional look backs
+	 */
+	private void resumeGenerator(SignalCache.History history) {
+		generator.resume(history.getComputedUpTo(), history.getLastSignal(), history.getSessionCloses());
+		for (int slot = 0; slot < generator.getEnsembleLastSignals().length; ++slot) generator.resumeEnsemble(slot, history.getEnsembleLastSignal(slot));
+	}
+	
+	/**
+	 * Takes the session closes from the daily series if switched on (on intraday charts). The platform loads the
+	 * daily series in the background; until it is available the bars are deferred.
+	 */
+	private void updateDailyBars(DataContext ctx) {
+		boolean useDailyBars = getSettings().getBoolean(DAILY_SESSION_CLOSES, false) && !isDailyChart(ctx);
+		dailyBars.setSeries(useDailyBars ? ctx.getDataSeries(DAILY_BAR_SIZE) : null);
+		generator.setDailyBars(useDailyBars ? dailyBars : null);
+	}
+	
+	/**
+	 * True if the bar can be calculated now. A bar beyond the daily series loaded so far is deferred together with
+	 * all later bars; they are calculated (in order) by a later call once the daily series has caught up.
+	 */
+	private boolean isReady(int index, DataContext ctx) {
+		if ((deferredFrom >= 0) && (index > deferredFrom)) {
+			calculateDeferred(index, ctx);
+			if (deferredFrom >= 0) return false;
+		}
+		if (generator.isReady(bars, index)) {
+			if (index == deferredFrom) deferredFrom = -1;
+			return true;
+		}
+		if ((deferredFrom < 0) || (index < deferredFrom)) {
+			deferredFrom = index;
+			log.log(DiagnosticLog.Level.DEBUG, "Waiting for the daily series to calculate bar ", index);
+		}
+		return false;
+	}
+	
+	/**
+	 * Calculates the deferred bars before the given one, as far as the daily series allows
+	 */
+	private void calculateDeferred(int end, DataContext ctx) {
+		int from = deferredFrom;
+		deferredFrom = -1;
+		for (int i = from; (i < end) && (deferredFrom < 0); ++i) calculateBar(i, ctx);
+	}
+	
+	/**
+	 * Signals of the series computed with the current signal settings. The series is identified by instrument, bar
+	 * size and first bar; if bars are inserted before it, the bar indexes change and everything is recomputed.
+	 * Unless switched off, signals saved by an earlier session are picked up from the signal cache files.
+	 */
+	private SignalCache.History getSignalHistory(DataContext ctx, DataSeries series) {
+		long firstBarTime = series.getStartTime(0);
+		if (signalHistory != null) {
+			if (firstBarTime == signalHistoryFirstBar) return signalHistory;
+			signalCache.clear();
+			generator.reset();
+			bars.clearColumns();
+		}
+		StringBuilder key = new StringBuilder(64);
+		key.append(ctx.getInstrument().getSymbol()).append('|').append(ctx.getChartBarSize().getIntervalMinutes()).append('|').append(firstBarTime);
+		for (String setting : SIGNAL_SETTINGS) key.append('|').append(getSettings().getInput(setting));
+		signalHistoryKey = key.toString();
+		signalCache.setDirectory(getSettings().getBoolean(SIGNAL_CACHE_FILES, true) ? getSignalCacheDirectory() : null);
+		signalHistory = signalCache.get(signalHistoryKey, bars);
+		signalHistoryFirstBar = firstBarTime;
+		return signalHistory;
+	}
+	
+	/**
+	 * Writes the signals computed with the current settings to their cache file, together with the session close
+	 * index of the generator if it is at the same bar
+	 */
+	private void saveSignalHistory() {
+		if ((signalHistory == null) || (bars.getSeries() == null)) return;
+		SessionCloseIndex sessionCloses = generator.getLastCalculatedBar() == signalHistory.getComputedUpTo() ? generator.getSessionCloseIndex() : null;
+		try {
+			signalCache.save(signalHistoryKey, bars, sessionCloses);
+		}
+		catch (IOException e) {
+			log.log(DiagnosticLog.Level.WARNING, "Could not save signals to " + signalCache.getDirectory() + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Latencies and counters of the instrument of the chart
+	 */
+	protected CallbackMetrics getMetrics(DataContext ctx) {
+		if (metrics == null) metrics = Instrumentation.getInstance().getMetrics(ctx.getInstrument().getSymbol());
+		return metrics;
+	}
+	
+	/**
+	 * Shows the signals and session ends around the visible part of the chart
+	 */
+	private void updateVisibleRange(DataSeries series) {
+		figures.setVisibleRange(series.getVisibleStartTime(), series.getVisibleEndTime());
+	}
+	
+	@Override
+	public void destroy() {
+		saveSignalHistory();
+		closeBarStore();
+		super.destroy();
 	}
 	
+	/**
+	 * Opens the bar store of the instrument and bar size if it has been switched on (or closes it if switched off).
+	 * Bars in the store that precede the chart are used as history for the session close look back.
+	 */
+	private void updateBarStore(DataContext ctx) {
+		boolean useBarStore = getSettings().getBoolean(BAR_STORE) && !barStoreFailed;
+		if (useBarStore == (barStore != null)) return;
+		if (!useBarStore) {
+			closeBarStore();
+			return;
+		}
+		int intervalMinutes = ctx.getChartBarSize().getIntervalMinutes();
+		File directory = BarStore.getDirectory(getBarStoreRoot(), ctx.getInstrument().getSymbol(), intervalMinutes);
+		try {
+			barStore = BarStore.open(directory, intervalMinutes, true);
+			generator.setHistory(barStore);
+		}
+		catch (IOException e) {
+			log.error("Could not open bar store " + directory + ": " + e.getMessage());
+			barStoreFailed = true;
+		}
+	}
+	
+	/**
+	 * Appends a completed bar to the bar store, unless the store already holds newer bars
+	 */
+	private void recordBar(DataSeries series, int index) {
+		long startTime = series.getStartTime(index);
+		if ((barStore.size() > 0) && (startTime < barStore.getStartTime(barStore.size() - 1))) return;
+		try {
+			barStore.add(startTime, series.getOpen(index), series.getHigh(index), series.getLow(index), series.getClose(index));
+		}
+		catch (IOException e) {
+			log.error("Could not write to bar store " + barStore.getDirectory() + ": " + e.getMessage());
+			closeBarStore();
+			barStoreFailed = true;
+		}
+	}
+	
+	private void closeBarStore() {
+		if (barStore == null) return;
+		try {
+			barStore.close();
+		}
+		catch (IOException e) {
+			log.error("Could not close bar store " + barStore.getDirectory() + ": " + e.getMessage());
+		}
+		barStore = null;
+		generator.setHistory(null);
+	}
+	
+	private DiagnosticLog.Level getLogLevel() {
+		String level = getSettings().getString(LOG_LEVEL, DiagnosticLog.Level.INFO.name());
+		try {
+			return DiagnosticLog.Level.valueOf(level);
+		}
+		catch (IllegalArgumentException e) {
+			return DiagnosticLog.Level.INFO;
+		}
+	}
 	
-	private DateTime dateOfLastFigure;
-	private Figure lastFigureMarker = null;
-	private Figure lastFigureLabel = null;
-	private Signals lastSignal = Signals.NONE;
+	/**
+	 * Applies the log level and writes the log messages to the dump file if requested (the request is reset)
+	 */
+	private void updateDiagnostics(DataContext ctx) {
+		log.setLevel(getLogLevel());
+		File root = getDiagnosticsDirectory();
+		Instrumentation.getInstance().startSnapshots(root);
+		log.setDumpFile(new File(root, getClass().getSimpleName() + "_" + ctx.getInstrument().getSymbol().replace("/", "") + "_" + ctx.getChartBarSize().getIntervalMinutes() + "m.log"));
+		if (getSettings().getBoolean(DUMP_DIAGNOSTICS, false)) {
+			getSettings().setInput(DUMP_DIAGNOSTICS, false);
+			try {
+				log.dump(log.getDumpFile());
+				info ("Diagnostics written to " + log.getDumpFile());
+			}
+			catch (IOException e) {
+				error ("Could not write diagnostics to " + log.getDumpFile() + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Directory of the diagnostics dumps and of the metrics snapshot
+	 */
+	private static File getDiagnosticsDirectory() {
+		String directory = System.getProperty(DIAGNOSTICS_DIRECTORY_PROPERTY);
+		if (directory != null) return new File(directory);
+		return new File(new File(System.getProperty("user.home"), "MotiveWave Extensions"), "diagnostics");
+	}
+	
+	private static File getSignalCacheDirectory() {
+		String directory = System.getProperty(SIGNAL_CACHE_DIRECTORY_PROPERTY);
+		if (directory != null) return new File(directory);
+		return new File(new File(System.getProperty("user.home"), "MotiveWave Extensions"), "signalcache");
+	}
+	
+	private static File getBarStoreRoot() {
+		String directory = System.getProperty(BAR_STORE_DIRECTORY_PROPERTY);
+		if (directory != null) return new File(directory);
+		return new File(new File(System.getProperty("user.home"), "MotiveWave Extensions"), "barstore");
+	}
+	
+	protected final DiagnosticLog log = new DiagnosticLog(new DiagnosticLog.Sink() {
+		@Override
+		public void write(DiagnosticLog.Level level, String message) {
+			switch (level) {
+			case ERROR: error(message); break;
+			case WARNING: warning(message); break;
+			case INFO: info(message); break;
+			default: debug(message); break;
+			}
+		}
+	});
+	private final SessionCloseSignalGenerator generator = new SessionCloseSignalGenerator();
+	private final DataSeriesBars bars = new DataSeriesBars();
+	private final DataSeriesBars dailyBars = new DataSeriesBars();
+	//first bar that waits for the daily series (-1 if none)
+	private int deferredFrom = -1;
+	//last bar whose figures and signals have been added since the figures were cleared, and the first bar then
+	private int emittedUpTo = -1;
+	private long emittedFirstBar = Long.MIN_VALUE;
+	private BarStore barStore;
+	private boolean barStoreFailed = false;
+	private boolean invalidChartReported = false;
+	private final SignalCache signalCache = new SignalCache(SIGNAL_CACHE_SIZE);
+	private SignalCache.History signalHistory;
+	private String signalHistoryKey;
+	private CallbackMetrics metrics;
+	private long countedInsufficientData = 0;
+	private long signalHistoryFirstBar;
+	private final FigureManager figures = new FigureManager(new FigureManager.Host() {
+		@Override
+		public void addFigure(Figure figure) {
+			AspenTrendReversalStudySingleTimeFrame.this.addFigure(figure);
+		}
+
+		@Override
+		public void removeFigure(Figure figure) {
+			AspenTrendReversalStudySingleTimeFrame.this.removeFigure(figure);
+		}
+	});
 }
@@ -0,0 +1,24 @@
+package com.biiuse.motivewave;
+
+/**
+ * Read only view of a bar series, as needed by the session close logic. Implemented on top of the platform's
+ * DataSeries as well as by the in-memory and file based series used for headless replays.
+ */
+public interface BarData {
+
+	int size();
+
+	long getStartTime(int index);
+
+	long getEndTime(int index);
+
+	double getOpen(int index);
+
+	double getHigh(int index);
+
+	double getLow(int index);
+
+	double getClose(int index);
+
+	boolean isComplete(int index);
+}
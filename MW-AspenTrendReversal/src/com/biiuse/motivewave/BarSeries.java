@@ -0,0 +1,205 @@
+package com.biiuse.motivewave;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * In-memory bar series backed by primitive arrays. Used as a stand-in for the platform's DataSeries when replaying
+ * bars outside of MotiveWave.
+ */
+public class BarSeries implements BarData, BarSink {
+
+	public BarSeries(int intervalMinutes) {
+		this(intervalMinutes, 1024);
+	}
+
+	public BarSeries(int intervalMinutes, int initialCapacity) {
+		this.intervalMinutes = intervalMinutes;
+		int capacity = Math.max(initialCapacity, 16);
+		startTimes = new long[capacity];
+		opens = new double[capacity];
+		highs = new double[capacity];
+		lows = new double[capacity];
+		closes = new double[capacity];
+	}
+
+	public int getIntervalMinutes() {
+		return intervalMinutes;
+	}
+
+	@Override
+	public void add(long startTime, double open, double high, double low, double close) {
+		if (size == startTimes.length) {
+			int capacity = size * 2;
+			startTimes = Arrays.copyOf(startTimes, capacity);
+			opens = Arrays.copyOf(opens, capacity);
+			highs = Arrays.copyOf(highs, capacity);
+			lows = Arrays.copyOf(lows, capacity);
+			closes = Arrays.copyOf(closes, capacity);
+		}
+		startTimes[size] = startTime;
+		opens[size] = open;
+		highs[size] = high;
+		lows[size] = low;
+		closes[size] = close;
+		size++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public long getStartTime(int index) {
+		return startTimes[index];
+	}
+
+	@Override
+	public long getEndTime(int index) {
+		return startTimes[index] + intervalMinutes * SessionCalendar.MILLIS_PER_MINUTE;
+	}
+
+	@Override
+	public double getOpen(int index) {
+		return opens[index];
+	}
+
+	@Override
+	public double getHigh(int index) {
+		return highs[index];
+	}
+
+	@Override
+	public double getLow(int index) {
+		return lows[index];
+	}
+
+	@Override
+	public double getClose(int index) {
+		return closes[index];
+	}
+
+	@Override
+	public boolean isComplete(int index) {
+		return true;
+	}
+
+	/**
+	 * Loads bars from a CSV file with one bar per line: time, open, high, low, close (further columns such as volume
+	 * are ignored). The time is the start of the bar, either as epoch millis or as a date (yyyy-MM-dd, yyyy.MM.dd,
+	 * yyyy/MM/dd or yyyyMMdd) followed by HH:mm[:ss] in the same column or in a column of its own. Dates are
+	 * interpreted in the given time zone. Lines that do not start with a digit (headers, comments) are skipped.
+	 */
+	public static BarSeries loadCsv(String fileName, int intervalMinutes, ZoneId zone) throws IOException {
+		BarSeries series = new BarSeries(intervalMinutes, 64 * 1024);
+		readCsv(fileName, zone, series);
+		return series;
+	}
+
+	/**
+	 * Reads the bars of a CSV file (see {@link #loadCsv(String, int, ZoneId)}) into the given sink, one at a time
+	 */
+	public static void readCsv(String fileName, ZoneId zone, BarSink sink) throws IOException {
+		SessionCalendar calendar = new SessionCalendar(zone);
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.US_ASCII), 1 << 16);
+		try {
+			String line;
+			int lineNumber = 0;
+			String[] fields = new String[8];
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+				int count = split(line, fields);
+				try {
+					int column = 1;
+					long startTime;
+					if (isEpochMillis(fields[0])) {
+						startTime = Long.parseLong(fields[0]);
+					}
+					else {
+						String time = fields[0];
+						if ((count > 1) && (fields[1].indexOf(':') > 0)) time = time + ' ' + fields[column++];
+						startTime = calendar.toUtcMillis(parseLocalMillis(time));
+					}
+					if (count < column + 4) throw new IOException("Expected open, high, low and close");
+					sink.add(startTime, Double.parseDouble(fields[column]), Double.parseDouble(fields[column + 1]),
+							Double.parseDouble(fields[column + 2]), Double.parseDouble(fields[column + 3]));
+				}
+				catch (RuntimeException e) {
+					throw new IOException("Invalid bar in " + fileName + " line " + lineNumber + ": " + line, e);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	static int split(String line, String[] fields) {
+		int count = 0;
+		int start = 0;
+		for (int i = 0; (i <= line.length()) && (count < fields.length); ++i) {
+			if ((i == line.length()) || (line.charAt(i) == ',') || (line.charAt(i) == ';') || (line.charAt(i) == '\t')) {
+				fields[count++] = line.substring(start, i).trim();
+				start = i + 1;
+			}
+		}
+		return count;
+	}
+
+	static boolean isEpochMillis(String field) {
+		if (field.length() < 11) return false;
+		for (int i = 0; i < field.length(); ++i) {
+			if (!Character.isDigit(field.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parses yyyy?MM?dd[ HH:mm[:ss[.SSS]]] (or yyyyMMdd) into local millis since epoch
+	 */
+	static long parseLocalMillis(String text) {
+		int[] numbers = new int[7];
+		int count = 0;
+		int value = 0;
+		int digits = 0;
+		for (int i = 0; i <= text.length(); ++i) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isDigit(c)) {
+				value = value * 10 + (c - '0');
+				digits++;
+				//compact yyyyMMdd dates
+				if ((count == 0) && (digits == 8)) {
+					numbers[count++] = value / 10000;
+					numbers[count++] = value / 100 % 100;
+					numbers[count++] = value % 100;
+					value = 0;
+					digits = 0;
+				}
+			}
+			else if (digits > 0) {
+				if (count == numbers.length) throw new IllegalArgumentException("Invalid date: " + text);
+				numbers[count++] = value;
+				value = 0;
+				digits = 0;
+			}
+		}
+		if (count < 3) throw new IllegalArgumentException("Invalid date: " + text);
+		long epochDay = SessionCalendar.toEpochDay(numbers[0], numbers[1], numbers[2]);
+		return epochDay * SessionCalendar.MILLIS_PER_DAY + ((numbers[3] * 60L + numbers[4]) * 60L + numbers[5]) * 1000L + numbers[6];
+	}
+
+	private final int intervalMinutes;
+	private int size = 0;
+	private long[] startTimes;
+	private double[] opens;
+	private double[] highs;
+	private double[] lows;
+	private double[] closes;
+}
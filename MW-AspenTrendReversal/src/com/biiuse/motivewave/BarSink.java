@@ -0,0 +1,11 @@
+package com.biiuse.motivewave;
+
+import java.io.IOException;
+
+/**
+ * Receives bars in time order, e.g. while they are read from a file
+ */
+public interface BarSink {
+
+	void add(long startTime, double open, double high, double low, double close) throws IOException;
+}
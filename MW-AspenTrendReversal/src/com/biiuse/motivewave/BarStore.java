@@ -0,0 +1,330 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.ZoneId;
+import java.util.Map;
+
+/**
+ * Columnar bar store in memory mapped files, one directory per instrument and bar size (&lt;root&gt;/&lt;symbol&gt;/&lt;n&gt;m)
+ * with one file per column: start times (longs) and open, high, low and close (doubles). The bar data lives in the
+ * page cache rather than on the Java heap, and opening a store only maps the files, so years of minute bars are
+ * available immediately. Bars are appended in time order; the last bar may be replaced while it is still being
+ * built.
+ */
+public class BarStore implements BarData, BarSink {
+
+	final static int MAGIC = 0x41424152; //ABAR
+	final static int VERSION = 1;
+	//the time column starts with a header: magic, version, bar size in minutes, reserved, number of bars
+	final static int HEADER_LENGTH = 64;
+	final static int COUNT_OFFSET = 16;
+
+	final static String TIME_COLUMN = "time.col";
+	final static String[] PRICE_COLUMNS = { "open.col", "high.col", "low.col", "close.col" };
+
+	private final static int MIN_CAPACITY = 64 * 1024;
+
+	/**
+	 * Directory of the store of the given instrument and bar size
+	 */
+	public static File getDirectory(File root, String symbol, int intervalMinutes) {
+		return new File(new File(root, symbol.replace("/", "")), intervalMinutes + "m");
+	}
+
+	/**
+	 * Opens the store in the given directory. A writable store is created if it does not exist yet.
+	 */
+	public static BarStore open(File directory, int intervalMinutes, boolean writable) throws IOException {
+		return new BarStore(directory, intervalMinutes, writable);
+	}
+
+	/**
+	 * Opens an existing store read only; the bar size is taken from the store
+	 */
+	public static BarStore open(File directory) throws IOException {
+		return new BarStore(directory, -1, false);
+	}
+
+	private BarStore(File directory, int intervalMinutes, boolean writable) throws IOException {
+		this.directory = directory;
+		this.writable = writable;
+		File timeFile = new File(directory, TIME_COLUMN);
+		boolean create = !timeFile.exists();
+		if (create) {
+			if (!writable) throw new IOException("No bar store in " + directory);
+			if (intervalMinutes <= 0) throw new IllegalArgumentException("Bar size must be positive: " + intervalMinutes);
+			if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+		}
+
+		String mode = writable ? "rw" : "r";
+		files = new RandomAccessFile[1 + PRICE_COLUMNS.length];
+		try {
+			files[0] = new RandomAccessFile(timeFile, mode);
+			for (int c = 0; c < PRICE_COLUMNS.length; ++c) files[c + 1] = new RandomAccessFile(new File(directory, PRICE_COLUMNS[c]), mode);
+
+			if (create) {
+				map(MIN_CAPACITY);
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, intervalMinutes);
+				header.putLong(COUNT_OFFSET, 0);
+			}
+			else {
+				mapHeader();
+				if (header.getInt(0) != MAGIC) throw new IOException("Not a bar store: " + timeFile);
+				if (header.getInt(4) != VERSION) throw new IOException("Unsupported bar store version " + header.getInt(4) + ": " + timeFile);
+				if ((intervalMinutes > 0) && (header.getInt(8) != intervalMinutes)) throw new IOException("Bar store " + directory + " holds " + header.getInt(8) + " minute bars");
+				int count = readCount();
+				map(writable ? Math.max(count, MIN_CAPACITY) : count);
+			}
+		}
+		catch (IOException e) {
+			closeFiles();
+			throw e;
+		}
+		this.intervalMillis = header.getInt(8) * SessionCalendar.MILLIS_PER_MINUTE;
+		this.size = readCount();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getIntervalMinutes() {
+		return (int) (intervalMillis / SessionCalendar.MILLIS_PER_MINUTE);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public long getStartTime(int index) {
+		return times.getLong(index << 3);
+	}
+
+	@Override
+	public long getEndTime(int index) {
+		return times.getLong(index << 3) + intervalMillis;
+	}
+
+	@Override
+	public double getOpen(int index) {
+		return opens.getDouble(index << 3);
+	}
+
+	@Override
+	public double getHigh(int index) {
+		return highs.getDouble(index << 3);
+	}
+
+	@Override
+	public double getLow(int index) {
+		return lows.getDouble(index << 3);
+	}
+
+	@Override
+	public double getClose(int index) {
+		return closes.getDouble(index << 3);
+	}
+
+	@Override
+	public boolean isComplete(int index) {
+		return true;
+	}
+
+	/**
+	 * Index of the last bar that starts at or before the given time (-1 if the time is before the first bar). Bars
+	 * are expected at regular intervals, so the search starts at the interpolated position and only falls back to a
+	 * binary search around gaps (week ends, holidays).
+	 */
+	public int findIndex(long time) {
+		if ((size == 0) || (time < getStartTime(0))) return -1;
+		int last = size - 1;
+		if (time >= getStartTime(last)) return last;
+
+		long guess = (time - getStartTime(0)) / intervalMillis;
+		int low = 0;
+		int high = last;
+		if (guess < last) {
+			int g = (int) guess;
+			if (getStartTime(g) <= time) {
+				if (getStartTime(g + 1) > time) return g;
+				low = g + 1;
+			}
+			else {
+				//gaps only move bars to later times, so the bar is before the guess
+				high = g - 1;
+			}
+		}
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (getStartTime(mid) <= time) low = mid + 1;
+			else high = mid - 1;
+		}
+		return high;
+	}
+
+	/**
+	 * Appends a bar, or replaces the last bar if it has the same start time. Bars older than the last bar are
+	 * rejected.
+	 */
+	@Override
+	public void add(long startTime, double open, double high, double low, double close) throws IOException {
+		if (!writable) throw new IOException("Bar store is read only: " + directory);
+		int index = size;
+		if (size > 0) {
+			long lastStartTime = getStartTime(size - 1);
+			if (startTime == lastStartTime) index = size - 1;
+			else if (startTime < lastStartTime) throw new IllegalArgumentException("Bar at " + startTime + " is older than the last bar of " + directory);
+		}
+		if (index == capacity) map(capacity * 2);
+
+		int position = index << 3;
+		times.putLong(position, startTime);
+		opens.putDouble(position, open);
+		highs.putDouble(position, high);
+		lows.putDouble(position, low);
+		closes.putDouble(position, close);
+		if (index == size) {
+			//the count is written last, so that readers never see a bar before all of its columns
+			size++;
+			header.putLong(COUNT_OFFSET, size);
+		}
+	}
+
+	/**
+	 * Picks up bars appended by another process since the store was opened (or last refreshed)
+	 */
+	public void refresh() throws IOException {
+		int count = readCount();
+		if (count > capacity) map(count);
+		size = count;
+	}
+
+	/**
+	 * Forces all written bars to disk
+	 */
+	public void force() {
+		if (!writable) return;
+		header.force();
+		times.force();
+		opens.force();
+		highs.force();
+		lows.force();
+		closes.force();
+	}
+
+	public void close() throws IOException {
+		force();
+		closeFiles();
+	}
+
+	private int readCount() throws IOException {
+		long count = header.getLong(COUNT_OFFSET);
+		if ((count < 0) || (count > Integer.MAX_VALUE / 8)) throw new IOException("Corrupt bar count " + count + " in " + directory);
+		return (int) count;
+	}
+
+	private void mapHeader() throws IOException {
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		header = files[0].getChannel().map(mode, 0, HEADER_LENGTH);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * (Re-)maps all columns with room for the given number of bars, growing the files of a writable store
+	 */
+	private void map(int bars) throws IOException {
+		long length = (long) bars << 3;
+		if (writable) {
+			if (files[0].length() < HEADER_LENGTH + length) files[0].setLength(HEADER_LENGTH + length);
+			for (int c = 1; c < files.length; ++c) {
+				if (files[c].length() < length) files[c].setLength(length);
+			}
+		}
+		if (header == null) mapHeader();
+		times = mapColumn(files[0], HEADER_LENGTH, length);
+		opens = mapColumn(files[1], 0, length);
+		highs = mapColumn(files[2], 0, length);
+		lows = mapColumn(files[3], 0, length);
+		closes = mapColumn(files[4], 0, length);
+		capacity = bars;
+	}
+
+	private MappedByteBuffer mapColumn(RandomAccessFile file, long offset, long length) throws IOException {
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		MappedByteBuffer column = file.getChannel().map(mode, offset, length);
+		column.order(ByteOrder.LITTLE_ENDIAN);
+		return column;
+	}
+
+	private void closeFiles() throws IOException {
+		IOException error = null;
+		for (RandomAccessFile file : files) {
+			if (file == null) continue;
+			try {
+				file.close();
+			}
+			catch (IOException e) {
+				error = e;
+			}
+		}
+		if (error != null) throw error;
+	}
+
+	/**
+	 * Usage: BarStore &lt;store root&gt; &lt;symbol&gt; &lt;bar size in minutes&gt; &lt;bars.csv&gt; [zone=UTC]
+	 * <p>
+	 * Imports bars from CSV (in the formats read by {@link BarSeries#loadCsv(String, int, ZoneId)}), appending them to
+	 * the store of the instrument. Bars that are older than the last bar in the store are skipped.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: BarStore <store root> <symbol> <bar size in minutes> <bars.csv> [zone=UTC]");
+			System.exit(1);
+		}
+		int barMinutes = Integer.parseInt(args[2]);
+		Map<String, String> options = ReplayEngine.parseOptions(args, 4);
+		ZoneId zone = ZoneId.of(ReplayEngine.remove(options, "zone", "UTC"));
+		if (!options.isEmpty()) throw new IllegalArgumentException("Unknown options: " + options.keySet());
+
+		long start = System.nanoTime();
+		final BarStore store = open(getDirectory(new File(args[0]), args[1], barMinutes), barMinutes, true);
+		final int before = store.size();
+		final int[] skipped = new int[1];
+		try {
+			BarSeries.readCsv(args[3], zone, new BarSink() {
+				@Override
+				public void add(long startTime, double open, double high, double low, double close) throws IOException {
+					if ((store.size() > 0) && (startTime < store.getStartTime(store.size() - 1))) skipped[0]++;
+					else store.add(startTime, open, high, low, close);
+				}
+			});
+		}
+		finally {
+			store.close();
+		}
+		System.out.println("Imported " + (store.size() - before) + " bars into " + store.getDirectory() + " (" + store.size() + " bars, " + skipped[0]
+				+ " older bars skipped) in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	private final File directory;
+	private final boolean writable;
+	private final RandomAccessFile[] files;
+	private final long intervalMillis;
+	private MappedByteBuffer header;
+	private MappedByteBuffer times;
+	private MappedByteBuffer opens;
+	private MappedByteBuffer highs;
+	private MappedByteBuffer lows;
+	private MappedByteBuffer closes;
+	private int capacity;
+	private int size;
+}
@@ -0,0 +1,60 @@
+package com.biiuse.motivewave;
+
+/**
+ * Layout of the append-only binary trade and signal log. A file starts with a header (magic, version, header length,
+ * symbol, symbol id, creation time and the strategy settings as key / value pairs) followed by fixed width records:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     8  time (epoch millis)
+ *      8     4  symbol id
+ *     12     1  kind (trade / signal)
+ *     13     1  direction (long / short; for signals the direction the signal calls for)
+ *     14     2  reserved
+ *     16     4  position size
+ *     20     4  reserved
+ *     24     8  entry price (signal price for signals)
+ *     32     8  exit price
+ *     40     8  P/L
+ *     48     8  draw down
+ * </pre>
+ *
+ * All values are big endian.
+ */
+public final class BinaryTradeLog {
+
+	final static long MAGIC = 0x4153504E544C4F47L; //"ASPNTLOG"
+	final static int VERSION = 1;
+	final static int RECORD_SIZE = 56;
+
+	final static byte KIND_TRADE = 1;
+	final static byte KIND_SIGNAL = 2;
+
+	final static byte DIRECTION_LONG = 1;
+	final static byte DIRECTION_SHORT = -1;
+
+	final static int OFFSET_TIME = 0;
+	final static int OFFSET_SYMBOL_ID = 8;
+	final static int OFFSET_KIND = 12;
+	final static int OFFSET_DIRECTION = 13;
+	final static int OFFSET_POSITION_SIZE = 16;
+	final static int OFFSET_ENTRY_PRICE = 24;
+	final static int OFFSET_EXIT_PRICE = 32;
+	final static int OFFSET_PL = 40;
+	final static int OFFSET_DRAW_DOWN = 48;
+
+	private BinaryTradeLog() {
+	}
+
+	public static int getSymbolId(String symbol) {
+		return symbol.hashCode();
+	}
+
+	public static byte toDirection(String tradeDirection) {
+		return "SHORT".equals(tradeDirection) ? DIRECTION_SHORT : DIRECTION_LONG;
+	}
+
+	public static String toTradeDirection(byte direction) {
+		return direction == DIRECTION_SHORT ? "SHORT" : "LONG";
+	}
+}
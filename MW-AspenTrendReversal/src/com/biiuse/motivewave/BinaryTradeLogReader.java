@@ -0,0 +1,187 @@
+package com.biiuse.motivewave;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory maps a binary trade and signal log for zero copy scanning. Records are accessed by their position in the
+ * file; nothing is copied onto the heap except the header.
+ */
+public class BinaryTradeLogReader implements Closeable {
+
+	public BinaryTradeLogReader(String fileName) throws IOException {
+		this.fileName = fileName;
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		if (channel.size() > Integer.MAX_VALUE) {
+			channel.close();
+			throw new IOException("Binary trade log exceeds 2GB: " + fileName);
+		}
+		map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+		if ((map.limit() < 16) || (map.getLong(0) != BinaryTradeLog.MAGIC)) {
+			channel.close();
+			throw new IOException("Not a binary trade log: " + fileName);
+		}
+		if (map.getInt(8) != BinaryTradeLog.VERSION) {
+			channel.close();
+			throw new IOException("Unsupported binary trade log version " + map.getInt(8) + ": " + fileName);
+		}
+		headerLength = map.getInt(12);
+
+		byte[] header = new byte[headerLength - 16];
+		ByteBuffer headerBuffer = map.duplicate();
+		headerBuffer.position(16);
+		headerBuffer.get(header);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+		symbol = in.readUTF();
+		symbolId = in.readInt();
+		creationTime = in.readLong();
+		int numberOfSettings = in.readInt();
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		for (int i = 0; i < numberOfSettings; ++i) {
+			settings.put(in.readUTF(), in.readUTF());
+		}
+		this.settings = Collections.unmodifiableMap(settings);
+
+		//ignore a partially written trailing record
+		recordCount = (map.limit() - headerLength) / BinaryTradeLog.RECORD_SIZE;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public int getSymbolId() {
+		return symbolId;
+	}
+
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	public Map<String, String> getSettings() {
+		return settings;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	public long getTime(int record) {
+		return map.getLong(offset(record) + BinaryTradeLog.OFFSET_TIME);
+	}
+
+	public int getRecordSymbolId(int record) {
+		return map.getInt(offset(record) + BinaryTradeLog.OFFSET_SYMBOL_ID);
+	}
+
+	public byte getKind(int record) {
+		return map.get(offset(record) + BinaryTradeLog.OFFSET_KIND);
+	}
+
+	public boolean isTrade(int record) {
+		return getKind(record) == BinaryTradeLog.KIND_TRADE;
+	}
+
+	public byte getDirection(int record) {
+		return map.get(offset(record) + BinaryTradeLog.OFFSET_DIRECTION);
+	}
+
+	public int getPositionSize(int record) {
+		return map.getInt(offset(record) + BinaryTradeLog.OFFSET_POSITION_SIZE);
+	}
+
+	public double getEntryPrice(int record) {
+		return map.getDouble(offset(record) + BinaryTradeLog.OFFSET_ENTRY_PRICE);
+	}
+
+	public double getExitPrice(int record) {
+		return map.getDouble(offset(record) + BinaryTradeLog.OFFSET_EXIT_PRICE);
+	}
+
+	public double getPL(int record) {
+		return map.getDouble(offset(record) + BinaryTradeLog.OFFSET_PL);
+	}
+
+	public double getDrawDown(int record) {
+		return map.getDouble(offset(record) + BinaryTradeLog.OFFSET_DRAW_DOWN);
+	}
+
+	/**
+	 * Writes all trade records in the column layout of the CSV trade journal (including the header line). Times are
+	 * written in the system time zone, as in the journal.
+	 */
+	public void writeCsv(Writer out) throws IOException {
+		SessionCalendar timeFormat = new SessionCalendar(ZoneId.systemDefault());
+		StringBuilder row = new StringBuilder(128);
+		out.write(TradeJournal.CSV_HEADER);
+		out.write('\n');
+		for (int i = 0; i < recordCount; ++i) {
+			if (!isTrade(i)) continue;
+			row.setLength(0);
+			TradeJournal.appendCsvRow(row, timeFormat, getTime(i), symbol, BinaryTradeLog.toTradeDirection(getDirection(i)), getPositionSize(i),
+					getEntryPrice(i), getExitPrice(i), getPL(i), getDrawDown(i));
+			out.append(row);
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private int offset(int record) {
+		return headerLength + record * BinaryTradeLog.RECORD_SIZE;
+	}
+
+	/**
+	 * Converts a binary log to the CSV trade journal format: BinaryTradeLogReader &lt;log.bin&gt; [&lt;out.csv&gt;]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: BinaryTradeLogReader <log.bin> [<out.csv>]");
+			System.exit(1);
+		}
+		String csvFileName = args.length > 1 ? args[1] : args[0].replaceFirst("\\.bin$", "") + ".csv";
+		BinaryTradeLogReader reader = new BinaryTradeLogReader(args[0]);
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFileName), StandardCharsets.UTF_8));
+		try {
+			reader.writeCsv(out);
+		}
+		finally {
+			out.close();
+			reader.close();
+		}
+	}
+
+	private final String fileName;
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final int headerLength;
+	private final String symbol;
+	private final int symbolId;
+	private final long creationTime;
+	private final Map<String, String> settings;
+	private final int recordCount;
+}
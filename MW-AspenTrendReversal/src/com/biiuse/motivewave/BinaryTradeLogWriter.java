@@ -0,0 +1,113 @@
+package com.biiuse.motivewave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Appends trade and signal records to a binary log (see {@link BinaryTradeLog} for the layout). Not thread safe -
+ * the journal writer thread is the only user.
+ */
+public class BinaryTradeLogWriter {
+
+	final static int RECORDS_PER_BUFFER = 64;
+
+	public BinaryTradeLogWriter(String fileName, String symbol, Map<String, String> settings) {
+		this.fileName = fileName;
+		this.symbol = symbol;
+		this.symbolId = BinaryTradeLog.getSymbolId(symbol);
+		this.settings = new LinkedHashMap<String, String>(settings);
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Opens the log for appending and writes the header if the file is new
+	 */
+	public void open() throws IOException {
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.wrap(createHeader());
+			while (header.hasRemaining()) channel.write(header);
+		}
+	}
+
+	public void writeTrade(long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) throws IOException {
+		writeRecord(entryTime, BinaryTradeLog.KIND_TRADE, BinaryTradeLog.toDirection(tradeDirection), positionSize, entryPrice, exitPrice, PL, drawDown);
+	}
+
+	public void writeSignal(long time, byte direction, double price) throws IOException {
+		writeRecord(time, BinaryTradeLog.KIND_SIGNAL, direction, 0, price, Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	public void flush(boolean fsync) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+		if (fsync) channel.force(false);
+	}
+
+	public void close() throws IOException {
+		if (channel == null) return;
+		try {
+			flush(false);
+		}
+		finally {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private void writeRecord(long time, byte kind, byte direction, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) throws IOException {
+		if (buffer.remaining() < BinaryTradeLog.RECORD_SIZE) flush(false);
+		buffer.putLong(time);
+		buffer.putInt(symbolId);
+		buffer.put(kind);
+		buffer.put(direction);
+		buffer.putShort((short) 0);
+		buffer.putInt(positionSize);
+		buffer.putInt(0);
+		buffer.putDouble(entryPrice);
+		buffer.putDouble(exitPrice);
+		buffer.putDouble(PL);
+		buffer.putDouble(drawDown);
+	}
+
+	private byte[] createHeader() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(BinaryTradeLog.MAGIC);
+		out.writeInt(BinaryTradeLog.VERSION);
+		out.writeInt(0); //header length, patched below
+		out.writeUTF(symbol);
+		out.writeInt(symbolId);
+		out.writeLong(System.currentTimeMillis());
+		out.writeInt(settings.size());
+		for (Map.Entry<String, String> setting : settings.entrySet()) {
+			out.writeUTF(setting.getKey());
+			out.writeUTF(setting.getValue());
+		}
+		//align the first record to 8 bytes
+		while (out.size() % 8 != 0) out.writeByte(0);
+		out.flush();
+
+		byte[] header = bytes.toByteArray();
+		ByteBuffer.wrap(header).putInt(12, header.length);
+		return header;
+	}
+
+	private final String fileName;
+	private final String symbol;
+	private final int symbolId;
+	private final Map<String, String> settings;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryTradeLog.RECORD_SIZE * RECORDS_PER_BUFFER);
+	private FileChannel channel;
+}
@@ -0,0 +1,199 @@
+package com.biiuse.motivewave;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Latencies of the study and strategy callbacks and event counters of one instrument. Exposed as an MBean with one
+ * attribute per counter and per statistic of each latency (e.g. CalculateP99Micros, BarsProcessed).
+ */
+public class CallbackMetrics implements DynamicMBean {
+
+	public enum Latency {
+		CALCULATE("Calculate"), CALCULATE_HISTORY("CalculateHistory"), ON_SIGNAL("OnSignal"), STOP_LOSS_CHECK("StopLossCheck"), JOURNAL_WRITE("JournalWrite"),
+		//from the end of the signal bar to the buy / sell call
+		BAR_CLOSE_TO_ORDER("BarCloseToOrder");
+
+		Latency(String name) {
+			this.name = name;
+		}
+
+		final String name;
+	}
+
+	public enum Counter {
+		BARS_PROCESSED("BarsProcessed"), SIGNALS_EMITTED("SignalsEmitted"), ORDERS_SENT("OrdersSent"), INSUFFICIENT_DATA("InsufficientData"),
+		//quotes superseded by a later quote before the strategy's event pipeline got to them
+		QUOTES_COALESCED("QuotesCoalesced");
+
+		Counter(String name) {
+			this.name = name;
+		}
+
+		final String name;
+	}
+
+	//statistics of each latency: attribute suffix, description
+	private final static String[][] STATISTICS = { { "Count", "calls" }, { "MeanMicros", "mean" }, { "P50Micros", "median" }, { "P99Micros", "99th percentile" },
+			{ "P999Micros", "99.9th percentile" }, { "MaxMicros", "maximum" } };
+
+	public CallbackMetrics(String instrument) {
+		this.instrument = instrument;
+		for (int i = 0; i < latencies.length; ++i) latencies[i] = new LatencyHistogram();
+	}
+
+	public String getInstrument() {
+		return instrument;
+	}
+
+	public void record(Latency latency, long nanos) {
+		latencies[latency.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records the time since the given start (System.nanoTime())
+	 */
+	public void recordSince(Latency latency, long startNanos) {
+		latencies[latency.ordinal()].record(System.nanoTime() - startNanos);
+	}
+
+	public void increment(Counter counter) {
+		counters.incrementAndGet(counter.ordinal());
+	}
+
+	public void add(Counter counter, long delta) {
+		if (delta != 0) counters.addAndGet(counter.ordinal(), delta);
+	}
+
+	public long get(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+
+	public LatencyHistogram getHistogram(Latency latency) {
+		return latencies[latency.ordinal()];
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : latencies) histogram.reset();
+		for (int i = 0; i < counters.length(); ++i) counters.set(i, 0);
+	}
+
+	/**
+	 * Appends the column names of {@link #appendSnapshot(StringBuilder, char)}
+	 */
+	public static StringBuilder appendHeader(StringBuilder sb, char separator) {
+		sb.append("INSTRUMENT");
+		for (Counter counter : Counter.values()) sb.append(separator).append(counter.name);
+		for (Latency latency : Latency.values()) {
+			for (String[] statistic : STATISTICS) sb.append(separator).append(latency.name).append(statistic[0]);
+		}
+		return sb;
+	}
+
+	/**
+	 * Appends the current values as one row
+	 */
+	public StringBuilder appendSnapshot(StringBuilder sb, char separator) {
+		sb.append(instrument);
+		for (Counter counter : Counter.values()) sb.append(separator).append(get(counter));
+		for (Latency latency : Latency.values()) {
+			for (int s = 0; s < STATISTICS.length; ++s) {
+				sb.append(separator);
+				if (s == 0) sb.append(getHistogram(latency).getCount());
+				else DecimalFormatter.append(sb, getStatistic(latency, s), 3);
+			}
+		}
+		return sb;
+	}
+
+	private double getStatistic(Latency latency, int statistic) {
+		LatencyHistogram histogram = getHistogram(latency);
+		switch (statistic) {
+		case 0: return histogram.getCount();
+		case 1: return histogram.getMean() / 1000;
+		case 2: return histogram.getPercentile(50) / 1000.0;
+		case 3: return histogram.getPercentile(99) / 1000.0;
+		case 4: return histogram.getPercentile(99.9) / 1000.0;
+		default: return histogram.getMax() / 1000.0;
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		for (Counter counter : Counter.values()) {
+			if (counter.name.equals(attribute)) return get(counter);
+		}
+		for (Latency latency : Latency.values()) {
+			if (!attribute.startsWith(latency.name)) continue;
+			for (int s = 0; s < STATISTICS.length; ++s) {
+				if (attribute.length() != latency.name.length() + STATISTICS[s][0].length() || !attribute.endsWith(STATISTICS[s][0])) continue;
+				if (s == 0) return getHistogram(latency).getCount();
+				return getStatistic(latency, s);
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			}
+			catch (AttributeNotFoundException e) {
+				//left out, as required by DynamicMBean
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		if ("reset".equals(actionName)) {
+			reset();
+			return null;
+		}
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Counter counter : Counter.values()) {
+			attributes.add(new MBeanAttributeInfo(counter.name, "long", counter.name, true, false, false));
+		}
+		for (Latency latency : Latency.values()) {
+			for (int s = 0; s < STATISTICS.length; ++s) {
+				attributes.add(new MBeanAttributeInfo(latency.name + STATISTICS[s][0], s == 0 ? "long" : "double", latency.name + " " + STATISTICS[s][1]
+						+ (s == 0 ? "" : " in microseconds"), true, false, false));
+			}
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears all latencies and counters", null, "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Callback latencies and counters of " + instrument, attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset }, null);
+	}
+
+	private final String instrument;
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Latency.values().length];
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+}
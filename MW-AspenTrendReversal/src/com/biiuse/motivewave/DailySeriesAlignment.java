@@ -0,0 +1,74 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+/**
+ * Maps the bars of an intraday series to the bars of the daily series of the same instrument: an intraday bar
+ * belongs to the first daily bar that ends at or after it. The mapping is built incrementally with a single pass over
+ * both series, so bars that arrive later (on either series) only extend it.
+ * <p>
+ * The daily series is loaded by the platform in the background. Intraday bars that end after the last daily bar
+ * loaded so far are not mapped yet ({@link #NOT_READY}); intraday bars that precede the daily series are mapped to
+ * {@link #BEFORE_DAILY_SERIES}. If bars are inserted at the front of the daily series the mapping is rebuilt.
+ */
+public class DailySeriesAlignment {
+
+	public final static int BEFORE_DAILY_SERIES = -1;
+	public final static int NOT_READY = -2;
+
+	public void reset() {
+		mappedUpTo = -1;
+		nextDaily = 0;
+		firstDailyStartTime = Long.MIN_VALUE;
+		firstIntradayStartTime = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Maps the intraday bars up to (and including) the given one as far as the daily series allows. Returns the last
+	 * mapped intraday bar (-1 if none).
+	 */
+	public int update(BarData intraday, BarData daily, int upTo) {
+		if ((daily.size() == 0) || (intraday.size() == 0)) return mappedUpTo;
+		if ((daily.getStartTime(0) != firstDailyStartTime) || (intraday.getStartTime(0) != firstIntradayStartTime)) {
+			reset();
+			firstDailyStartTime = daily.getStartTime(0);
+			firstIntradayStartTime = intraday.getStartTime(0);
+		}
+		upTo = Math.min(upTo, intraday.size() - 1);
+		if (upTo >= dailyIndexes.length) dailyIndexes = Arrays.copyOf(dailyIndexes, Math.max(upTo + 1, dailyIndexes.length * 2));
+
+		int dailySize = daily.size();
+		for (int i = mappedUpTo + 1; i <= upTo; ++i) {
+			long endTime = intraday.getEndTime(i);
+			while ((nextDaily < dailySize) && (daily.getEndTime(nextDaily) < endTime)) nextDaily++;
+			//the daily series has not been loaded up to the bar yet
+			if (nextDaily == dailySize) break;
+			//bars in a gap between daily bars (e.g. at the weekend) belong to the next session
+			dailyIndexes[i] = (nextDaily == 0) && (daily.getStartTime(0) >= endTime) ? BEFORE_DAILY_SERIES : nextDaily;
+			mappedUpTo = i;
+		}
+		return mappedUpTo;
+	}
+
+	/**
+	 * Last intraday bar that has been mapped (-1 if none)
+	 */
+	public int getMappedUpTo() {
+		return mappedUpTo;
+	}
+
+	/**
+	 * Index of the daily bar the intraday bar belongs to, {@link #BEFORE_DAILY_SERIES} if it precedes the daily series
+	 * or {@link #NOT_READY} if it has not been mapped yet
+	 */
+	public int getDailyIndex(int intradayIndex) {
+		return intradayIndex <= mappedUpTo ? dailyIndexes[intradayIndex] : NOT_READY;
+	}
+
+	private int[] dailyIndexes = new int[1024];
+	private int mappedUpTo = -1;
+	//first daily bar that may hold the next intraday bar
+	private int nextDaily = 0;
+	private long firstDailyStartTime = Long.MIN_VALUE;
+	private long firstIntradayStartTime = Long.MIN_VALUE;
+}
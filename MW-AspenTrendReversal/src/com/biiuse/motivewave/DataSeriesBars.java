@@ -0,0 +1,108 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+import com.motivewave.platform.sdk.common.DataSeries;
+
+/**
+ * Exposes the platform's DataSeries as BarData. The end times and closes of completed bars can be copied into
+ * primitive columns once ({@link #loadColumns(int)}), so that passes over the history read plain arrays instead of
+ * calling into the platform for every value.
+ */
+public class DataSeriesBars implements BarData {
+
+	public void setSeries(DataSeries series) {
+		if (series != this.series) clearColumns();
+		this.series = series;
+	}
+
+	/**
+	 * Copies the end times and closes of the bars up to (excluding) the given one into the columns, unless they are
+	 * there already. The bars must be complete. The columns are rebuilt if bars were inserted before the first bar.
+	 */
+	public void loadColumns(int end) {
+		if ((series == null) || (end <= 0)) return;
+		long firstBarTime = series.getStartTime(0);
+		if (firstBarTime != columnsFirstBar) {
+			clearColumns();
+			columnsFirstBar = firstBarTime;
+		}
+		if (end <= columnCount) return;
+		if (end > endTimes.length) {
+			int capacity = Math.max(end, endTimes.length * 2);
+			endTimes = Arrays.copyOf(endTimes, capacity);
+			closes = Arrays.copyOf(closes, capacity);
+		}
+		DataSeries series = this.series;
+		for (int i = columnCount; i < end; ++i) {
+			endTimes[i] = series.getEndTime(i);
+			closes[i] = series.getClose(i);
+		}
+		columnCount = end;
+	}
+
+	/**
+	 * Releases the columns, e.g. when the platform loads a new series
+	 */
+	public void clearColumns() {
+		columnCount = 0;
+		columnsFirstBar = Long.MIN_VALUE;
+		endTimes = new long[0];
+		closes = new float[0];
+	}
+
+	public DataSeries getSeries() {
+		return series;
+	}
+
+	/**
+	 * Number of bars (0 while no series is set, e.g. while a secondary series is being loaded)
+	 */
+	@Override
+	public int size() {
+		return series != null ? series.size() : 0;
+	}
+
+	@Override
+	public long getStartTime(int index) {
+		return series.getStartTime(index);
+	}
+
+	@Override
+	public long getEndTime(int index) {
+		return index < columnCount ? endTimes[index] : series.getEndTime(index);
+	}
+
+	@Override
+	public double getOpen(int index) {
+		return series.getOpen(index);
+	}
+
+	@Override
+	public double getHigh(int index) {
+		return series.getHigh(index);
+	}
+
+	@Override
+	public double getLow(int index) {
+		return series.getLow(index);
+	}
+
+	@Override
+	public double getClose(int index) {
+		return index < columnCount ? closes[index] : series.getClose(index);
+	}
+
+	@Override
+	public boolean isComplete(int index) {
+		return (index < columnCount) || series.isBarComplete(index);
+	}
+
+	private DataSeries series;
+	//number of bars in the columns
+	private int columnCount = 0;
+	private long columnsFirstBar = Long.MIN_VALUE;
+	private long[] endTimes = new long[0];
+	//closes as provided by the platform
+	private float[] closes = new float[0];
+}
@@ -0,0 +1,50 @@
+package com.biiuse.motivewave;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Appends fixed point decimals to a StringBuilder without going through String.format. Values are rounded half up
+ * on their shortest decimal representation, as String.format("%.Nf") does, so the output matches it (except that
+ * negative values rounding to zero are written without a sign). Only values that lie (about) half way between two
+ * results, such as 1.005 to two decimals, take the slower exact path.
+ */
+public final class DecimalFormatter {
+
+	//distance from half way (in units of the last decimal) within which the binary value may round differently
+	private static final double HALF_WAY_TOLERANCE = 1e-6;
+
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L };
+
+	private DecimalFormatter() {
+	}
+
+	public static StringBuilder append(StringBuilder sb, double value, int decimals) {
+		if ((decimals < 0) || (decimals >= POWERS_OF_TEN.length)) throw new IllegalArgumentException("Unsupported number of decimals: " + decimals);
+		long scale = POWERS_OF_TEN[decimals];
+		double scaled = Math.abs(value) * scale;
+		//fall back to the JDK for values that cannot be represented as scaled longs
+		if (Double.isNaN(value) || Double.isInfinite(value) || (scaled >= Long.MAX_VALUE / 10)) {
+			return sb.append(String.format("%." + decimals + "f", value));
+		}
+
+		long units = (long) (scaled + 0.5);
+		//the binary value of 1.005 is just below 1.005, its decimal representation rounds up
+		if (Math.abs(scaled - Math.floor(scaled) - 0.5) < HALF_WAY_TOLERANCE) {
+			units = BigDecimal.valueOf(Math.abs(value)).setScale(decimals, RoundingMode.HALF_UP).unscaledValue().longValue();
+		}
+		if ((value < 0) && (units != 0)) sb.append('-');
+		sb.append(units / scale);
+		if (decimals > 0) {
+			sb.append('.');
+			long fraction = units % scale;
+			for (long p = scale / 10; p > fraction && p > 1; p /= 10) sb.append('0');
+			sb.append(fraction);
+		}
+		return sb;
+	}
+
+	public static String format(double value, int decimals) {
+		return append(new StringBuilder(24), value, decimals).toString();
+	}
+}
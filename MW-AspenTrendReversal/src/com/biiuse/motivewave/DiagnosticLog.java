@@ -0,0 +1,270 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Leveled diagnostic log of the study and strategy callbacks. Messages below the configured level cost a single
+ * comparison. Enabled messages are formatted into a per thread buffer and copied into a fixed size, lock free ring of
+ * preallocated slots (the most recent messages), which can be dumped to a file on demand and is dumped automatically
+ * when an error is logged - on a background thread, and at most once per DUMP_INTERVAL_MILLIS, so a repeated error
+ * does not write the ring on every call. Messages up to INFO are passed on to the platform log as well; DEBUG and TRACE messages
+ * only go to the ring, so they can be switched on for full history recalculations.
+ */
+public class DiagnosticLog {
+
+	public enum Level { OFF, ERROR, WARNING, INFO, DEBUG, TRACE };
+
+	/**
+	 * Receives the messages that are passed on to the platform log
+	 */
+	public interface Sink {
+		void write(Level level, String message);
+	}
+
+	/**
+	 * Message that is only formatted if its level is enabled. Hot paths keep a reusable instance rather than creating
+	 * one per call.
+	 */
+	public interface Message {
+		void appendTo(StringBuilder text);
+	}
+
+	final static int DEFAULT_CAPACITY = 256;
+	final static int MAX_MESSAGE_LENGTH = 240;
+	//minimum time between two dumps triggered by errors
+	final static long DUMP_INTERVAL_MILLIS = 60000;
+
+	private final static Level[] LEVELS = Level.values();
+	//shared by all logs: the time stamps of the dumps are in the local time zone
+	private final static SessionCalendar CALENDAR = new SessionCalendar(ZoneId.systemDefault());
+	//writes the dumps triggered by errors, off the platform's callback threads
+	private final static ExecutorService DUMP_WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "DiagnosticLog-dump");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public DiagnosticLog(Sink sink) {
+		this(sink, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity number of messages kept in the ring (rounded up to a power of two)
+	 */
+	public DiagnosticLog(Sink sink, int capacity) {
+		this.sink = sink;
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) sequences.set(i, -1);
+		times = new long[size];
+		levels = new byte[size];
+		lengths = new int[size];
+		texts = new char[size][MAX_MESSAGE_LENGTH];
+	}
+
+	public Level getLevel() {
+		return LEVELS[level];
+	}
+
+	public void setLevel(Level level) {
+		this.level = level.ordinal();
+	}
+
+	/**
+	 * File the ring is dumped to when an error is logged (null to not dump on errors)
+	 */
+	public void setDumpFile(File dumpFile) {
+		this.dumpFile = dumpFile;
+	}
+
+	public File getDumpFile() {
+		return dumpFile;
+	}
+
+	public boolean isEnabled(Level level) {
+		return level.ordinal() <= this.level;
+	}
+
+	public void log(Level level, CharSequence message) {
+		if (!isEnabled(level)) return;
+		StringBuilder text = buffer();
+		text.append(message);
+		write(level, text);
+	}
+
+	public void log(Level level, String prefix, long value) {
+		if (!isEnabled(level)) return;
+		StringBuilder text = buffer();
+		text.append(prefix).append(value);
+		write(level, text);
+	}
+
+	public void log(Level level, String prefix, double value, int decimals) {
+		if (!isEnabled(level)) return;
+		StringBuilder text = buffer();
+		DecimalFormatter.append(text.append(prefix), value, decimals);
+		write(level, text);
+	}
+
+	public void log(Level level, Message message) {
+		if (!isEnabled(level)) return;
+		StringBuilder text = buffer();
+		message.appendTo(text);
+		write(level, text);
+	}
+
+	public void error(CharSequence message) {
+		log(Level.ERROR, message);
+	}
+
+	public void info(CharSequence message) {
+		log(Level.INFO, message);
+	}
+
+	public void debug(CharSequence message) {
+		log(Level.DEBUG, message);
+	}
+
+	/**
+	 * Number of messages logged (including those that have since been overwritten in the ring)
+	 */
+	public long getMessageCount() {
+		return next.get();
+	}
+
+	/**
+	 * Writes the messages in the ring, oldest first. Messages that are overwritten while being read are left out.
+	 */
+	public void dump(Writer out) throws IOException {
+		long end = next.get();
+		long start = Math.max(0, end - sequences.length());
+		StringBuilder line = new StringBuilder(MAX_MESSAGE_LENGTH + 40);
+		char[] text = new char[MAX_MESSAGE_LENGTH];
+		for (long sequence = start; sequence < end; ++sequence) {
+			int slot = (int) (sequence & mask);
+			if (sequences.get(slot) != sequence) continue;
+			long time = times[slot];
+			Level level = LEVELS[levels[slot]];
+			int length = lengths[slot];
+			System.arraycopy(texts[slot], 0, text, 0, length);
+			if (sequences.get(slot) != sequence) continue;
+
+			line.setLength(0);
+			CALENDAR.appendIsoDateTime(line, time).append('.');
+			int millis = (int) Math.floorMod(time, 1000L);
+			if (millis < 100) line.append('0');
+			if (millis < 10) line.append('0');
+			line.append(millis).append(' ').append(level).append(' ').append(text, 0, length).append('\n');
+			out.append(line);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the messages in the ring to the given file (replacing it)
+	 */
+	public void dump(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if ((directory != null) && !directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			dump(out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private StringBuilder buffer() {
+		StringBuilder text = buffers.get();
+		text.setLength(0);
+		return text;
+	}
+
+	/**
+	 * Copies the message into the next slot of the ring. A slot is marked as being written (negative sequence) until
+	 * its message is complete, so that dump() skips it.
+	 */
+	private void write(Level level, StringBuilder text) {
+		long sequence = next.getAndIncrement();
+		int slot = (int) (sequence & mask);
+		sequences.set(slot, -1);
+		int length = Math.min(text.length(), MAX_MESSAGE_LENGTH);
+		text.getChars(0, length, texts[slot], 0);
+		lengths[slot] = length;
+		levels[slot] = (byte) level.ordinal();
+		times[slot] = System.currentTimeMillis();
+		sequences.set(slot, sequence);
+
+		if ((sink != null) && (level.ordinal() <= Level.INFO.ordinal())) sink.write(level, text.toString());
+		if ((level == Level.ERROR) && (dumpFile != null)) scheduleDump();
+	}
+
+	/**
+	 * Has the ring dumped to the dump file in the background, unless a dump is pending or the last one was less than
+	 * DUMP_INTERVAL_MILLIS ago
+	 */
+	private void scheduleDump() {
+		long now = System.currentTimeMillis();
+		if ((now - lastDumpTime < DUMP_INTERVAL_MILLIS) || !dumpPending.compareAndSet(false, true)) return;
+		lastDumpTime = now;
+		DUMP_WRITER.execute(dumpTask);
+	}
+
+	/**
+	 * Writes the ring to the dump file (on the dump writer thread)
+	 */
+	private void dumpToFile() {
+		File file = dumpFile;
+		try {
+			if (file != null) dump(file);
+		}
+		catch (IOException e) {
+			if (sink != null) sink.write(Level.ERROR, "Could not write diagnostics to " + file + ": " + e.getMessage());
+		}
+		finally {
+			dumpPending.set(false);
+		}
+	}
+
+	private final Sink sink;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicLongArray sequences;
+	private final long[] times;
+	private final byte[] levels;
+	private final int[] lengths;
+	private final char[][] texts;
+	private final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(MAX_MESSAGE_LENGTH);
+		}
+	};
+	private volatile int level = Level.INFO.ordinal();
+	private volatile File dumpFile;
+	private final AtomicBoolean dumpPending = new AtomicBoolean();
+	private volatile long lastDumpTime = Long.MIN_VALUE / 2;
+	private final Runnable dumpTask = new Runnable() {
+		@Override
+		public void run() {
+			dumpToFile();
+		}
+	};
+}
@@ -0,0 +1,286 @@
+package com.biiuse.motivewave;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import com.motivewave.platform.sdk.common.Coordinate;
+import com.motivewave.platform.sdk.common.Enums;
+import com.motivewave.platform.sdk.common.MarkerInfo;
+import com.motivewave.platform.sdk.draw.Figure;
+import com.motivewave.platform.sdk.draw.Label;
+import com.motivewave.platform.sdk.draw.Line;
+import com.motivewave.platform.sdk.draw.Marker;
+
+/**
+ * Keeps the figures of the study bounded on long histories. Signals and session ends are recorded as primitives;
+ * figures (marker and label per signal, a dashed line per session end) only exist for the records around the
+ * visible time range of the chart, at most a fixed number of each. Figures that scroll out of that range are reused
+ * for the records that scroll into it.
+ */
+public class FigureManager {
+
+	/**
+	 * Adds figures to and removes them from the chart (implemented by the study)
+	 */
+	public interface Host {
+		void addFigure(Figure figure);
+
+		void removeFigure(Figure figure);
+	}
+
+	final static int DEFAULT_MAX_SIGNALS = 1000;
+	final static int DEFAULT_MAX_SESSION_ENDS = 500;
+
+	private final static BasicStroke SESSION_END_STROKE = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[] { 5 }, 0);
+
+	public FigureManager(Host host) {
+		this(host, DEFAULT_MAX_SIGNALS, DEFAULT_MAX_SESSION_ENDS);
+	}
+
+	/**
+	 * @param maxSignals maximum number of signals shown at a time (the most recent ones if more are in range)
+	 * @param maxSessionEnds maximum number of session end lines shown at a time
+	 */
+	public FigureManager(Host host, int maxSignals, int maxSessionEnds) {
+		this.host = host;
+		this.maxSignals = maxSignals;
+		this.maxSessionEnds = maxSessionEnds;
+	}
+
+	/**
+	 * Forgets all signals and session ends. The figures must already have been removed from the chart (clearFigures);
+	 * they are kept for reuse.
+	 */
+	public void clear() {
+		for (int i = shownSignalsFrom; i < shownSignalsTo; ++i) {
+			if (markers[i] != null) markerPool.push(markers[i]);
+			labelPool.push(labels[i]);
+			markers[i] = null;
+			labels[i] = null;
+		}
+		for (int i = shownSessionEndsFrom; i < shownSessionEndsTo; ++i) {
+			linePool.push(lines[i]);
+			lines[i] = null;
+		}
+		signalCount = 0;
+		sessionEndCount = 0;
+		shownSignalsFrom = shownSignalsTo = 0;
+		shownSessionEndsFrom = shownSessionEndsTo = 0;
+	}
+
+	/**
+	 * Style of the signal markers. Pooled markers of a previous style are discarded.
+	 */
+	public void setMarkerInfo(MarkerInfo markerInfo) {
+		if ((markerInfo == null) || markerInfo.equals(this.markerInfo)) return;
+		this.markerInfo = markerInfo;
+		markerPool.clear();
+	}
+
+	/**
+	 * Records a signal of the bar starting at the given time. Records must be added in time order.
+	 *
+	 * @param price low (for a low) or high (for a high) of the bar, where the figures are placed
+	 * @param close close of the bar, shown in the label
+	 */
+	public void addSignal(long time, double price, double close, boolean high) {
+		if (signalCount == signalTimes.length) {
+			int capacity = signalCount * 2;
+			signalTimes = Arrays.copyOf(signalTimes, capacity);
+			signalPrices = Arrays.copyOf(signalPrices, capacity);
+			signalCloses = Arrays.copyOf(signalCloses, capacity);
+			signalHighs = Arrays.copyOf(signalHighs, capacity);
+			markers = Arrays.copyOf(markers, capacity);
+			labels = Arrays.copyOf(labels, capacity);
+		}
+		signalTimes[signalCount] = time;
+		signalPrices[signalCount] = price;
+		signalCloses[signalCount] = close;
+		signalHighs[signalCount] = high;
+		signalCount++;
+		syncSignals();
+	}
+
+	/**
+	 * Records the end of a session at the given time. Records must be added in time order.
+	 */
+	public void addSessionEnd(long time) {
+		if (sessionEndCount == sessionEndTimes.length) {
+			int capacity = sessionEndCount * 2;
+			sessionEndTimes = Arrays.copyOf(sessionEndTimes, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+		}
+		sessionEndTimes[sessionEndCount++] = time;
+		syncSessionEnds();
+	}
+
+	public int getSignalCount() {
+		return signalCount;
+	}
+
+	/**
+	 * Number of figures currently on the chart
+	 */
+	public int getFigureCount() {
+		int figures = shownSessionEndsTo - shownSessionEndsFrom;
+		for (int i = shownSignalsFrom; i < shownSignalsTo; ++i) figures += markers[i] != null ? 2 : 1;
+		return figures;
+	}
+
+	/**
+	 * Shows the records within (and half a screen around) the visible time range of the chart
+	 */
+	public void setVisibleRange(long visibleStartTime, long visibleEndTime) {
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		if (visibleEndTime > visibleStartTime) {
+			long margin = (visibleEndTime - visibleStartTime) / 2;
+			from = visibleStartTime - margin;
+			to = visibleEndTime + margin;
+		}
+		if ((from == rangeFrom) && (to == rangeTo)) return;
+		rangeFrom = from;
+		rangeTo = to;
+		syncSignals();
+		syncSessionEnds();
+	}
+
+	private void syncSignals() {
+		int to = upperBound(signalTimes, signalCount, rangeTo);
+		int from = Math.max(lowerBound(signalTimes, to, rangeFrom), to - maxSignals);
+		for (int i = shownSignalsFrom; i < shownSignalsTo; ++i) {
+			if ((i < from) || (i >= to)) hideSignal(i);
+		}
+		for (int i = from; i < to; ++i) {
+			if ((i < shownSignalsFrom) || (i >= shownSignalsTo)) showSignal(i);
+		}
+		shownSignalsFrom = from;
+		shownSignalsTo = to;
+	}
+
+	private void syncSessionEnds() {
+		int to = upperBound(sessionEndTimes, sessionEndCount, rangeTo);
+		int from = Math.max(lowerBound(sessionEndTimes, to, rangeFrom), to - maxSessionEnds);
+		for (int i = shownSessionEndsFrom; i < shownSessionEndsTo; ++i) {
+			if ((i < from) || (i >= to)) {
+				host.removeFigure(lines[i]);
+				linePool.push(lines[i]);
+				lines[i] = null;
+			}
+		}
+		for (int i = from; i < to; ++i) {
+			if ((i < shownSessionEndsFrom) || (i >= shownSessionEndsTo)) {
+				Line line = linePool.poll();
+				if (line == null) {
+					line = new Line(sessionEndTimes[i], 0, sessionEndTimes[i], 100000);
+					line.setStroke(SESSION_END_STROKE);
+					line.setColor(Color.GRAY);
+				}
+				else {
+					line.setStart(sessionEndTimes[i], 0);
+					line.setEnd(sessionEndTimes[i], 100000);
+				}
+				lines[i] = line;
+				host.addFigure(line);
+			}
+		}
+		shownSessionEndsFrom = from;
+		shownSessionEndsTo = to;
+	}
+
+	private void showSignal(int i) {
+		boolean high = signalHighs[i];
+		Enums.Position position = high ? Enums.Position.TOP : Enums.Position.BOTTOM;
+		if (markerInfo != null) {
+			Marker marker = markerPool.poll();
+			if (marker == null) marker = new Marker(new Coordinate(signalTimes[i], signalPrices[i]), position, markerInfo);
+			else {
+				marker.setLocation(signalTimes[i], signalPrices[i]);
+				marker.setPosition(position);
+			}
+			markers[i] = marker;
+			host.addFigure(marker);
+		}
+
+		text.setLength(0);
+		text.append(high ? "High: " : "Low: ");
+		String labelText = DecimalFormatter.append(text, signalCloses[i], 5).toString();
+		Label label = labelPool.poll();
+		if (label == null) label = new Label(new Coordinate(signalTimes[i], signalPrices[i]), labelText);
+		else {
+			label.setLocation(signalTimes[i], signalPrices[i]);
+			label.getText().setText(labelText);
+		}
+		labels[i] = label;
+		host.addFigure(label);
+	}
+
+	private void hideSignal(int i) {
+		if (markers[i] != null) {
+			host.removeFigure(markers[i]);
+			markerPool.push(markers[i]);
+			markers[i] = null;
+		}
+		host.removeFigure(labels[i]);
+		labelPool.push(labels[i]);
+		labels[i] = null;
+	}
+
+	/**
+	 * Index of the first of the (sorted) times that is at or after the given time
+	 */
+	private static int lowerBound(long[] times, int size, long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Index of the first of the (sorted) times that is after the given time
+	 */
+	private static int upperBound(long[] times, int size, long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	private final Host host;
+	private final int maxSignals;
+	private final int maxSessionEnds;
+	private MarkerInfo markerInfo;
+	private final StringBuilder text = new StringBuilder(24);
+	private long rangeFrom = Long.MIN_VALUE;
+	private long rangeTo = Long.MAX_VALUE;
+
+	private int signalCount = 0;
+	private long[] signalTimes = new long[64];
+	private double[] signalPrices = new double[64];
+	private double[] signalCloses = new double[64];
+	private boolean[] signalHighs = new boolean[64];
+	private Marker[] markers = new Marker[64];
+	private Label[] labels = new Label[64];
+	private int shownSignalsFrom = 0;
+	private int shownSignalsTo = 0;
+
+	private int sessionEndCount = 0;
+	private long[] sessionEndTimes = new long[256];
+	private Line[] lines = new Line[256];
+	private int shownSessionEndsFrom = 0;
+	private int shownSessionEndsTo = 0;
+
+	private final ArrayDeque<Marker> markerPool = new ArrayDeque<Marker>();
+	private final ArrayDeque<Label> labelPool = new ArrayDeque<Label>();
+	private final ArrayDeque<Line> linePool = new ArrayDeque<Line>();
+}
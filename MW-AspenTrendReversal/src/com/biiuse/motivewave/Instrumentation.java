@@ -0,0 +1,132 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Callback metrics of all instruments in the JVM (all charts of an instrument share its metrics). Each instrument's
+ * metrics are registered as an MBean (com.biiuse.motivewave:type=CallbackMetrics,instrument=...), and a snapshot of
+ * all of them is written to a CSV file periodically.
+ */
+public class Instrumentation {
+
+	final static String JMX_DOMAIN = "com.biiuse.motivewave";
+	final static String SNAPSHOT_FILE = "metrics.csv";
+
+	//system property with the snapshot interval in seconds (0 disables the snapshot file)
+	final static String SNAPSHOT_INTERVAL_PROPERTY = "aspen.metricsInterval";
+	final static long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 10;
+
+	private final static Instrumentation INSTANCE = new Instrumentation();
+
+	public static Instrumentation getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Metrics of the given instrument, created (and registered with JMX) on first use
+	 */
+	public synchronized CallbackMetrics getMetrics(String instrument) {
+		CallbackMetrics metrics = metricsByInstrument.get(instrument);
+		if (metrics == null) {
+			metrics = new CallbackMetrics(instrument);
+			metricsByInstrument.put(instrument, metrics);
+			register(metrics);
+		}
+		return metrics;
+	}
+
+	public synchronized List<CallbackMetrics> getAllMetrics() {
+		return new ArrayList<CallbackMetrics>(metricsByInstrument.values());
+	}
+
+	/**
+	 * Starts writing snapshots into the given directory (unless disabled by the system property). Later calls only
+	 * change the directory.
+	 */
+	public synchronized void startSnapshots(File directory) {
+		this.snapshotFile = new File(directory, SNAPSHOT_FILE);
+		if (snapshots != null) return;
+		long interval = Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL_SECONDS);
+		if (interval <= 0) return;
+		snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Instrumentation-snapshots");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		snapshots.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeSnapshot();
+				}
+				catch (IOException e) {
+					//the next snapshot is tried regardless; the directory may not be writable yet
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Writes all metrics to the snapshot file, replacing it atomically
+	 */
+	public void writeSnapshot() throws IOException {
+		File file;
+		synchronized (this) {
+			file = snapshotFile;
+		}
+		if (file == null) return;
+		StringBuilder sb = new StringBuilder(4096);
+		CallbackMetrics.appendHeader(sb, ',').append('\n');
+		for (CallbackMetrics metrics : getAllMetrics()) metrics.appendSnapshot(sb, ',').append('\n');
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+		File temp = new File(directory, file.getName() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8);
+		try {
+			out.append(sb);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void register(CallbackMetrics metrics) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=CallbackMetrics,instrument=" + ObjectName.quote(metrics.getInstrument()));
+			if (!server.isRegistered(name)) server.registerMBean(metrics, name);
+		}
+		catch (JMException | SecurityException e) {
+			//the metrics are still written to the snapshot file
+		}
+	}
+
+	private final Map<String, CallbackMetrics> metricsByInstrument = new TreeMap<String, CallbackMetrics>();
+	private ScheduledExecutorService snapshots;
+	private File snapshotFile;
+}
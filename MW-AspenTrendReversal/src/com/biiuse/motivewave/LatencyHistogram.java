@@ -0,0 +1,86 @@
+package com.biiuse.motivewave;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in nanoseconds. Buckets are log-linear: every power of two range is split into
+ * 8 buckets, so percentiles are accurate to within 12.5% over the whole range of longs. Recording is an atomic
+ * increment of one bucket (plus the total and, rarely, the maximum); nothing is allocated.
+ */
+public class LatencyHistogram {
+
+	final static int SUB_BUCKETS = 8;
+	final static int SUB_BUCKET_BITS = 3;
+	final static int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long max = this.max.get();
+		while ((nanos > max) && !this.max.compareAndSet(max, nanos)) max = this.max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotal() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) getTotal() / count;
+	}
+
+	/**
+	 * Latency that the given percentage (0 - 100) of the recorded latencies do not exceed (the upper end of the
+	 * bucket it falls in, at most the maximum)
+	 */
+	public long getPercentile(double percentile) {
+		long count = getCount();
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+			seen += counts.get(bucket);
+			if (seen >= rank) return Math.min(getLowerBound(bucket + 1) - 1, getMax());
+		}
+		return getMax();
+	}
+
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKETS; ++bucket) counts.set(bucket, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	static int getBucket(long nanos) {
+		if (nanos < SUB_BUCKETS) return (int) nanos;
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Smallest latency that falls into the given bucket
+	 */
+	static long getLowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		if (bucket >= BUCKETS) return Long.MAX_VALUE;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+}
@@ -0,0 +1,419 @@
+package com.biiuse.motivewave;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Monte Carlo robustness test of a trade journal: the P/L of the journal's trades is resampled into many alternative
+ * paths and the distributions of the final P/L and the maximum draw down over all paths are reported.
+ * <p>
+ * The trade P/Ls are kept in a primitive array. Paths are generated in parallel on a fork / join pool, every task
+ * with its own random generator split off its parent's (so the outcome depends only on the seed, not on the number of
+ * threads). A path is evaluated as it is generated and only added to fixed size histograms, so no path is kept and
+ * nothing is allocated per path or per trade.
+ */
+public class MonteCarlo {
+
+	final static int HISTOGRAM_BINS = 1 << 13;
+	final static int PATHS_PER_TASK = 16384;
+
+	/**
+	 * How the paths are derived from the journal's trades
+	 */
+	public enum Scenario {
+		/** the trades in a random order - the final P/L is the same on every path, the draw down is not */
+		SHUFFLE,
+		/** as many trades as in the journal, drawn with replacement */
+		BOOTSTRAP,
+		/** the trades in their order, every trade skipped with the skip probability */
+		SKIP
+	}
+
+	/**
+	 * Distribution of one value over all paths, binned into a fixed range
+	 */
+	public static class Distribution {
+
+		Distribution(double low, double high) {
+			this.low = low;
+			this.binWidth = (high - low) / HISTOGRAM_BINS;
+		}
+
+		void add(double value) {
+			int bin = binWidth > 0 ? (int) ((value - low) / binWidth) : 0;
+			counts[Math.max(0, Math.min(bin, HISTOGRAM_BINS - 1))]++;
+			if (count == 0 || value < min) min = value;
+			if (count == 0 || value > max) max = value;
+			sum += value;
+			count++;
+		}
+
+		void add(Distribution other) {
+			if (other.count == 0) return;
+			for (int i = 0; i < HISTOGRAM_BINS; ++i) counts[i] += other.counts[i];
+			if (count == 0 || other.min < min) min = other.min;
+			if (count == 0 || other.max > max) max = other.max;
+			sum += other.sum;
+			count += other.count;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMin() {
+			return min;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0 : sum / count;
+		}
+
+		/**
+		 * The value below which the given percentage of the paths lie, interpolated within its histogram bin (accurate
+		 * to one bin width)
+		 */
+		public double getPercentile(double percent) {
+			if (count == 0) return Double.NaN;
+			double rank = percent / 100.0 * count;
+			long below = 0;
+			for (int i = 0; i < HISTOGRAM_BINS; ++i) {
+				if (counts[i] == 0) continue;
+				if (below + counts[i] >= rank) {
+					double value = low + (i + (rank - below) / counts[i]) * binWidth;
+					return Math.max(min, Math.min(value, max));
+				}
+				below += counts[i];
+			}
+			return max;
+		}
+
+		private final double low;
+		private final double binWidth;
+		private final long[] counts = new long[HISTOGRAM_BINS];
+		private long count = 0;
+		private double min;
+		private double max;
+		private double sum;
+	}
+
+	/**
+	 * Distributions of the final P/L and the maximum draw down over all paths
+	 */
+	public static class Result {
+
+		Result(Distribution profit, Distribution drawDown) {
+			this.profit = profit;
+			this.drawDown = drawDown;
+		}
+
+		void add(Result other) {
+			profit.add(other.profit);
+			drawDown.add(other.drawDown);
+			losingPaths += other.losingPaths;
+			deeperDrawDownPaths += other.deeperDrawDownPaths;
+		}
+
+		public Distribution getProfit() {
+			return profit;
+		}
+
+		public Distribution getMaxDrawDown() {
+			return drawDown;
+		}
+
+		/**
+		 * Share of the paths that end with a loss
+		 */
+		public double getProbabilityOfLoss() {
+			return profit.getCount() == 0 ? 0 : (double) losingPaths / profit.getCount();
+		}
+
+		/**
+		 * Share of the paths with a larger maximum draw down than the journal's own
+		 */
+		public double getProbabilityOfDeeperDrawDown() {
+			return profit.getCount() == 0 ? 0 : (double) deeperDrawDownPaths / profit.getCount();
+		}
+
+		private final Distribution profit;
+		private final Distribution drawDown;
+		private long losingPaths = 0;
+		private long deeperDrawDownPaths = 0;
+	}
+
+	/**
+	 * @param profits P/L of every trade, in the order they were closed
+	 */
+	public MonteCarlo(double[] profits) {
+		this.profits = profits.clone();
+		double total = 0;
+		double peak = 0;
+		double drawDown = 0;
+		for (double profit : profits) {
+			total += profit;
+			if (total > peak) peak = total;
+			if (peak - total > drawDown) drawDown = peak - total;
+			if (profit < 0) totalLoss -= profit;
+			else totalGain += profit;
+			if (profit < minProfit) minProfit = profit;
+			if (profit > maxProfit) maxProfit = profit;
+		}
+		this.totalProfit = total;
+		this.maxDrawDown = drawDown;
+	}
+
+	/**
+	 * The trades of a replay
+	 */
+	public MonteCarlo(ReplayResult result) {
+		this(getProfits(result));
+	}
+
+	public int getTradeCount() {
+		return profits.length;
+	}
+
+	/**
+	 * P/L of the journal's trades in their order
+	 */
+	public double getTotalProfit() {
+		return totalProfit;
+	}
+
+	/**
+	 * Maximum draw down of the journal's trades in their order
+	 */
+	public double getMaxDrawDown() {
+		return maxDrawDown;
+	}
+
+	/**
+	 * Probability that a trade is skipped in the {@link Scenario#SKIP} scenario (0.1 by default)
+	 */
+	public void setSkipProbability(double skipProbability) {
+		if ((skipProbability < 0) || (skipProbability >= 1)) throw new IllegalArgumentException("Skip probability must be at least 0 and less than 1: " + skipProbability);
+		this.skipProbability = skipProbability;
+	}
+
+	/**
+	 * Generates the given number of paths on the pool
+	 */
+	public Result run(Scenario scenario, long paths, long seed, ForkJoinPool pool) {
+		return pool.invoke(new Paths(scenario, paths, new SplittableRandom(seed)));
+	}
+
+	/**
+	 * Loads the P/L of the trades of a trade journal: a CSV journal (as written by the strategy or the replay) or a
+	 * binary trade log. The journal records the realized P/L of all trades so far, per symbol; the P/L of every trade
+	 * is the difference to the previous trade of its symbol. If a symbol is given, only its trades are loaded.
+	 */
+	public static double[] loadJournal(String fileName, String symbol) throws IOException {
+		if (fileName.endsWith(".bin")) return loadBinaryLog(fileName, symbol);
+		double[] profits = new double[1024];
+		int count = 0;
+		Map<String, Double> realized = new HashMap<String, Double>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			String line;
+			int lineNumber = 0;
+			String[] fields = new String[8];
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+				if (BarSeries.split(line, fields) < 7) throw new IOException("Invalid trade in " + fileName + " line " + lineNumber + ": " + line);
+				if ((symbol != null) && !symbol.equals(fields[1])) continue;
+				double PL;
+				try {
+					PL = Double.parseDouble(fields[6]);
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Invalid P/L in " + fileName + " line " + lineNumber + ": " + line, e);
+				}
+				Double previous = realized.put(fields[1], PL);
+				if (count == profits.length) profits = Arrays.copyOf(profits, count * 2);
+				profits[count++] = previous == null ? PL : PL - previous;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return Arrays.copyOf(profits, count);
+	}
+
+	private static double[] loadBinaryLog(String fileName, String symbol) throws IOException {
+		BinaryTradeLogReader log = new BinaryTradeLogReader(fileName);
+		try {
+			if ((symbol != null) && !symbol.equals(log.getSymbol())) return new double[0];
+			double[] profits = new double[log.getRecordCount()];
+			int count = 0;
+			double previous = 0;
+			for (int i = 0; i < log.getRecordCount(); ++i) {
+				if (!log.isTrade(i)) continue;
+				profits[count++] = log.getPL(i) - previous;
+				previous = log.getPL(i);
+			}
+			return Arrays.copyOf(profits, count);
+		}
+		finally {
+			log.close();
+		}
+	}
+
+	static double[] getProfits(ReplayResult result) {
+		double[] profits = new double[result.getTradeCount()];
+		for (int t = 0; t < profits.length; ++t) profits[t] = result.getProfit(t);
+		return profits;
+	}
+
+	private Result createResult(Scenario scenario) {
+		int n = profits.length;
+		//the range every path falls into, so the histograms never need to grow
+		double lowProfit = scenario == Scenario.BOOTSTRAP ? n * Math.min(minProfit, 0) : -totalLoss;
+		double highProfit = scenario == Scenario.BOOTSTRAP ? n * Math.max(maxProfit, 0) : totalGain;
+		double highDrawDown = scenario == Scenario.BOOTSTRAP ? n * -Math.min(minProfit, 0) : totalLoss;
+		return new Result(new Distribution(lowProfit, highProfit), new Distribution(0, highDrawDown));
+	}
+
+	/**
+	 * Generates a number of paths, splitting them until they fit into one task
+	 */
+	private class Paths extends RecursiveTask<Result> {
+
+		Paths(Scenario scenario, long paths, SplittableRandom random) {
+			this.scenario = scenario;
+			this.paths = paths;
+			this.random = random;
+		}
+
+		@Override
+		protected Result compute() {
+			if (paths > PATHS_PER_TASK) {
+				long half = paths / 2;
+				Paths left = new Paths(scenario, half, random.split());
+				Paths right = new Paths(scenario, paths - half, random.split());
+				left.fork();
+				Result result = right.compute();
+				result.add(left.join());
+				return result;
+			}
+			Result result = createResult(scenario);
+			double[] trades = profits.clone();
+			int n = trades.length;
+			for (long p = 0; p < paths; ++p) {
+				double equity = 0;
+				double peak = 0;
+				double drawDown = 0;
+				for (int i = 0; i < n; ++i) {
+					double profit;
+					switch (scenario) {
+					case SHUFFLE:
+						//one step of a Fisher-Yates shuffle of the previous path's order
+						int j = i + random.nextInt(n - i);
+						profit = trades[j];
+						trades[j] = trades[i];
+						trades[i] = profit;
+						break;
+					case BOOTSTRAP:
+						profit = trades[random.nextInt(n)];
+						break;
+					default:
+						if (random.nextDouble() < skipProbability) continue;
+						profit = trades[i];
+					}
+					equity += profit;
+					if (equity > peak) peak = equity;
+					else if (peak - equity > drawDown) drawDown = peak - equity;
+				}
+				result.profit.add(equity);
+				result.drawDown.add(drawDown);
+				if (equity < 0) result.losingPaths++;
+				if (drawDown > maxDrawDown) result.deeperDrawDownPaths++;
+			}
+			return result;
+		}
+
+		private static final long serialVersionUID = 1L;
+		private final Scenario scenario;
+		private final long paths;
+		private final SplittableRandom random;
+	}
+
+	/**
+	 * Usage: MonteCarlo &lt;trades.csv or binary trade log&gt; [scenario=shuffle|bootstrap|skip] [paths=100000] [skip=0.1]
+	 * [seed=1] [threads=&lt;cores&gt;] [symbol=&lt;symbol&gt;]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: MonteCarlo <trades.csv or binary trade log> [scenario=shuffle|bootstrap|skip] [paths=100000] [skip=0.1] [seed=1] [threads=<cores>] [symbol=<symbol>]");
+			System.exit(1);
+		}
+		Map<String, String> options = ReplayEngine.parseOptions(args, 1);
+		Scenario scenario = Scenario.valueOf(ReplayEngine.remove(options, "scenario", "shuffle").toUpperCase());
+		long paths = Long.parseLong(ReplayEngine.remove(options, "paths", "100000"));
+		double skipProbability = Double.parseDouble(ReplayEngine.remove(options, "skip", "0.1"));
+		long seed = Long.parseLong(ReplayEngine.remove(options, "seed", "1"));
+		int threads = Integer.parseInt(ReplayEngine.remove(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		String symbol = ReplayEngine.remove(options, "symbol", null);
+		if (!options.isEmpty()) throw new IllegalArgumentException("Unknown options: " + options.keySet());
+
+		MonteCarlo monteCarlo = new MonteCarlo(loadJournal(args[0], symbol));
+		if (monteCarlo.getTradeCount() == 0) {
+			System.err.println("No trades in " + args[0]);
+			System.exit(1);
+		}
+		monteCarlo.setSkipProbability(skipProbability);
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Result result;
+		try {
+			result = monteCarlo.run(scenario, paths, seed, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+		long finished = System.nanoTime();
+
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append(monteCarlo.getTradeCount()).append(" trades, P/L ");
+		DecimalFormatter.append(sb, monteCarlo.getTotalProfit(), 2).append(", max draw down ");
+		DecimalFormatter.append(sb, monteCarlo.getMaxDrawDown(), 2).append('\n');
+		sb.append("PERCENTILE\tP/L\tMAX DRAW DOWN\n");
+		for (double percent : new double[] { 1, 5, 10, 25, 50, 75, 90, 95, 99 }) {
+			sb.append(percent).append('\t');
+			DecimalFormatter.append(sb, result.getProfit().getPercentile(percent), 2).append('\t');
+			DecimalFormatter.append(sb, result.getMaxDrawDown().getPercentile(percent), 2).append('\n');
+		}
+		sb.append("mean\t");
+		DecimalFormatter.append(sb, result.getProfit().getMean(), 2).append('\t');
+		DecimalFormatter.append(sb, result.getMaxDrawDown().getMean(), 2).append('\n');
+		sb.append("Probability of a loss: ");
+		DecimalFormatter.append(sb, 100 * result.getProbabilityOfLoss(), 2).append("%, of a larger draw down: ");
+		DecimalFormatter.append(sb, 100 * result.getProbabilityOfDeeperDrawDown(), 2).append("%\n");
+		sb.append(paths).append(' ').append(scenario.name().toLowerCase()).append(" paths on ").append(threads).append(" threads in ").append((finished - start) / 1000000)
+				.append(" ms");
+		System.out.println(sb);
+	}
+
+	private final double[] profits;
+	private final double totalProfit;
+	private final double maxDrawDown;
+	private double totalGain = 0;
+	private double totalLoss = 0;
+	private double minProfit = 0;
+	private double maxProfit = 0;
+	private double skipProbability = 0.1;
+}
@@ -0,0 +1,99 @@
+package com.biiuse.motivewave;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.motivewave.platform.sdk.common.Enums;
+import com.motivewave.platform.sdk.order_mgmt.Order;
+import com.motivewave.platform.sdk.order_mgmt.OrderContext;
+
+/**
+ * Routes the orders of the reversal logic to the platform's OrderContext. The orders are sent as market orders and
+ * tracked until the platform reports them filled, cancelled or rejected (see {@link #onOrderFilled(Order)} and
+ * {@link #onOrderEnded(Order)}), so a signal arriving before they are filled sees the position they will leave.
+ */
+public class OrderContextGateway implements OrderGateway {
+
+	public OrderContextGateway(OrderContext ctx) {
+		this.ctx = ctx;
+	}
+
+	public OrderContext getOrderContext() {
+		return ctx;
+	}
+
+	@Override
+	public void buy(int quantity) {
+		send(Enums.OrderAction.BUY, quantity);
+	}
+
+	@Override
+	public void sell(int quantity) {
+		send(Enums.OrderAction.SELL, quantity);
+	}
+
+	/**
+	 * Closes the position the account will have once the working orders are filled
+	 */
+	@Override
+	public void closeAtMarket() {
+		int position = getPosition() + getWorkingQuantity();
+		if (position > 0) sell(position);
+		else if (position < 0) buy(-position);
+	}
+
+	@Override
+	public int getPosition() {
+		return ctx.getPosition();
+	}
+
+	/**
+	 * Unfilled quantity of the orders sent that the platform has not reported filled, cancelled or rejected yet
+	 */
+	@Override
+	public int getWorkingQuantity() {
+		int quantity = 0;
+		for (Order order : workingOrders) {
+			int remaining = order.getQuantity() - order.getFilled();
+			quantity += order.isBuy() ? remaining : -remaining;
+		}
+		return quantity;
+	}
+
+	@Override
+	public double getRealizedPnL() {
+		return ctx.getRealizedPnL();
+	}
+
+	/**
+	 * Stops tracking a filled order. Returns its filled quantity (positive for a buy), 0 if it was not sent through
+	 * this gateway.
+	 */
+	public int onOrderFilled(Order order) {
+		return remove(order);
+	}
+
+	/**
+	 * Stops tracking an order that was cancelled or rejected. Returns the quantity filled before (positive for a
+	 * buy), 0 if none or if it was not sent through this gateway.
+	 */
+	public int onOrderEnded(Order order) {
+		return remove(order);
+	}
+
+	private void send(Enums.OrderAction action, int quantity) {
+		if (quantity <= 0) return;
+		Order order = ctx.createMarketOrder(action, quantity);
+		workingOrders.add(order);
+		ctx.submitOrders(order);
+	}
+
+	private int remove(Order order) {
+		if (!workingOrders.remove(order)) return 0;
+		return order.isBuy() ? order.getFilled() : -order.getFilled();
+	}
+
+	private final OrderContext ctx;
+	//orders sent and not reported filled, cancelled or rejected yet (only touched by the strategy's event handler)
+	private final List<Order> workingOrders = new ArrayList<Order>();
+}
@@ -0,0 +1,24 @@
+package com.biiuse.motivewave;
+
+/**
+ * The part of the platform's OrderContext used by the reversal logic. Implemented on top of the OrderContext by the
+ * strategy and by a simulator for headless replays.
+ */
+public interface OrderGateway {
+
+	void buy(int quantity);
+
+	void sell(int quantity);
+
+	void closeAtMarket();
+
+	int getPosition();
+
+	/**
+	 * Quantity of the orders sent but not filled yet (positive to buy), so the position will be getPosition() plus
+	 * the working quantity
+	 */
+	int getWorkingQuantity();
+
+	double getRealizedPnL();
+}
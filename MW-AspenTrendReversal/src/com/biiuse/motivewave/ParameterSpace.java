@@ -0,0 +1,127 @@
+package com.biiuse.motivewave;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Values to be tried per setting, and the parameter sets drawn from them: the full grid, uniformly random samples
+ * or a Latin hypercube sample (every value range of every setting is covered evenly).
+ */
+public class ParameterSpace {
+
+	public ParameterSpace(ReversalParameters base) {
+		this.base = base;
+	}
+
+	/**
+	 * Adds the values of a setting: a single value, a comma separated list (a,b,c) or a range (from:to:step)
+	 */
+	public void add(String setting, String values) {
+		List<String> list = new ArrayList<String>();
+		int range = values.indexOf(':');
+		if (range > 0) {
+			String[] bounds = values.split(":");
+			if (bounds.length != 3) throw new IllegalArgumentException("Expected <from>:<to>:<step> for " + setting + ": " + values);
+			//decimal arithmetic, so that 0.1 steps do not produce values like 0.30000000000000004
+			BigDecimal from = new BigDecimal(bounds[0].trim());
+			BigDecimal to = new BigDecimal(bounds[1].trim());
+			BigDecimal step = new BigDecimal(bounds[2].trim());
+			if (step.signum() <= 0) throw new IllegalArgumentException("Step must be positive for " + setting + ": " + values);
+			for (BigDecimal value = from; value.compareTo(to) <= 0; value = value.add(step)) {
+				list.add(value.toPlainString());
+			}
+		}
+		else {
+			for (String value : values.split(",")) list.add(value.trim());
+		}
+		//validate now rather than in the middle of the sweep
+		Map<String, String> check = new LinkedHashMap<String, String>();
+		for (String value : list) {
+			check.put(setting, value);
+			base.with(check);
+		}
+		dimensions.put(setting, list.toArray(new String[list.size()]));
+	}
+
+	/**
+	 * Number of parameter sets in the full grid
+	 */
+	public long getGridSize() {
+		long size = 1;
+		for (String[] values : dimensions.values()) size *= values.length;
+		return size;
+	}
+
+	public List<ReversalParameters> grid() {
+		long gridSize = getGridSize();
+		if (gridSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Grid too large: " + gridSize);
+		List<String> settings = new ArrayList<String>(dimensions.keySet());
+		int[] position = new int[settings.size()];
+		List<ReversalParameters> sets = new ArrayList<ReversalParameters>((int) gridSize);
+		for (long n = 0; n < gridSize; ++n) {
+			Map<String, String> values = new LinkedHashMap<String, String>();
+			for (int d = 0; d < settings.size(); ++d) values.put(settings.get(d), dimensions.get(settings.get(d))[position[d]]);
+			sets.add(base.with(values));
+			//advance the last setting fastest
+			for (int d = settings.size() - 1; d >= 0; --d) {
+				if (++position[d] < dimensions.get(settings.get(d)).length) break;
+				position[d] = 0;
+			}
+		}
+		return sets;
+	}
+
+	public List<ReversalParameters> random(int samples, long seed) {
+		Random random = new Random(seed);
+		List<ReversalParameters> sets = new ArrayList<ReversalParameters>(samples);
+		for (int n = 0; n < samples; ++n) {
+			Map<String, String> values = new LinkedHashMap<String, String>();
+			for (Map.Entry<String, String[]> dimension : dimensions.entrySet()) {
+				String[] choices = dimension.getValue();
+				values.put(dimension.getKey(), choices[random.nextInt(choices.length)]);
+			}
+			sets.add(base.with(values));
+		}
+		return sets;
+	}
+
+	/**
+	 * Latin hypercube sample: the value list of each setting is split into as many strata as there are samples and
+	 * every stratum is used exactly once, in random order per setting.
+	 */
+	public List<ReversalParameters> latinHypercube(int samples, long seed) {
+		Random random = new Random(seed);
+		List<Map<String, String>> values = new ArrayList<Map<String, String>>(samples);
+		for (int n = 0; n < samples; ++n) values.add(new LinkedHashMap<String, String>());
+		for (Map.Entry<String, String[]> dimension : dimensions.entrySet()) {
+			String[] choices = dimension.getValue();
+			int[] strata = permutation(samples, random);
+			for (int n = 0; n < samples; ++n) {
+				double u = (strata[n] + random.nextDouble()) / samples;
+				values.get(n).put(dimension.getKey(), choices[Math.min((int) (u * choices.length), choices.length - 1)]);
+			}
+		}
+		List<ReversalParameters> sets = new ArrayList<ReversalParameters>(samples);
+		for (Map<String, String> sample : values) sets.add(base.with(sample));
+		return sets;
+	}
+
+	private static int[] permutation(int size, Random random) {
+		int[] permutation = new int[size];
+		for (int i = 0; i < size; ++i) permutation[i] = i;
+		for (int i = size - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int swap = permutation[i];
+			permutation[i] = permutation[j];
+			permutation[j] = swap;
+		}
+		return permutation;
+	}
+
+	private final ReversalParameters base;
+	private final Map<String, String[]> dimensions = new LinkedHashMap<String, String[]>();
+}
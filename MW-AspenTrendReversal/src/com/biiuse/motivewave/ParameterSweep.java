@@ -0,0 +1,245 @@
+package com.biiuse.motivewave;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays a list of parameter sets over the same bars on all cores (fork / join) and ranks the results. The bars and
+ * their session data are shared read only by all replays; parameter sets with the same session close time share
+ * the same session close index.
+ */
+public class ParameterSweep {
+
+	/**
+	 * How results are ranked
+	 */
+	enum Ranking { PROFIT, DRAWDOWN, RECOVERY };
+
+	public ParameterSweep(BarData bars, boolean dailyBars) {
+		this(new SessionCloseData(bars, dailyBars));
+	}
+
+	/**
+	 * Sweeps over the bars of the given session data, shared with other users (e.g. all folds of a walk forward)
+	 */
+	public ParameterSweep(SessionCloseData sessionCloseData) {
+		this.sessionCloseData = sessionCloseData;
+	}
+
+	/**
+	 * Difference between ask and bid of the simulated quotes (0 by default)
+	 */
+	public void setSpread(double spread) {
+		this.spread = spread;
+	}
+
+	/**
+	 * Runs all parameter sets on the given pool. The results are returned in the order of the parameter sets.
+	 */
+	public ReplayResult[] run(final List<ReversalParameters> parameterSets, ForkJoinPool pool) {
+		prepare(parameterSets);
+		final ReplayResult[] results = new ReplayResult[parameterSets.size()];
+		pool.invoke(new Replays(parameterSets, results, 0, results.length, -1, -1));
+		return results;
+	}
+
+	/**
+	 * Runs all parameter sets over the bars in [fromBar, toBar) (see {@link ReplayEngine#run(int, int)}). Must be
+	 * called from a task running in a fork / join pool, whose workers then run the replays.
+	 */
+	ReplayResult[] runRange(List<ReversalParameters> parameterSets, int fromBar, int toBar) {
+		final ReplayResult[] results = new ReplayResult[parameterSets.size()];
+		new Replays(parameterSets, results, 0, results.length, fromBar, toBar).invoke();
+		return results;
+	}
+
+	/**
+	 * Builds the shared session close indexes of the parameter sets up front rather than inside the replays
+	 */
+	void prepare(List<ReversalParameters> parameterSets) {
+		Set<Integer> sessionCloses = new HashSet<Integer>();
+		for (ReversalParameters parameters : parameterSets) {
+			if (sessionCloses.add(parameters.getSessionCloseTotalMinutes())) sessionCloseData.getSessionCloseIndex(parameters.getSessionCloseTotalMinutes());
+		}
+	}
+
+	/**
+	 * Returns a copy of the results, best first
+	 */
+	public static ReplayResult[] rank(ReplayResult[] results, Ranking ranking) {
+		ReplayResult[] ranked = results.clone();
+		Comparator<ReplayResult> comparator;
+		switch (ranking) {
+		case DRAWDOWN:
+			comparator = new Comparator<ReplayResult>() {
+				@Override
+				public int compare(ReplayResult a, ReplayResult b) {
+					int result = Double.compare(a.getMaxDrawDown(), b.getMaxDrawDown());
+					return result != 0 ? result : Double.compare(b.getTotalProfit(), a.getTotalProfit());
+				}
+			};
+			break;
+		case RECOVERY:
+			comparator = new Comparator<ReplayResult>() {
+				@Override
+				public int compare(ReplayResult a, ReplayResult b) {
+					int result = Double.compare(getRecoveryFactor(b), getRecoveryFactor(a));
+					return result != 0 ? result : Double.compare(b.getTotalProfit(), a.getTotalProfit());
+				}
+			};
+			break;
+		default:
+			comparator = new Comparator<ReplayResult>() {
+				@Override
+				public int compare(ReplayResult a, ReplayResult b) {
+					return Double.compare(b.getTotalProfit(), a.getTotalProfit());
+				}
+			};
+		}
+		Arrays.sort(ranked, comparator);
+		return ranked;
+	}
+
+	/**
+	 * Total P/L divided by the maximum draw down
+	 */
+	static double getRecoveryFactor(ReplayResult result) {
+		if (result.getMaxDrawDown() > 0) return result.getTotalProfit() / result.getMaxDrawDown();
+		return result.getTotalProfit() > 0 ? Double.POSITIVE_INFINITY : result.getTotalProfit();
+	}
+
+	/**
+	 * Writes the ranked results as a table with one column per setting
+	 */
+	public static void writeTable(Writer out, ReplayResult[] ranked, int rows, String separator) throws IOException {
+		if (ranked.length == 0) return;
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("RANK");
+		for (String setting : ranked[0].getParameters().toMap().keySet()) sb.append(separator).append(setting);
+		sb.append(separator).append("TRADES").append(separator).append("WINNERS").append(separator).append("P/L").append(separator).append("MAX DRAW DOWN")
+				.append(separator).append("RECOVERY FACTOR").append('\n');
+		out.append(sb);
+		for (int i = 0; i < Math.min(rows, ranked.length); ++i) {
+			ReplayResult result = ranked[i];
+			sb.setLength(0);
+			sb.append(i + 1);
+			for (String value : result.getParameters().toMap().values()) sb.append(separator).append(value);
+			sb.append(separator).append(result.getTradeCount()).append(separator).append(result.getWinningTrades()).append(separator);
+			DecimalFormatter.append(sb, result.getTotalProfit(), 2).append(separator);
+			DecimalFormatter.append(sb, result.getMaxDrawDown(), 2).append(separator);
+			DecimalFormatter.append(sb, getRecoveryFactor(result), 2).append('\n');
+			out.append(sb);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Usage: ParameterSweep &lt;bars.csv or bar store directory&gt; &lt;bar size in minutes&gt; [zone=UTC] [spread=0] [mode=grid|random|lhs]
+	 * [samples=1000] [seed=1] [threads=&lt;cores&gt;] [rank=profit|drawdown|recovery] [top=20] [out=&lt;results.csv&gt;]
+	 * [&lt;setting&gt;=&lt;value&gt;|&lt;a,b,c&gt;|&lt;from:to:step&gt; ...]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: ParameterSweep <bars.csv or bar store directory> <bar size in minutes> [zone=UTC] [spread=0] [mode=grid|random|lhs] [samples=1000] [seed=1] "
+					+ "[threads=<cores>] [rank=profit|drawdown|recovery] [top=20] [out=<results.csv>] [<setting>=<value>|<a,b,c>|<from:to:step> ...]");
+			System.exit(1);
+		}
+		int barMinutes = Integer.parseInt(args[1]);
+		Map<String, String> options = ReplayEngine.parseOptions(args, 2);
+		ZoneId zone = ZoneId.of(ReplayEngine.remove(options, "zone", "UTC"));
+		double spread = Double.parseDouble(ReplayEngine.remove(options, "spread", "0"));
+		String mode = ReplayEngine.remove(options, "mode", "grid");
+		int samples = Integer.parseInt(ReplayEngine.remove(options, "samples", "1000"));
+		long seed = Long.parseLong(ReplayEngine.remove(options, "seed", "1"));
+		int threads = Integer.parseInt(ReplayEngine.remove(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		Ranking ranking = Ranking.valueOf(ReplayEngine.remove(options, "rank", "profit").toUpperCase());
+		int top = Integer.parseInt(ReplayEngine.remove(options, "top", "20"));
+		String outFileName = ReplayEngine.remove(options, "out", null);
+
+		ParameterSpace space = new ParameterSpace(ReversalParameters.getDefaults());
+		for (Map.Entry<String, String> option : options.entrySet()) space.add(option.getKey(), option.getValue());
+		List<ReversalParameters> parameterSets;
+		if (mode.equals("grid")) parameterSets = space.grid();
+		else if (mode.equals("random")) parameterSets = space.random(samples, seed);
+		else if (mode.equals("lhs")) parameterSets = space.latinHypercube(samples, seed);
+		else throw new IllegalArgumentException("Unknown mode: " + mode);
+
+		long start = System.nanoTime();
+		BarData bars = ReplayEngine.loadBars(args[0], barMinutes, zone);
+		long loaded = System.nanoTime();
+
+		ParameterSweep sweep = new ParameterSweep(bars, barMinutes >= 1440);
+		sweep.setSpread(spread);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ReplayResult[] results = sweep.run(parameterSets, pool);
+		pool.shutdown();
+		long swept = System.nanoTime();
+
+		ReplayResult[] ranked = rank(results, ranking);
+		Writer console = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		writeTable(console, ranked, top, "\t");
+		if (outFileName != null) {
+			Writer out = new OutputStreamWriter(new FileOutputStream(outFileName), StandardCharsets.UTF_8);
+			try {
+				writeTable(out, ranked, ranked.length, ",");
+			}
+			finally {
+				out.close();
+			}
+		}
+		System.out.println("Loaded " + bars.size() + " bars in " + (loaded - start) / 1000000 + " ms, replayed " + parameterSets.size() + " parameter sets on "
+				+ threads + " threads in " + (swept - loaded) / 1000000 + " ms");
+	}
+
+	/**
+	 * Replays a range of parameter sets, splitting it until single parameter sets are left. The bars from fromBar
+	 * to toBar are replayed, or all bars if fromBar is negative.
+	 */
+	private class Replays extends RecursiveAction {
+
+		Replays(List<ReversalParameters> parameterSets, ReplayResult[] results, int from, int to, int fromBar, int toBar) {
+			this.parameterSets = parameterSets;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.fromBar = fromBar;
+			this.toBar = toBar;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (from == to) return;
+				ReplayEngine engine = new ReplayEngine(sessionCloseData, parameterSets.get(from));
+				engine.setSpread(spread);
+				results[from] = fromBar < 0 ? engine.run() : engine.run(fromBar, toBar);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Replays(parameterSets, results, from, middle, fromBar, toBar), new Replays(parameterSets, results, middle, to, fromBar, toBar));
+		}
+
+		private static final long serialVersionUID = 1L;
+		private final List<ReversalParameters> parameterSets;
+		private final ReplayResult[] results;
+		private final int from;
+		private final int to;
+		private final int fromBar;
+		private final int toBar;
+	}
+
+	private final SessionCloseData sessionCloseData;
+	private double spread = 0;
+}
@@ -0,0 +1,195 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the session close reversal logic of a {@link PortfolioState} for many instruments on a pool of worker
+ * threads. Every slot is owned by one worker (slot modulo the number of workers), so the bars of an instrument are
+ * processed in order without locking, while the bars of different instruments - e.g. the burst of session closes at
+ * 17:00 ET - are processed in parallel.
+ * <p>
+ * Bars are either fed as they complete ({@link #submit(int, long, double)}) or replayed from history
+ * ({@link #replay(BarData[])}). Orders are filled by the simulation in the portfolio state.
+ */
+public class PortfolioRunner {
+
+	public PortfolioRunner(PortfolioState state, int threads) {
+		this.state = state;
+		workers = new ExecutorService[Math.max(threads, 1)];
+		for (int w = 0; w < workers.length; ++w) {
+			final String name = "PortfolioRunner-" + w;
+			workers[w] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	public PortfolioState getState() {
+		return state;
+	}
+
+	public int getThreads() {
+		return workers.length;
+	}
+
+	/**
+	 * Queues a completed bar of the instrument in the given slot for its worker
+	 */
+	public void submit(final int slot, final long barEndTime, final double close) {
+		getWorker(slot).execute(new Runnable() {
+			@Override
+			public void run() {
+				state.onBar(slot, barEndTime, close);
+			}
+		});
+	}
+
+	/**
+	 * Replays the bars of all slots (bars[slot]) and waits until they have been processed. Each worker replays the
+	 * slots it owns one after the other.
+	 */
+	public void replay(final BarData[] bars) throws InterruptedException {
+		List<Future<?>> replays = new ArrayList<Future<?>>();
+		for (int w = 0; w < workers.length; ++w) {
+			final int worker = w;
+			replays.add(workers[w].submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int slot = worker; slot < bars.length; slot += workers.length) {
+						BarData slotBars = bars[slot];
+						for (int i = 0; i < slotBars.size(); ++i) state.onBar(slot, slotBars.getEndTime(i), slotBars.getClose(i));
+					}
+				}
+			}));
+		}
+		for (Future<?> replay : replays) {
+			try {
+				replay.get();
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("Replay failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Processes the queued bars and stops the workers. Returns false if they did not finish within the timeout.
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		for (ExecutorService worker : workers) worker.shutdown();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (ExecutorService worker : workers) {
+			if (!worker.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) return false;
+		}
+		return true;
+	}
+
+	private ExecutorService getWorker(int slot) {
+		return workers[slot % workers.length];
+	}
+
+	/**
+	 * Usage: PortfolioRunner &lt;bar store root&gt; &lt;bar size in minutes&gt; [symbols=&lt;a,b,...&gt;] [threads=&lt;cores&gt;]
+	 * [spread=0] [journal=&lt;trades.csv&gt;] [&lt;setting&gt;=&lt;value&gt; ...]
+	 * <p>
+	 * Replays all instruments of the bar store (or the given ones) with the same settings and prints the results per
+	 * instrument and in total.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: PortfolioRunner <bar store root> <bar size in minutes> [symbols=<a,b,...>] [threads=<cores>] [spread=0] [journal=<trades.csv>] "
+					+ "[<setting>=<value> ...]");
+			System.exit(1);
+		}
+		File root = new File(args[0]);
+		int barMinutes = Integer.parseInt(args[1]);
+		Map<String, String> options = ReplayEngine.parseOptions(args, 2);
+		String symbolList = ReplayEngine.remove(options, "symbols", null);
+		int threads = Integer.parseInt(ReplayEngine.remove(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		double spread = Double.parseDouble(ReplayEngine.remove(options, "spread", "0"));
+		String journalFileName = ReplayEngine.remove(options, "journal", null);
+		ReversalParameters parameters = ReversalParameters.getDefaults().with(options);
+
+		String[] symbols;
+		if (symbolList != null) symbols = symbolList.split(",");
+		else {
+			//every instrument of the store that has bars of the requested size
+			List<String> found = new ArrayList<String>();
+			String[] names = root.list();
+			if (names != null) {
+				Arrays.sort(names);
+				for (String name : names) {
+					if (new File(BarStore.getDirectory(root, name, barMinutes), BarStore.TIME_COLUMN).isFile()) found.add(name);
+				}
+			}
+			symbols = found.toArray(new String[found.size()]);
+		}
+		if (symbols.length == 0) throw new IOException("No " + barMinutes + " minute bars in " + root);
+
+		long start = System.nanoTime();
+		BarData[] bars = new BarData[symbols.length];
+		final PortfolioState state = new PortfolioState(symbols.length, parameters, barMinutes >= 1440);
+		state.setSpread(spread);
+		long barCount = 0;
+		for (int s = 0; s < symbols.length; ++s) {
+			bars[s] = BarStore.open(BarStore.getDirectory(root, symbols[s], barMinutes));
+			state.addInstrument(symbols[s]);
+			barCount += bars[s].size();
+		}
+		final TradeJournal journal = journalFileName != null ? new TradeJournal(journalFileName, 64 * 1024, 1000, false) : null;
+		if (journal != null) {
+			journal.start();
+			state.setTradeListener(new PortfolioState.TradeListener() {
+				@Override
+				public void onTradeClosed(int slot, long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+					journal.append(entryTime, state.getSymbol(slot), tradeDirection, positionSize, entryPrice, exitPrice, PL, drawDown);
+				}
+			});
+		}
+		long opened = System.nanoTime();
+
+		PortfolioRunner runner = new PortfolioRunner(state, threads);
+		runner.replay(bars);
+		runner.shutdown(60000);
+		long replayed = System.nanoTime();
+		if (journal != null) journal.close(60000);
+		for (BarData b : bars) ((BarStore) b).close();
+
+		StringBuilder sb = new StringBuilder(256);
+		System.out.println("SYMBOL\tBARS\tSIGNALS\tTRADES\tPROFIT\tMAX DRAWDOWN");
+		double totalProfit = 0;
+		int totalTrades = 0;
+		for (int s = 0; s < state.size(); ++s) {
+			sb.setLength(0);
+			sb.append(state.getSymbol(s)).append('\t').append(state.getBarsProcessed(s)).append('\t').append(state.getSignalCount(s)).append('\t')
+					.append(state.getTradeCount(s)).append('\t');
+			DecimalFormatter.append(sb, state.getRealizedPnL(s), 2).append('\t');
+			DecimalFormatter.append(sb, state.getMaxDrawDown(s), 2);
+			System.out.println(sb);
+			totalProfit += state.getRealizedPnL(s);
+			totalTrades += state.getTradeCount(s);
+		}
+		System.out.println("Total: " + totalTrades + " trades, profit " + DecimalFormatter.format(totalProfit, 2));
+		System.out.println("Opened " + symbols.length + " instruments (" + barCount + " bars) in " + (opened - start) / 1000000 + " ms, replayed on " + threads
+				+ " threads in " + (replayed - opened) / 1000000 + " ms");
+	}
+
+	private final PortfolioState state;
+	private final ExecutorService[] workers;
+}
@@ -0,0 +1,314 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+import com.biiuse.motivewave.AspenTrendReversalStudySingleTimeFrame.Signals;
+
+/**
+ * Session close reversal logic for many instruments at once. Each instrument has a slot; its state (the closes of
+ * the look back sessions, the omit consecutive state, the simulated position and its results) lives in primitive
+ * arrays indexed by the slot instead of a generator, trader and gateway object per instrument. Only the session
+ * closes are detected by an object per slot, a {@link SessionCloseAggregator}, so bars of any size are handled.
+ * <p>
+ * Bars are evaluated against the lowest and highest close of the previous sessions if they end within the look
+ * ahead or if a session closed during the bar, orders are filled at the close of the bar (plus / minus half the
+ * spread) and the stop loss is checked after each bar. A slot must only be updated by one thread at a time;
+ * different slots may be updated concurrently.
+ */
+public class PortfolioState {
+
+	/**
+	 * Receives the trades closed in any of the slots (called on the thread that updated the slot)
+	 */
+	public interface TradeListener {
+		void onTradeClosed(int slot, long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown);
+	}
+
+	private final static byte NONE = (byte) Signals.NONE.ordinal();
+	private final static byte LOW = (byte) Signals.LOW.ordinal();
+	private final static byte HIGH = (byte) Signals.HIGH.ordinal();
+	private final static Signals[] SIGNALS = Signals.values();
+
+	public PortfolioState(int capacity, ReversalParameters parameters, boolean dailyBars) {
+		this.parameters = parameters;
+		this.dailyBars = dailyBars;
+		lookBackSessions = parameters.getLookBackSessions();
+		sessionCloseMinutes = parameters.getSessionCloseTotalMinutes();
+		lookAheadMinutes = parameters.getLookAheadMinutes();
+		omitConsecutive = parameters.isOmitConsecutive();
+		positionSize = parameters.getPositionSize();
+		stopLossPoints = parameters.getStopLossPoints();
+
+		symbols = new String[capacity];
+		aggregators = new SessionCloseAggregator[capacity];
+		for (int slot = 0; slot < capacity; ++slot) {
+			aggregators[slot] = new SessionCloseAggregator(calendar);
+			aggregators[slot].configure(sessionCloseMinutes);
+		}
+		sessionCloses = new double[capacity * Math.max(lookBackSessions, 0)];
+		sessionCount = new int[capacity];
+		lowestClose = new double[capacity];
+		highestClose = new double[capacity];
+		lastSignal = new byte[capacity];
+		position = new int[capacity];
+		avgEntryPrice = new double[capacity];
+		realizedPnL = new double[capacity];
+		entryPrice = new double[capacity];
+		entryTime = new long[capacity];
+		peakPnL = new double[capacity];
+		maxDrawDown = new double[capacity];
+		barsProcessed = new int[capacity];
+		signalCount = new int[capacity];
+		orderCount = new int[capacity];
+		tradeCount = new int[capacity];
+	}
+
+	public ReversalParameters getParameters() {
+		return parameters;
+	}
+
+	public void setTradeListener(TradeListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Difference between ask and bid of the simulated quotes (0 by default)
+	 */
+	public void setSpread(double spread) {
+		this.halfSpread = spread / 2;
+	}
+
+	/**
+	 * Assigns the next free slot to the given instrument
+	 */
+	public synchronized int addInstrument(String symbol) {
+		if (size == symbols.length) throw new IllegalStateException("All " + symbols.length + " slots are in use");
+		symbols[size] = symbol;
+		return size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getSymbol(int slot) {
+		return symbols[slot];
+	}
+
+	/**
+	 * Evaluates the completed bar of the instrument in the given slot that ends at barEndTime, trades on its signal
+	 * and checks the stop loss. Bars of a slot must be passed in time order.
+	 */
+	public Signals onBar(int slot, long barEndTime, double close) {
+		barsProcessed[slot]++;
+		//on daily bars every bar closes a session, otherwise the session that closed since the previous bar (if any)
+		boolean sessionClosed = dailyBars || aggregators[slot].onPrice(barEndTime, close);
+		byte signal = evaluate(slot, barEndTime, close, sessionClosed);
+		if (sessionClosed) addSessionClose(slot, dailyBars ? close : aggregators[slot].getLastSessionClose());
+
+		double bid = close - halfSpread;
+		double ask = close + halfSpread;
+		if (signal != NONE) {
+			signalCount[slot]++;
+			trade(slot, signal, barEndTime, close, bid, ask);
+		}
+		checkStopLoss(slot, close, bid, ask);
+		return SIGNALS[signal];
+	}
+
+	/**
+	 * Compares the close against the previous session closes; the session closes strictly before the bar are in the
+	 * slot, as in the session close index. A bar during which a session closed is evaluated even if it does not end
+	 * within the look ahead (bars longer than the look ahead, or not ending on it).
+	 */
+	private byte evaluate(int slot, long barEndTime, double close, boolean sessionClosed) {
+		if (!(dailyBars || sessionClosed || calendar.isWithinLookAhead(barEndTime, sessionCloseMinutes, lookAheadMinutes))) return NONE;
+		if ((lookBackSessions <= 0) || (sessionCount[slot] < lookBackSessions)) return NONE;
+		if (close < lowestClose[slot]) {
+			if ((!omitConsecutive) || (lastSignal[slot] != LOW)) {
+				lastSignal[slot] = LOW;
+				return LOW;
+			}
+		}
+		if (close > highestClose[slot]) {
+			if ((!omitConsecutive) || (lastSignal[slot] != HIGH)) {
+				lastSignal[slot] = HIGH;
+				return HIGH;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Adds a session close to the ring of the slot's look back sessions and updates their extrema
+	 */
+	private void addSessionClose(int slot, double close) {
+		if (lookBackSessions <= 0) return;
+		int base = slot * lookBackSessions;
+		int count = sessionCount[slot];
+		sessionCloses[base + count % lookBackSessions] = close;
+		sessionCount[slot] = ++count;
+		if (count < lookBackSessions) return;
+		double low = sessionCloses[base];
+		double high = low;
+		for (int i = base + 1; i < base + lookBackSessions; ++i) {
+			double c = sessionCloses[i];
+			if (c < low) low = c;
+			if (c > high) high = c;
+		}
+		lowestClose[slot] = low;
+		highestClose[slot] = high;
+	}
+
+	private void trade(int slot, byte signal, long barEndTime, double close, double bid, double ask) {
+		int current = position[slot];
+		if (current == 0) {
+			if (signal == LOW) fill(slot, positionSize, ask);
+			else fill(slot, -positionSize, bid);
+			enter(slot, barEndTime, close);
+		}
+		// if we are long look for position reversal
+		else if ((current > 0) && (signal == HIGH)) {
+			fill(slot, -current, bid);
+			closed(slot, "LONG", close);
+			fill(slot, -positionSize, bid);
+			enter(slot, barEndTime, close);
+		}
+		// if we are short look for position reversal
+		else if ((current < 0) && (signal == LOW)) {
+			fill(slot, -current, ask);
+			closed(slot, "SHORT", close);
+			fill(slot, positionSize, ask);
+			enter(slot, barEndTime, close);
+		}
+	}
+
+	private void checkStopLoss(int slot, double close, double bid, double ask) {
+		int current = position[slot];
+		if ((current < 0) && (ask > entryPrice[slot] + stopLossPoints)) {
+			fill(slot, -current, ask);
+			closed(slot, "SHORT", close);
+		}
+		else if ((current > 0) && (bid < entryPrice[slot] - stopLossPoints)) {
+			fill(slot, -current, bid);
+			closed(slot, "LONG", close);
+		}
+	}
+
+	private void enter(int slot, long barEndTime, double close) {
+		entryPrice[slot] = close;
+		entryTime[slot] = barEndTime;
+	}
+
+	private void closed(int slot, String tradeDirection, double exitPrice) {
+		tradeCount[slot]++;
+		double pnl = realizedPnL[slot];
+		if (pnl > peakPnL[slot]) peakPnL[slot] = pnl;
+		if (peakPnL[slot] - pnl > maxDrawDown[slot]) maxDrawDown[slot] = peakPnL[slot] - pnl;
+		if (listener != null) listener.onTradeClosed(slot, entryTime[slot], tradeDirection, positionSize, entryPrice[slot], exitPrice, pnl, 0.0);
+	}
+
+	/**
+	 * Fills a market order as the {@link SimulatedOrderGateway} does
+	 */
+	private void fill(int slot, int quantity, double price) {
+		if (quantity == 0) return;
+		orderCount[slot]++;
+		int current = position[slot];
+		if ((current == 0) || (Integer.signum(current) == Integer.signum(quantity))) {
+			avgEntryPrice[slot] = (avgEntryPrice[slot] * Math.abs(current) + price * Math.abs(quantity)) / (Math.abs(current) + Math.abs(quantity));
+			position[slot] = current + quantity;
+			return;
+		}
+		int closed = Math.min(Math.abs(current), Math.abs(quantity));
+		realizedPnL[slot] += (price - avgEntryPrice[slot]) * closed * Integer.signum(current);
+		position[slot] = current + quantity;
+		if (position[slot] == 0) avgEntryPrice[slot] = 0;
+		else if (Integer.signum(position[slot]) == Integer.signum(quantity)) avgEntryPrice[slot] = price;
+	}
+
+	public int getPosition(int slot) {
+		return position[slot];
+	}
+
+	public double getRealizedPnL(int slot) {
+		return realizedPnL[slot];
+	}
+
+	/**
+	 * Largest decline of the realized P/L from its previous peak
+	 */
+	public double getMaxDrawDown(int slot) {
+		return maxDrawDown[slot];
+	}
+
+	public int getBarsProcessed(int slot) {
+		return barsProcessed[slot];
+	}
+
+	public int getSignalCount(int slot) {
+		return signalCount[slot];
+	}
+
+	public int getOrderCount(int slot) {
+		return orderCount[slot];
+	}
+
+	public int getTradeCount(int slot) {
+		return tradeCount[slot];
+	}
+
+	/**
+	 * Clears the state of all slots (the instruments keep their slots)
+	 */
+	public void reset() {
+		for (SessionCloseAggregator aggregator : aggregators) aggregator.reset();
+		Arrays.fill(sessionCount, 0);
+		Arrays.fill(lastSignal, NONE);
+		Arrays.fill(position, 0);
+		Arrays.fill(avgEntryPrice, 0);
+		Arrays.fill(realizedPnL, 0);
+		Arrays.fill(entryPrice, 0);
+		Arrays.fill(entryTime, 0);
+		Arrays.fill(peakPnL, 0);
+		Arrays.fill(maxDrawDown, 0);
+		Arrays.fill(barsProcessed, 0);
+		Arrays.fill(signalCount, 0);
+		Arrays.fill(orderCount, 0);
+		Arrays.fill(tradeCount, 0);
+	}
+
+	private final ReversalParameters parameters;
+	private final boolean dailyBars;
+	private final int lookBackSessions;
+	private final int sessionCloseMinutes;
+	private final int lookAheadMinutes;
+	private final boolean omitConsecutive;
+	private final int positionSize;
+	private final double stopLossPoints;
+	private final SessionCalendar calendar = SessionCalendar.getNewYorkCalendar();
+	private double halfSpread = 0;
+	private TradeListener listener;
+	private int size = 0;
+
+	private final String[] symbols;
+	private final SessionCloseAggregator[] aggregators;
+	//look back session closes of slot s in [s * lookBackSessions, (s + 1) * lookBackSessions), used as a ring
+	private final double[] sessionCloses;
+	private final int[] sessionCount;
+	private final double[] lowestClose;
+	private final double[] highestClose;
+	private final byte[] lastSignal;
+
+	private final int[] position;
+	private final double[] avgEntryPrice;
+	private final double[] realizedPnL;
+	private final double[] entryPrice;
+	private final long[] entryTime;
+	private final double[] peakPnL;
+	private final double[] maxDrawDown;
+	private final int[] barsProcessed;
+	private final int[] signalCount;
+	private final int[] orderCount;
+	private final int[] tradeCount;
+}
@@ -0,0 +1,257 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.biiuse.motivewave.AspenTrendReversalStudySingleTimeFrame.Signals;
+
+/**
+ * Replays bars outside of MotiveWave through the same signal and position logic the study and the strategy use on
+ * the platform. Every bar is evaluated by the {@link SessionCloseSignalGenerator} (as in calculate), signals are
+ * handed to the {@link ReversalTrader} (as in onSignal) and the stop loss is checked after each bar. Orders are
+ * filled by a {@link SimulatedOrderGateway} at the close of the bar.
+ * <p>
+ * If recorded ticks are set, the {@link StopLossMonitor} also sees every tick within a bar, so stops are filled at
+ * the first quote that crosses them rather than at the close of the bar.
+ * <p>
+ * With a fill latency or partial fills set on the gateway, orders are filled by later quotes and the trades are
+ * reported as their closing fills arrive.
+ */
+public class ReplayEngine implements ReversalTrader.TradeListener, StopLossMonitor.Listener, SimulatedOrderGateway.FillListener {
+
+	public ReplayEngine(BarData bars, boolean dailyBars, ReversalParameters parameters) {
+		this.bars = bars;
+		this.parameters = parameters;
+		generator.configure(parameters, dailyBars);
+		trader.configure(parameters);
+		gateway.setFillListener(this);
+	}
+
+	/**
+	 * Replays the bars of the given session data, using its precomputed session closes
+	 */
+	public ReplayEngine(SessionCloseData sessionCloseData, ReversalParameters parameters) {
+		this.bars = sessionCloseData.getBars();
+		this.parameters = parameters;
+		generator.configure(parameters, sessionCloseData.isDailyBars());
+		generator.setSessionCloseData(sessionCloseData);
+		trader.configure(parameters);
+		gateway.setFillListener(this);
+	}
+
+	/**
+	 * Difference between ask and bid of the simulated quotes (0 by default)
+	 */
+	public void setSpread(double spread) {
+		this.spread = spread;
+	}
+
+	/**
+	 * Reverse positions with a single net order (false by default)
+	 */
+	public void setNetReversal(boolean netReversal) {
+		trader.setNetReversal(netReversal);
+	}
+
+	/**
+	 * Ticks that are fed to the stop loss monitor between bar closes (null for bar based stops only)
+	 */
+	public void setTicks(TickSeries ticks) {
+		this.ticks = ticks;
+	}
+
+	/**
+	 * Additionally writes the trades and signals of the replay to the given (started) journal
+	 */
+	public void setJournal(TradeJournal journal, String symbol) {
+		this.journal = journal;
+		this.symbol = symbol;
+	}
+
+	public ReplayResult run() {
+		return run(0, bars.size(), false);
+	}
+
+	/**
+	 * Replays the bars in [from, to) only, e.g. one window of a walk forward analysis. The session closes before the
+	 * range provide the look back; a position that is still open at the end of the range is closed at the last close.
+	 */
+	public ReplayResult run(int from, int to) {
+		return run(from, to, true);
+	}
+
+	private ReplayResult run(int from, int to, boolean closeAtEnd) {
+		result = new ReplayResult(parameters);
+		int signalCount = 0;
+		double halfSpread = spread / 2;
+		int tick = ((ticks != null) && (from < to)) ? ticks.findFirstAfter(bars.getStartTime(from)) : 0;
+		for (int i = from; i < to; ++i) {
+			long barEndTime = bars.getEndTime(i);
+			double close = bars.getClose(i);
+			if (ticks != null) {
+				//the ticks of the bar, up to its close
+				for (; (tick < ticks.size()) && (ticks.getTime(tick) <= barEndTime); ++tick) {
+					tickQuote = true;
+					gateway.setQuote(ticks.getTime(tick), ticks.getBidPrice(tick), ticks.getAskPrice(tick));
+					stops.onQuote(ticks.getTime(tick), ticks.getBidPrice(tick), ticks.getAskPrice(tick));
+				}
+				tickQuote = false;
+			}
+			barClose = close;
+			gateway.setQuote(barEndTime, close - halfSpread, close + halfSpread);
+
+			Signals signal = generator.calculate(bars, i);
+			if (signal != Signals.NONE) {
+				signalCount++;
+				if (journal != null) journal.appendSignal(barEndTime, symbol, signal == Signals.HIGH ? "SHORT" : "LONG", close);
+				ReversalTrader.Action action = trader.onSignal(gateway, signal, barEndTime, close);
+				if (action != ReversalTrader.Action.NONE) {
+					stops.setStop(0, action.isLong(), trader.getStopLevel(action.isLong() ? 1 : -1));
+				}
+			}
+			stops.onQuote(barEndTime, gateway.getBidPrice(), gateway.getAskPrice());
+		}
+		if (closeAtEnd && (gateway.getPosition() + gateway.getWorkingQuantity() != 0)) {
+			stops.removeStop(0);
+			trader.stopOut(gateway, barClose);
+		}
+		result.setBarsProcessed(to - from);
+		result.setSignalCount(signalCount);
+		result.setOrderCount(gateway.getOrderCount());
+		return result;
+	}
+
+	public SimulatedOrderGateway getGateway() {
+		return gateway;
+	}
+
+	@Override
+	public void onStop(int id, boolean isLong, double level, long time, double bidPrice, double askPrice) {
+		double fillPrice = isLong ? bidPrice : askPrice;
+		result.onStop(isLong, level, fillPrice);
+		//bar based stops report the close of the bar as exit, as the strategy does
+		trader.stopOut(gateway, tickQuote ? fillPrice : barClose);
+	}
+
+	@Override
+	public void onFill(long time, int quantity, double price) {
+		trader.onFill(gateway, quantity, price);
+	}
+
+	@Override
+	public void onTradeClosed(long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+		result.onTradeClosed(entryTime, tradeDirection, positionSize, entryPrice, exitPrice, PL, drawDown);
+		if (journal != null) journal.append(entryTime, symbol, tradeDirection, positionSize, entryPrice, exitPrice, PL, drawDown);
+	}
+
+	/**
+	 * Usage: ReplayEngine &lt;bars.csv or bar store directory&gt; &lt;bar size in minutes&gt; [zone=UTC] [spread=0] [symbol=REPLAY]
+	 * [journal=&lt;trades.csv&gt;] [ticks=&lt;ticks.csv&gt;] [latency=0] [maxFill=0] [slippage=0] [netReversal=false]
+	 * [&lt;setting&gt;=&lt;value&gt; ...]
+	 * <p>
+	 * latency (ms), maxFill (largest quantity filled per quote, 0 for complete fills) and slippage (price points) set
+	 * up the simulated broker, e.g. to load test the order handling.
+	 * <p>
+	 * With ticks, the bars are replayed twice, with bar based and with tick level stops, to compare the slippage of
+	 * the stop loss exits.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: ReplayEngine <bars.csv or bar store directory> <bar size in minutes> [zone=UTC] [spread=0] [symbol=REPLAY] [journal=<trades.csv>] [ticks=<ticks.csv>] [latency=0] [maxFill=0] [slippage=0] [netReversal=false] [<setting>=<value> ...]");
+			System.exit(1);
+		}
+		int barMinutes = Integer.parseInt(args[1]);
+		Map<String, String> options = parseOptions(args, 2);
+		ZoneId zone = ZoneId.of(remove(options, "zone", "UTC"));
+		double spread = Double.parseDouble(remove(options, "spread", "0"));
+		String symbol = remove(options, "symbol", "REPLAY");
+		String journalFileName = remove(options, "journal", null);
+		String ticksFileName = remove(options, "ticks", null);
+		long latency = Long.parseLong(remove(options, "latency", "0"));
+		int maxFill = Integer.parseInt(remove(options, "maxFill", "0"));
+		double slippage = Double.parseDouble(remove(options, "slippage", "0"));
+		boolean netReversal = Boolean.parseBoolean(remove(options, "netReversal", "false"));
+		ReversalParameters parameters = ReversalParameters.getDefaults().with(options);
+
+		long start = System.nanoTime();
+		BarData bars = loadBars(args[0], barMinutes, zone);
+		long loaded = System.nanoTime();
+
+		ReplayEngine engine = new ReplayEngine(bars, barMinutes >= 1440, parameters);
+		engine.setSpread(spread);
+		engine.setNetReversal(netReversal);
+		SimulatedOrderGateway gateway = engine.getGateway();
+		gateway.setLatency(latency);
+		gateway.setMaxFillQuantity(maxFill);
+		gateway.setSlippage(slippage);
+		TradeJournal journal = null;
+		if (journalFileName != null) {
+			journal = new TradeJournal(journalFileName, 64 * 1024, 1000, false);
+			journal.start();
+			engine.setJournal(journal, symbol);
+		}
+		ReplayResult result = engine.run();
+		long replayed = System.nanoTime();
+		if (journal != null) journal.close(60000);
+
+		System.out.println(result);
+		System.out.println("Loaded " + bars.size() + " bars in " + (loaded - start) / 1000000 + " ms, replayed in " + (replayed - loaded) / 1000000 + " ms");
+		if ((latency > 0) || (maxFill > 0)) {
+			System.out.println("Filled " + gateway.getFilledOrderCount() + " of " + gateway.getOrderCount() + " orders, fill latency average "
+					+ gateway.getAverageFillLatency() + " ms, max " + gateway.getMaxFillLatency() + " ms, still working " + gateway.getWorkingQuantity());
+		}
+
+		if (ticksFileName != null) {
+			TickSeries ticks = TickSeries.loadCsv(ticksFileName, zone);
+			ReplayEngine tickEngine = new ReplayEngine(bars, barMinutes >= 1440, parameters);
+			tickEngine.setSpread(spread);
+			tickEngine.setNetReversal(netReversal);
+			tickEngine.setTicks(ticks);
+			System.out.println("With tick level stops (" + ticks.size() + " ticks): " + tickEngine.run());
+		}
+	}
+
+	/**
+	 * Opens the bar store in the given directory, or loads the bars of the given CSV file (times in the given zone)
+	 */
+	static BarData loadBars(String source, int barMinutes, ZoneId zone) throws IOException {
+		if (new File(source).isDirectory()) {
+			BarStore store = BarStore.open(new File(source));
+			if (store.getIntervalMinutes() != barMinutes) throw new IOException("Bar store " + source + " holds " + store.getIntervalMinutes() + " minute bars");
+			return store;
+		}
+		return BarSeries.loadCsv(source, barMinutes, zone);
+	}
+
+	static Map<String, String> parseOptions(String[] args, int from) {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		for (int i = from; i < args.length; ++i) {
+			int separator = args[i].indexOf('=');
+			if (separator <= 0) throw new IllegalArgumentException("Expected <name>=<value>: " + args[i]);
+			options.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+		}
+		return options;
+	}
+
+	static String remove(Map<String, String> options, String key, String defaultValue) {
+		String value = options.remove(key);
+		return value == null ? defaultValue : value;
+	}
+
+	private final BarData bars;
+	private final ReversalParameters parameters;
+	private final SessionCloseSignalGenerator generator = new SessionCloseSignalGenerator();
+	private final ReversalTrader trader = new ReversalTrader(this);
+	private final SimulatedOrderGateway gateway = new SimulatedOrderGateway();
+	private final StopLossMonitor stops = new StopLossMonitor(this);
+	private TickSeries ticks;
+	private boolean tickQuote;
+	private double barClose;
+	private double spread = 0;
+	private TradeJournal journal;
+	private String symbol;
+	private ReplayResult result;
+}
@@ -0,0 +1,179 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of a headless replay: the closed trades (in primitive arrays) and summary statistics.
+ */
+public class ReplayResult implements ReversalTrader.TradeListener {
+
+	public ReplayResult(ReversalParameters parameters) {
+		this.parameters = parameters;
+	}
+
+	@Override
+	public void onTradeClosed(long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+		if (tradeCount == entryTimes.length) {
+			int capacity = tradeCount * 2;
+			entryTimes = Arrays.copyOf(entryTimes, capacity);
+			directions = Arrays.copyOf(directions, capacity);
+			positionSizes = Arrays.copyOf(positionSizes, capacity);
+			entryPrices = Arrays.copyOf(entryPrices, capacity);
+			exitPrices = Arrays.copyOf(exitPrices, capacity);
+			profits = Arrays.copyOf(profits, capacity);
+		}
+		//the gateway reports the realized P/L of all trades so far, keep the P/L of this trade
+		double tradeProfit = PL - cumulativeProfit;
+		cumulativeProfit = PL;
+
+		entryTimes[tradeCount] = entryTime;
+		directions[tradeCount] = BinaryTradeLog.toDirection(tradeDirection);
+		positionSizes[tradeCount] = positionSize;
+		entryPrices[tradeCount] = entryPrice;
+		exitPrices[tradeCount] = exitPrice;
+		profits[tradeCount] = tradeProfit;
+		tradeCount++;
+
+		if (cumulativeProfit > peakProfit) peakProfit = cumulativeProfit;
+		if (peakProfit - cumulativeProfit > maxDrawDown) maxDrawDown = peakProfit - cumulativeProfit;
+	}
+
+	void setBarsProcessed(int barsProcessed) {
+		this.barsProcessed = barsProcessed;
+	}
+
+	void setSignalCount(int signalCount) {
+		this.signalCount = signalCount;
+	}
+
+	void setOrderCount(int orderCount) {
+		this.orderCount = orderCount;
+	}
+
+	/**
+	 * Records a stop loss exit: the level that was crossed and the price the position was closed at
+	 */
+	void onStop(boolean isLong, double level, double fillPrice) {
+		double slippage = isLong ? level - fillPrice : fillPrice - level;
+		stopCount++;
+		totalStopSlippage += slippage;
+		if (slippage > maxStopSlippage) maxStopSlippage = slippage;
+	}
+
+	public ReversalParameters getParameters() {
+		return parameters;
+	}
+
+	public int getBarsProcessed() {
+		return barsProcessed;
+	}
+
+	public int getSignalCount() {
+		return signalCount;
+	}
+
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	public int getTradeCount() {
+		return tradeCount;
+	}
+
+	public long getEntryTime(int trade) {
+		return entryTimes[trade];
+	}
+
+	public String getTradeDirection(int trade) {
+		return BinaryTradeLog.toTradeDirection(directions[trade]);
+	}
+
+	public int getPositionSize(int trade) {
+		return positionSizes[trade];
+	}
+
+	public double getEntryPrice(int trade) {
+		return entryPrices[trade];
+	}
+
+	public double getExitPrice(int trade) {
+		return exitPrices[trade];
+	}
+
+	/**
+	 * P/L of a single trade
+	 */
+	public double getProfit(int trade) {
+		return profits[trade];
+	}
+
+	public double getTotalProfit() {
+		return cumulativeProfit;
+	}
+
+	/**
+	 * Largest peak to trough decline of the closed trade equity curve
+	 */
+	public double getMaxDrawDown() {
+		return maxDrawDown;
+	}
+
+	public int getStopCount() {
+		return stopCount;
+	}
+
+	/**
+	 * Average difference (in price) between the stop level and the fill of the stop loss exits, positive if the
+	 * fill was worse than the level
+	 */
+	public double getAverageStopSlippage() {
+		return stopCount == 0 ? 0 : totalStopSlippage / stopCount;
+	}
+
+	public double getMaxStopSlippage() {
+		return maxStopSlippage;
+	}
+
+	public int getWinningTrades() {
+		int winners = 0;
+		for (int i = 0; i < tradeCount; ++i) {
+			if (profits[i] > 0) winners++;
+		}
+		return winners;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(parameters).append(": bars=").append(barsProcessed).append(" signals=").append(signalCount).append(" orders=").append(orderCount);
+		sb.append(" trades=").append(tradeCount).append(" winners=").append(getWinningTrades()).append(" P/L=");
+		DecimalFormatter.append(sb, cumulativeProfit, 2).append(" maxDrawDown=");
+		DecimalFormatter.append(sb, maxDrawDown, 2);
+		if (stopCount > 0) {
+			sb.append(" stops=").append(stopCount).append(" stopSlippage=");
+			DecimalFormatter.append(sb, getAverageStopSlippage(), 5).append(" maxStopSlippage=");
+			DecimalFormatter.append(sb, maxStopSlippage, 5);
+		}
+		return sb.toString();
+	}
+
+	private final ReversalParameters parameters;
+	private int barsProcessed;
+	private int signalCount;
+	private int orderCount;
+
+	private int tradeCount = 0;
+	private long[] entryTimes = new long[64];
+	private byte[] directions = new byte[64];
+	private int[] positionSizes = new int[64];
+	private double[] entryPrices = new double[64];
+	private double[] exitPrices = new double[64];
+	private double[] profits = new double[64];
+	private double cumulativeProfit = 0;
+	private double peakProfit = 0;
+	private double maxDrawDown = 0;
+
+	private int stopCount = 0;
+	private double totalStopSlippage = 0;
+	private double maxStopSlippage = 0;
+}
@@ -0,0 +1,115 @@
+package com.biiuse.motivewave;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the settings that drive the session close reversal logic. Keys are the setting identifiers of the
+ * study and the strategy, so the same names can be used on the command line of the headless tools.
+ */
+public class ReversalParameters {
+
+	public ReversalParameters(int lookBackDays, int sessionCloseHours, int sessionCloseMinutes, int lookAheadMinutes, boolean omitConsecutive, int positionSize, double stopLossPoints) {
+		this.lookBackDays = lookBackDays;
+		this.sessionCloseHours = sessionCloseHours;
+		this.sessionCloseMinutes = sessionCloseMinutes;
+		this.lookAheadMinutes = lookAheadMinutes;
+		this.omitConsecutive = omitConsecutive;
+		this.positionSize = positionSize;
+		this.stopLossPoints = stopLossPoints;
+	}
+
+	/**
+	 * Default values as declared in the settings of the study and the strategy
+	 */
+	public static ReversalParameters getDefaults() {
+		return new ReversalParameters(10, 17, 0, 60, true, 10000, 50);
+	}
+
+	/**
+	 * Returns a copy with the given values (keyed by setting identifier) applied
+	 */
+	public ReversalParameters with(Map<String, String> values) {
+		ReversalParameters p = new ReversalParameters(lookBackDays, sessionCloseHours, sessionCloseMinutes, lookAheadMinutes, omitConsecutive, positionSize, stopLossPoints);
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			String key = value.getKey();
+			String text = value.getValue().trim();
+			if (key.equals(AspenTrendReversalStudySingleTimeFrame.LOOKBACK_DAYS)) p.lookBackDays = Integer.parseInt(text);
+			else if (key.equals(AspenTrendReversalStudySingleTimeFrame.SESSION_CLOSE_HOURS)) p.sessionCloseHours = Integer.parseInt(text);
+			else if (key.equals(AspenTrendReversalStudySingleTimeFrame.SESSION_CLOSE_MINUTES)) p.sessionCloseMinutes = Integer.parseInt(text);
+			else if (key.equals(AspenTrendReversalStudySingleTimeFrame.LOOKAHEAD_SESSION_CLOSE)) p.lookAheadMinutes = Integer.parseInt(text);
+			else if (key.equals(AspenTrendReversalStudySingleTimeFrame.OMIT_CONSECUTIVE_LL_HH)) p.omitConsecutive = Boolean.parseBoolean(text);
+			else if (key.equals(AspenTrendReversalStrategy.POSITION_SIZE)) p.positionSize = Integer.parseInt(text);
+			else if (key.equals(AspenTrendReversalStrategy.STOP_LOSS_POINTS)) p.stopLossPoints = Double.parseDouble(text);
+			else throw new IllegalArgumentException("Unknown setting: " + key);
+		}
+		return p;
+	}
+
+	public Map<String, String> toMap() {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		values.put(AspenTrendReversalStudySingleTimeFrame.LOOKBACK_DAYS, String.valueOf(lookBackDays));
+		values.put(AspenTrendReversalStudySingleTimeFrame.SESSION_CLOSE_HOURS, String.valueOf(sessionCloseHours));
+		values.put(AspenTrendReversalStudySingleTimeFrame.SESSION_CLOSE_MINUTES, String.valueOf(sessionCloseMinutes));
+		values.put(AspenTrendReversalStudySingleTimeFrame.LOOKAHEAD_SESSION_CLOSE, String.valueOf(lookAheadMinutes));
+		values.put(AspenTrendReversalStudySingleTimeFrame.OMIT_CONSECUTIVE_LL_HH, String.valueOf(omitConsecutive));
+		values.put(AspenTrendReversalStrategy.POSITION_SIZE, String.valueOf(positionSize));
+		values.put(AspenTrendReversalStrategy.STOP_LOSS_POINTS, String.valueOf(stopLossPoints));
+		return values;
+	}
+
+	public int getLookBackDays() {
+		return lookBackDays;
+	}
+
+	/**
+	 * Number of previous sessions compared against (the current session counts as one of the look back days)
+	 */
+	public int getLookBackSessions() {
+		return lookBackDays - 1;
+	}
+
+	public int getSessionCloseHours() {
+		return sessionCloseHours;
+	}
+
+	public int getSessionCloseMinutes() {
+		return sessionCloseMinutes;
+	}
+
+	/**
+	 * Session close as minutes since midnight EST
+	 */
+	public int getSessionCloseTotalMinutes() {
+		return sessionCloseHours * 60 + sessionCloseMinutes;
+	}
+
+	public int getLookAheadMinutes() {
+		return lookAheadMinutes;
+	}
+
+	public boolean isOmitConsecutive() {
+		return omitConsecutive;
+	}
+
+	public int getPositionSize() {
+		return positionSize;
+	}
+
+	public double getStopLossPoints() {
+		return stopLossPoints;
+	}
+
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+
+	private int lookBackDays;
+	private int sessionCloseHours;
+	private int sessionCloseMinutes;
+	private int lookAheadMinutes;
+	private boolean omitConsecutive;
+	private int positionSize;
+	private double stopLossPoints;
+}
@@ -0,0 +1,216 @@
+package com.biiuse.motivewave;
+
+import java.util.ArrayDeque;
+
+import com.biiuse.motivewave.AspenTrendReversalStudySingleTimeFrame.Signals;
+
+/**
+ * Platform independent position logic of the strategy: enters on the first session close signal, reverses the
+ * position on every opposite signal and closes it if the stop loss is hit. Closed trades are reported to a
+ * {@link TradeListener}.
+ * <p>
+ * A reversal either closes the position and opens the opposite one with two orders, or (net reversal) sends a
+ * single order for twice the position size. If the gateway fills orders asynchronously, decisions are based on the
+ * position the account will have once the working orders are filled, and a trade is reported when its closing
+ * fills have arrived (see {@link #onFill(OrderGateway, int, double)}), at their average price.
+ */
+public class ReversalTrader {
+
+	/**
+	 * What the trader did in response to a signal
+	 */
+	enum Action {
+		NONE, ENTER_LONG, ENTER_SHORT, REVERSE_TO_LONG, REVERSE_TO_SHORT;
+
+		/**
+		 * True if the action leaves a long position
+		 */
+		boolean isLong() {
+			return (this == ENTER_LONG) || (this == REVERSE_TO_LONG);
+		}
+	};
+
+	public interface TradeListener {
+		void onTradeClosed(long entryTime, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown);
+	}
+
+	public ReversalTrader(TradeListener listener) {
+		this.listener = listener;
+	}
+
+	public void configure(ReversalParameters parameters) {
+		this.positionSize = parameters.getPositionSize();
+		this.stopLossPoints = parameters.getStopLossPoints();
+	}
+
+	/**
+	 * Reverse with a single net order instead of closing and opening (false by default)
+	 */
+	public void setNetReversal(boolean netReversal) {
+		this.netReversal = netReversal;
+	}
+
+	public int getPositionSize() {
+		return positionSize;
+	}
+
+	public double getEntryPrice() {
+		return entryPrice;
+	}
+
+	public long getEntryTime() {
+		return entryTime;
+	}
+
+	/**
+	 * Handles a session close signal of the bar ending at barEndTime and closing at close
+	 */
+	public Action onSignal(OrderGateway orders, Object signal, long barEndTime, double close) {
+		int position = orders.getPosition() + orders.getWorkingQuantity();
+		if (position == 0) {
+			if (signal == Signals.LOW) {
+				orders.buy(positionSize);
+				enter(barEndTime, close);
+				return Action.ENTER_LONG;
+			}
+			if (signal == Signals.HIGH) {
+				orders.sell(positionSize);
+				enter(barEndTime, close);
+				return Action.ENTER_SHORT;
+			}
+		}
+		// if we are long look for position reversal
+		else if ((position > 0) && (signal == Signals.HIGH)) {
+			if (netReversal) orders.sell(position + positionSize);
+			else orders.closeAtMarket();
+			closeTrade(orders, position, close);
+			if (!netReversal) orders.sell(positionSize);
+			enter(barEndTime, close);
+			return Action.REVERSE_TO_SHORT;
+		}
+		// if we are short look for position reversal
+		else if ((position < 0) && (signal == Signals.LOW)) {
+			if (netReversal) orders.buy(-position + positionSize);
+			else orders.closeAtMarket();
+			closeTrade(orders, position, close);
+			if (!netReversal) orders.buy(positionSize);
+			enter(barEndTime, close);
+			return Action.REVERSE_TO_LONG;
+		}
+		return Action.NONE;
+	}
+
+	/**
+	 * Takes a fill of an asynchronous gateway (quantity positive for a buy) and reports the trades whose closing
+	 * orders it completes
+	 */
+	public void onFill(OrderGateway orders, int quantity, double price) {
+		while ((quantity != 0) && !pendingExits.isEmpty()) {
+			PendingExit exit = pendingExits.peek();
+			//a long position is closed by sells, a short one by buys; other fills open positions
+			if ((exit.position > 0) == (quantity > 0)) return;
+			int closed = Math.min(Math.abs(quantity), exit.remaining);
+			exit.remaining -= closed;
+			exit.exitValue += closed * price;
+			quantity += quantity > 0 ? -closed : closed;
+			if (exit.remaining > 0) return;
+			pendingExits.poll();
+			int size = Math.abs(exit.position);
+			listener.onTradeClosed(exit.entryTime, exit.position > 0 ? "LONG" : "SHORT", exit.positionSize, exit.entryPrice, exit.exitValue / size, orders.getRealizedPnL(),
+					exit.drawDown);
+		}
+	}
+
+	/**
+	 * Number of trades whose closing orders have not been filled yet
+	 */
+	public int getPendingExitCount() {
+		return pendingExits.size();
+	}
+
+	/**
+	 * Closes the position if the current quote is beyond the stop loss. Returns true if the position was closed.
+	 */
+	public boolean checkStopLoss(OrderGateway orders, double bidPrice, double askPrice, double close) {
+		int position = orders.getPosition() + orders.getWorkingQuantity();
+		//if short
+		if ((position < 0) && (askPrice > getStopLevel(position))) {
+			stopOut(orders, close);
+			return true;
+		}
+		//if long
+		if ((position > 0) && (bidPrice < getStopLevel(position))) {
+			stopOut(orders, close);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Price beyond which the stop loss of a position of the given sign is triggered: a long position is stopped if
+	 * the bid falls below it, a short position if the ask rises above it
+	 */
+	public double getStopLevel(int position) {
+		return position > 0 ? entryPrice - stopLossPoints : entryPrice + stopLossPoints;
+	}
+
+	/**
+	 * Closes the position at market and reports the trade - when its stop loss was hit, or to go flat at the end of
+	 * a replay
+	 */
+	public void stopOut(OrderGateway orders, double exitPrice) {
+		int position = orders.getPosition() + orders.getWorkingQuantity();
+		if (position == 0) return;
+		orders.closeAtMarket();
+		closeTrade(orders, position, exitPrice);
+	}
+
+	/**
+	 * Reports the trade of the given position, whose closing order has just been sent: right away if it has been
+	 * filled, otherwise once its fills have arrived
+	 */
+	private void closeTrade(OrderGateway orders, int position, double exitPrice) {
+		//nothing working: the order has been filled (and so have those of earlier pending exits)
+		if (orders.getWorkingQuantity() == 0) {
+			listener.onTradeClosed(entryTime, position > 0 ? "LONG" : "SHORT", positionSize, entryPrice, exitPrice, orders.getRealizedPnL(), looserPips);
+			return;
+		}
+		PendingExit exit = new PendingExit();
+		exit.entryTime = entryTime;
+		exit.position = position;
+		exit.positionSize = positionSize;
+		exit.entryPrice = entryPrice;
+		exit.drawDown = looserPips;
+		exit.remaining = Math.abs(position);
+		pendingExits.add(exit);
+	}
+
+	private void enter(long barEndTime, double close) {
+		entryPrice = close;
+		entryTime = barEndTime;
+		looserPips = 0.0;
+	}
+
+	/**
+	 * A trade whose closing order is still working
+	 */
+	private static class PendingExit {
+		long entryTime;
+		int position;
+		int positionSize;
+		double entryPrice;
+		double drawDown;
+		//quantity still to be closed, and the value of the closing fills so far
+		int remaining;
+		double exitValue;
+	}
+
+	private final TradeListener listener;
+	private final ArrayDeque<PendingExit> pendingExits = new ArrayDeque<PendingExit>();
+	private boolean netReversal = false;
+	private int positionSize;
+	private double stopLossPoints;
+	private double entryPrice;
+	private long entryTime;
+	private double looserPips;
+}
@@ -0,0 +1,250 @@
+package com.biiuse.motivewave;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers session related questions about bar time stamps (epoch millis) using only long arithmetic. The daylight
+ * saving transitions of the session time zone are precomputed once, so that the per bar path does not create any
+ * date objects.
+ */
+public class SessionCalendar {
+
+	final static long MILLIS_PER_MINUTE = 60 * 1000L;
+	final static long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+	//ISO day of week numbers
+	final static int MONDAY = 1;
+	final static int FRIDAY = 5;
+	final static int SATURDAY = 6;
+	final static int SUNDAY = 7;
+
+	private static final SessionCalendar NEW_YORK = new SessionCalendar(ZoneId.of("America/New_York"));
+
+	/**
+	 * Calendar of the America/New_York time zone, in which session close times are specified
+	 */
+	public static SessionCalendar getNewYorkCalendar() {
+		return NEW_YORK;
+	}
+
+	public SessionCalendar(ZoneId zone) {
+		this.zone = zone;
+		this.rules = zone.getRules();
+
+		//precompute all transitions from 1970 until 2100
+		Instant from = Instant.ofEpochMilli(0);
+		Instant until = Instant.ofEpochMilli(4102444800000L);
+		List<ZoneOffsetTransition> transitions = new ArrayList<ZoneOffsetTransition>();
+		ZoneOffsetTransition transition = rules.nextTransition(from);
+		while ((transition != null) && transition.getInstant().isBefore(until)) {
+			transitions.add(transition);
+			transition = rules.nextTransition(transition.getInstant());
+		}
+
+		initialOffset = rules.getOffset(from).getTotalSeconds() * 1000L;
+		tableStart = from.toEpochMilli();
+		tableEnd = until.toEpochMilli();
+		transitionTimes = new long[transitions.size()];
+		transitionOffsets = new long[transitions.size()];
+		for (int i = 0; i < transitions.size(); ++i) {
+			transitionTimes[i] = transitions.get(i).getInstant().toEpochMilli();
+			transitionOffsets[i] = transitions.get(i).getOffsetAfter().getTotalSeconds() * 1000L;
+		}
+	}
+
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	/**
+	 * Offset of the session time zone from UTC in millis at the given instant
+	 */
+	public long getOffsetMillis(long time) {
+		if ((time < tableStart) || (time >= tableEnd)) {
+			return rules.getOffset(Instant.ofEpochMilli(time)).getTotalSeconds() * 1000L;
+		}
+		int low = 0;
+		int high = transitionTimes.length - 1;
+		//find the last transition at or before time
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (transitionTimes[mid] <= time) low = mid + 1;
+			else high = mid - 1;
+		}
+		return high < 0 ? initialOffset : transitionOffsets[high];
+	}
+
+	/**
+	 * Wall clock time in the session time zone, expressed as millis since 1970-01-01T00:00 local time
+	 */
+	public long toLocalMillis(long time) {
+		return time + getOffsetMillis(time);
+	}
+
+	/**
+	 * Converts local wall clock millis back to an instant. For wall clock times that fall into a daylight saving
+	 * gap or overlap the earlier offset is used.
+	 */
+	public long toUtcMillis(long localMillis) {
+		long offset = getOffsetMillis(localMillis - getOffsetMillis(localMillis));
+		long time = localMillis - offset;
+		if (getOffsetMillis(time) != offset) {
+			time = localMillis - getOffsetMillis(time);
+		}
+		return time;
+	}
+
+	public long getEpochDay(long time) {
+		return Math.floorDiv(toLocalMillis(time), MILLIS_PER_DAY);
+	}
+
+	public int getMinuteOfDay(long time) {
+		return (int) (Math.floorMod(toLocalMillis(time), MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+	}
+
+	/**
+	 * ISO day of week (1 = Monday ... 7 = Sunday) in the session time zone
+	 */
+	public int getDayOfWeek(long time) {
+		return dayOfWeek(getEpochDay(time));
+	}
+
+	public boolean isWeekday(long time) {
+		return getDayOfWeek(time) <= FRIDAY;
+	}
+
+	/**
+	 * True if the bar ending at the given time closes a (weekday) session
+	 */
+	public boolean isSessionCloseBar(long barEndTime, int sessionCloseMinutes) {
+		long local = toLocalMillis(barEndTime);
+		if (dayOfWeek(Math.floorDiv(local, MILLIS_PER_DAY)) > FRIDAY) return false;
+		return Math.floorMod(local, MILLIS_PER_DAY) / MILLIS_PER_MINUTE == sessionCloseMinutes;
+	}
+
+	/**
+	 * Close time (epoch millis) of the first weekday session that closes at or after the given time
+	 */
+	public long getNextSessionClose(long time, int sessionCloseMinutes) {
+		long epochDay = getEpochDay(time) - 1;
+		while (true) {
+			if (dayOfWeek(epochDay) <= FRIDAY) {
+				long closeTime = toUtcMillis(epochDay * MILLIS_PER_DAY + sessionCloseMinutes * MILLIS_PER_MINUTE);
+				if (closeTime >= time) return closeTime;
+			}
+			epochDay++;
+		}
+	}
+
+	/**
+	 * True if the bar ending at the given time ends within the look ahead period before (or at) the session close.
+	 * Bars ending on a Sunday are never considered.
+	 */
+	public boolean isWithinLookAhead(long barEndTime, int sessionCloseMinutes, int lookAheadMinutes) {
+		long local = toLocalMillis(barEndTime);
+		if (dayOfWeek(Math.floorDiv(local, MILLIS_PER_DAY)) == SUNDAY) return false;
+		long minuteOfDay = Math.floorMod(local, MILLIS_PER_DAY) / MILLIS_PER_MINUTE;
+		return (minuteOfDay >= sessionCloseMinutes - lookAheadMinutes) && (minuteOfDay <= sessionCloseMinutes);
+	}
+
+	/**
+	 * Fills closeTimes with the close times (epoch millis) of the given number of weekday sessions preceding the day
+	 * of the given time, most recent first. Returns the number of close times written.
+	 */
+	public int getPreviousSessionCloses(long time, int sessionCloseMinutes, int numberOfSessions, long[] closeTimes) {
+		int count = Math.min(numberOfSessions, closeTimes.length);
+		long epochDay = getEpochDay(time);
+		for (int i = 0; i < count; ++i) {
+			do {
+				epochDay--;
+			} while (dayOfWeek(epochDay) > FRIDAY);
+			closeTimes[i] = toUtcMillis(epochDay * MILLIS_PER_DAY + sessionCloseMinutes * MILLIS_PER_MINUTE);
+		}
+		return count;
+	}
+
+	/**
+	 * Appends the wall clock time in the session time zone as MM/dd/yyyy HH:mm:ss
+	 */
+	public StringBuilder appendDateTime(StringBuilder sb, long time) {
+		long local = toLocalMillis(time);
+		long date = toCivilDate(Math.floorDiv(local, MILLIS_PER_DAY));
+		appendTwoDigits(sb, (int) (date / 100 % 100)).append('/');
+		appendTwoDigits(sb, (int) (date % 100)).append('/').append(date / 10000).append(' ');
+		return appendTime(sb, local);
+	}
+
+	/**
+	 * Appends the wall clock time in the session time zone as yyyy-MM-dd HH:mm:ss
+	 */
+	public StringBuilder appendIsoDateTime(StringBuilder sb, long time) {
+		long local = toLocalMillis(time);
+		long date = toCivilDate(Math.floorDiv(local, MILLIS_PER_DAY));
+		sb.append(date / 10000).append('-');
+		appendTwoDigits(sb, (int) (date / 100 % 100)).append('-');
+		appendTwoDigits(sb, (int) (date % 100)).append(' ');
+		return appendTime(sb, local);
+	}
+
+	public String formatDateTime(long time) {
+		return appendDateTime(new StringBuilder(19), time).toString();
+	}
+
+	private static StringBuilder appendTime(StringBuilder sb, long localMillis) {
+		int secondOfDay = (int) (Math.floorMod(localMillis, MILLIS_PER_DAY) / 1000);
+		appendTwoDigits(sb, secondOfDay / 3600).append(':');
+		appendTwoDigits(sb, (secondOfDay / 60) % 60).append(':');
+		return appendTwoDigits(sb, secondOfDay % 60);
+	}
+
+	/**
+	 * Days since 1970-01-01 of the given civil date
+	 */
+	public static long toEpochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Civil date of the given day since epoch, packed as yyyyMMdd
+	 */
+	private static long toCivilDate(long epochDay) {
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return year * 10000 + month * 100 + day;
+	}
+
+	private static int dayOfWeek(long epochDay) {
+		//1970-01-01 was a Thursday
+		return (int) Math.floorMod(epochDay + 3, 7L) + 1;
+	}
+
+	private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+		if (value < 10) sb.append('0');
+		return sb.append(value);
+	}
+
+	private final ZoneId zone;
+	private final ZoneRules rules;
+	private final long initialOffset;
+	private final long tableStart;
+	private final long tableEnd;
+	private final long[] transitionTimes;
+	private final long[] transitionOffsets;
+}
@@ -0,0 +1,82 @@
+package com.biiuse.motivewave;
+
+/**
+ * Derives the session closes from a stream of prices - the closes of bars of any size (including tick, range or
+ * irregular intervals) or single ticks. The close of a session is the last price at or before the session close
+ * time; it is known as soon as the first price at or after the close arrives, so sessions that close inside a bar
+ * (or between two bars) are recognized by the bar that follows the close. Only the last session close is kept, so
+ * the memory used does not grow with the stream.
+ */
+public class SessionCloseAggregator {
+
+	public SessionCloseAggregator(SessionCalendar calendar) {
+		this.calendar = calendar;
+	}
+
+	/**
+	 * Sets the session close time (minutes after midnight in the calendar's time zone) and resets the aggregator
+	 */
+	public void configure(int sessionCloseMinutes) {
+		this.sessionCloseMinutes = sessionCloseMinutes;
+		reset();
+	}
+
+	public void reset() {
+		lastTime = Long.MIN_VALUE;
+		nextCloseTime = Long.MIN_VALUE;
+		lastSessionCloseTime = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Continues after a price whose sessions have already been accounted for elsewhere (e.g. the last bar before a
+	 * resumed calculation), without reporting a session close for it
+	 */
+	public void resumeAfter(long time, double price) {
+		lastTime = time;
+		lastPrice = price;
+		nextCloseTime = calendar.getNextSessionClose(time + 1, sessionCloseMinutes);
+	}
+
+	/**
+	 * Adds the next price of the stream (the close of a bar at its end time, or a tick). Returns true if a session
+	 * closed at or before it, i.e. since the previous price; prices older than the previous one are ignored.
+	 */
+	public boolean onPrice(long time, double price) {
+		if (lastTime == Long.MIN_VALUE) nextCloseTime = calendar.getNextSessionClose(time, sessionCloseMinutes);
+		else if (time < lastTime) return false;
+		boolean closed = false;
+		if (time >= nextCloseTime) {
+			//a price at the close time itself is the close, otherwise the session closed after the previous price
+			lastSessionCloseTime = nextCloseTime;
+			lastSessionClose = (time == nextCloseTime) || (lastTime == Long.MIN_VALUE) ? price : lastPrice;
+			nextCloseTime = calendar.getNextSessionClose(time + 1, sessionCloseMinutes);
+			closed = true;
+		}
+		lastTime = time;
+		lastPrice = price;
+		return closed;
+	}
+
+	/**
+	 * Time of the last price added (Long.MIN_VALUE if none)
+	 */
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	public long getLastSessionCloseTime() {
+		return lastSessionCloseTime;
+	}
+
+	public double getLastSessionClose() {
+		return lastSessionClose;
+	}
+
+	private final SessionCalendar calendar;
+	private int sessionCloseMinutes;
+	private long lastTime = Long.MIN_VALUE;
+	private double lastPrice;
+	private long nextCloseTime = Long.MIN_VALUE;
+	private long lastSessionCloseTime = Long.MIN_VALUE;
+	private double lastSessionClose;
+}
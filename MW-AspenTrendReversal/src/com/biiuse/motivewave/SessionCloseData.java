@@ -0,0 +1,104 @@
+package com.biiuse.motivewave;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Session information of a fixed set of bars, computed once and shared (read only) by all replays over these bars:
+ * the minute of day and day of week (EST) of every bar end time, and a session close index per session close time.
+ * Replays that only differ in look back, look ahead or stop loss use the same session close index.
+ * <p>
+ * A session whose close has no bar of its own (a gap in the data, an early close before a holiday) closes with the
+ * last bar before the close time, recognized by the next bar, as the {@link SessionCloseAggregator} does when the
+ * generator scans the bars itself; a day without any bars does not add a session.
+ */
+public class SessionCloseData {
+
+	public SessionCloseData(BarData bars, boolean dailyBars) {
+		this(bars, dailyBars, SessionCalendar.getNewYorkCalendar());
+	}
+
+	public SessionCloseData(BarData bars, boolean dailyBars, SessionCalendar calendar) {
+		this.bars = bars;
+		this.dailyBars = dailyBars;
+		this.calendar = calendar;
+		int size = bars.size();
+		minuteOfDay = new short[size];
+		dayOfWeek = new byte[size];
+		for (int i = 0; i < size; ++i) {
+			long barEndTime = bars.getEndTime(i);
+			minuteOfDay[i] = (short) calendar.getMinuteOfDay(barEndTime);
+			dayOfWeek[i] = (byte) calendar.getDayOfWeek(barEndTime);
+		}
+	}
+
+	public BarData getBars() {
+		return bars;
+	}
+
+	public boolean isDailyBars() {
+		return dailyBars;
+	}
+
+	/**
+	 * Same as {@link SessionCalendar#isSessionCloseBar(long, int)} for the end time of the bar at the given index
+	 */
+	public boolean isSessionCloseBar(int index, int sessionCloseMinutes) {
+		return dailyBars || ((dayOfWeek[index] <= SessionCalendar.FRIDAY) && (minuteOfDay[index] == sessionCloseMinutes));
+	}
+
+	/**
+	 * Same as {@link SessionCalendar#isWithinLookAhead(long, int, int)} for the end time of the bar at the given index
+	 */
+	public boolean isEvaluationBar(int index, int sessionCloseMinutes, int lookAheadMinutes) {
+		if (dailyBars) return true;
+		int minute = minuteOfDay[index];
+		return (dayOfWeek[index] != SessionCalendar.SUNDAY) && (minute >= sessionCloseMinutes - lookAheadMinutes) && (minute <= sessionCloseMinutes);
+	}
+
+	/**
+	 * Session close index of all completed bars for the given session close (minutes since midnight EST), built on
+	 * first use. The returned index must not be modified; wrap it in a new {@link SessionCloseIndex} to use it.
+	 */
+	public synchronized SessionCloseIndex getSessionCloseIndex(int sessionCloseMinutes) {
+		SessionCloseIndex index = sessionCloseIndexes.get(sessionCloseMinutes);
+		if (index == null) {
+			index = new SessionCloseIndex();
+			BitSet lateCloses = new BitSet();
+			SessionCloseAggregator aggregator = new SessionCloseAggregator(calendar);
+			aggregator.configure(sessionCloseMinutes);
+			for (int i = 0; i < bars.size(); ++i) {
+				if (!bars.isComplete(i)) break;
+				if (dailyBars) {
+					index.add(i, bars.getClose(i));
+				}
+				else if (aggregator.onPrice(bars.getEndTime(i), bars.getClose(i))) {
+					index.add(i, aggregator.getLastSessionClose());
+					if (!isSessionCloseBar(i, sessionCloseMinutes)) lateCloses.set(i);
+				}
+				index.setLastScannedBar(i);
+			}
+			sessionCloseIndexes.put(sessionCloseMinutes, index);
+			lateSessionCloseBars.put(sessionCloseMinutes, lateCloses);
+		}
+		return index;
+	}
+
+	/**
+	 * Bars that closed a session without ending on its close time (see above), which are evaluated like the bars of
+	 * the look ahead. Available once the session close index has been built; must not be modified.
+	 */
+	public synchronized BitSet getLateSessionCloseBars(int sessionCloseMinutes) {
+		getSessionCloseIndex(sessionCloseMinutes);
+		return lateSessionCloseBars.get(sessionCloseMinutes);
+	}
+
+	private final BarData bars;
+	private final boolean dailyBars;
+	private final SessionCalendar calendar;
+	private final short[] minuteOfDay;
+	private final byte[] dayOfWeek;
+	private final Map<Integer, SessionCloseIndex> sessionCloseIndexes = new HashMap<Integer, SessionCloseIndex>();
+	private final Map<Integer, BitSet> lateSessionCloseBars = new HashMap<Integer, BitSet>();
+}
@@ -0,0 +1,203 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+/**
+ * Incrementally maintained index of session close bars. Each entry holds the bar index of the bar that closes a
+ * session and the closing price of that bar.
+ * <p>
+ * The lowest and highest close of any range of sessions are answered in constant time from a sparse table: level k
+ * holds the extremes of the 2^k sessions starting at each entry, and a range is covered by two (overlapping) blocks
+ * of one level. The table is extended with every added session (log of the size entries each), so look backs of any
+ * length, and several look backs at once, cost the same per bar.
+ */
+public class SessionCloseIndex {
+
+	//status of computeExtrema
+	final static int EXTREMA_READY = 0;
+	final static int INSUFFICIENT_DATA = 1;
+	final static int INVALID_LOOK_BACK = 2;
+
+	public SessionCloseIndex() {
+		this(256);
+	}
+
+	public SessionCloseIndex(int initialCapacity) {
+		barIndexes = new int[Math.max(initialCapacity, 16)];
+		closes = new double[barIndexes.length];
+	}
+
+	/**
+	 * Creates an index that starts out with the entries of the given (completely built) index. The entries are
+	 * shared until this index is modified, so several replays can read the same session closes.
+	 */
+	public SessionCloseIndex(SessionCloseIndex shared) {
+		barIndexes = shared.barIndexes;
+		closes = shared.closes;
+		lows = shared.lows;
+		highs = shared.highs;
+		size = shared.size;
+		lastScannedBar = shared.lastScannedBar;
+		this.shared = true;
+	}
+
+	public void clear() {
+		if (shared) {
+			barIndexes = new int[barIndexes.length];
+			closes = new double[closes.length];
+			lows = new double[1][];
+			highs = new double[1][];
+			shared = false;
+		}
+		size = 0;
+		lastScannedBar = -1;
+		extremaEnd = -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getBarIndex(int session) {
+		return barIndexes[session];
+	}
+
+	public double getClose(int session) {
+		return closes[session];
+	}
+
+	/**
+	 * Index of the last bar that has been inspected for a session close (-1 if none)
+	 */
+	public int getLastScannedBar() {
+		return lastScannedBar;
+	}
+
+	public void setLastScannedBar(int barIndex) {
+		this.lastScannedBar = barIndex;
+	}
+
+	public void add(int barIndex, double close) {
+		if (shared || (size == barIndexes.length)) {
+			int capacity = size == barIndexes.length ? size * 2 : barIndexes.length;
+			barIndexes = Arrays.copyOf(barIndexes, capacity);
+			closes = Arrays.copyOf(closes, capacity);
+			lows = Arrays.copyOf(lows, lows.length);
+			highs = Arrays.copyOf(highs, highs.length);
+			for (int k = 1; k < lows.length; ++k) {
+				lows[k] = Arrays.copyOf(lows[k], capacity);
+				highs[k] = Arrays.copyOf(highs[k], capacity);
+			}
+			shared = false;
+		}
+		barIndexes[size] = barIndex;
+		closes[size] = close;
+		size++;
+		//the blocks that end with the new session
+		for (int k = 1; (1 << k) <= size; ++k) {
+			if (k == lows.length) {
+				lows = Arrays.copyOf(lows, k + 1);
+				highs = Arrays.copyOf(highs, k + 1);
+				lows[k] = new double[closes.length];
+				highs[k] = new double[closes.length];
+			}
+			double[] previousLows = k == 1 ? closes : lows[k - 1];
+			double[] previousHighs = k == 1 ? closes : highs[k - 1];
+			int start = size - (1 << k);
+			int middle = start + (1 << (k - 1));
+			lows[k][start] = Math.min(previousLows[start], previousLows[middle]);
+			highs[k][start] = Math.max(previousHighs[start], previousHighs[middle]);
+		}
+	}
+
+	/**
+	 * Number of sessions that closed strictly before the given bar
+	 */
+	public int sessionsBefore(int barIndex) {
+		//while the index is being built the bar is usually at or after the last session close
+		if ((size == 0) || (barIndexes[size - 1] < barIndex)) return size;
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (barIndexes[mid] < barIndex) low = mid + 1;
+			else high = mid - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * First bar that has the given number of sessions closed before it (Integer.MAX_VALUE while the index has fewer
+	 * sessions). Bars before it cannot be evaluated.
+	 */
+	public int getFirstEvaluableBar(int lookBackSessions) {
+		if ((lookBackSessions <= 0) || (size < lookBackSessions)) return Integer.MAX_VALUE;
+		return barIndexes[lookBackSessions - 1] + 1;
+	}
+
+	/**
+	 * Establishes the lowest and highest close of the given number of sessions that closed before the bar in a
+	 * single pass. All bars of a session ask about the same set of previous sessions, so the result is cached
+	 * until the next session closes (or the look back changes). Returns EXTREMA_READY, or INSUFFICIENT_DATA if fewer
+	 * sessions closed before the bar (INVALID_LOOK_BACK if the look back is not positive); called for every bar of
+	 * the warm up, so nothing is thrown.
+	 */
+	public int computeExtrema(int barIndex, int lookBackSessions) {
+		if (lookBackSessions <= 0) return INVALID_LOOK_BACK;
+		if (barIndex < getFirstEvaluableBar(lookBackSessions)) return INSUFFICIENT_DATA;
+		int end = sessionsBefore(barIndex);
+		if ((end == extremaEnd) && (lookBackSessions == extremaLookBack)) return EXTREMA_READY;
+		
+		lowestClose = getLowestClose(end - lookBackSessions, end);
+		highestClose = getHighestClose(end - lookBackSessions, end);
+		extremaEnd = end;
+		extremaLookBack = lookBackSessions;
+		return EXTREMA_READY;
+	}
+	
+	/**
+	 * Lowest close as established by the last call to {@link #computeExtrema(int, int)}
+	 */
+	public double getLowestClose() {
+		return lowestClose;
+	}
+	
+	/**
+	 * Highest close as established by the last call to {@link #computeExtrema(int, int)}
+	 */
+	public double getHighestClose() {
+		return highestClose;
+	}
+
+	/**
+	 * Lowest close of the sessions [from, to), which must not be empty
+	 */
+	public double getLowestClose(int from, int to) {
+		int k = 31 - Integer.numberOfLeadingZeros(to - from);
+		if (k == 0) return closes[from];
+		return Math.min(lows[k][from], lows[k][to - (1 << k)]);
+	}
+
+	/**
+	 * Highest close of the sessions [from, to), which must not be empty
+	 */
+	public double getHighestClose(int from, int to) {
+		int k = 31 - Integer.numberOfLeadingZeros(to - from);
+		if (k == 0) return closes[from];
+		return Math.max(highs[k][from], highs[k][to - (1 << k)]);
+	}
+
+	private int[] barIndexes;
+	private double[] closes;
+	//sparse table levels 1.. of the lowest and highest closes (level 0 are the closes)
+	private double[][] lows = new double[1][];
+	private double[][] highs = new double[1][];
+	private int size = 0;
+	private int lastScannedBar = -1;
+	private boolean shared = false;
+	
+	private int extremaEnd = -1;
+	private int extremaLookBack = -1;
+	private double lowestClose;
+	private double highestClose;
+}
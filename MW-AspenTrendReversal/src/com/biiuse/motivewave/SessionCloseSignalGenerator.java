@@ -0,0 +1,375 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.biiuse.motivewave.AspenTrendReversalStudySingleTimeFrame.Signals;
+
+/**
+ * Platform independent core of the session close high / low study: maintains the session close index and decides
+ * for every completed bar whether it closes above the highest (or below the lowest) close of the look back sessions.
+ * The study drives it from calculate(), the headless tools drive it directly.
+ * <p>
+ * Additional look backs (an ensemble) are evaluated in the same pass over the same session closes, each with its own
+ * omit consecutive state; the session close index answers every look back in constant time.
+ */
+public class SessionCloseSignalGenerator {
+
+	public SessionCloseSignalGenerator() {
+		this(SessionCalendar.getNewYorkCalendar());
+	}
+
+	public SessionCloseSignalGenerator(SessionCalendar calendar) {
+		this.calendar = calendar;
+		this.aggregator = new SessionCloseAggregator(calendar);
+	}
+
+	/**
+	 * Uses the precomputed session data instead of the session calendar and its session close index instead of
+	 * scanning the bars. The bars passed to calculate must be the bars the data was computed for.
+	 */
+	public void setSessionCloseData(SessionCloseData sessionCloseData) {
+		this.sessionCloseData = sessionCloseData;
+		reset();
+	}
+
+	/**
+	 * Bars that precede the bars passed to calculate, e.g. from a {@link BarStore}. If the bars do not reach back
+	 * far enough, the session closes of the look back are taken from the history (with negative bar indexes).
+	 */
+	public void setHistory(BarData history) {
+		this.history = history;
+		reset();
+	}
+
+	/**
+	 * Daily series of the instrument to take the session closes from (null to detect them from the bars with the
+	 * session calendar). A session closes with the last bar that belongs to a daily bar, and the daily bars before the
+	 * first bar provide the look back. Bars beyond the daily series loaded so far are not ready (see
+	 * {@link #isReady(BarData, int)}). Ignored on daily bars.
+	 */
+	public void setDailyBars(BarData dailyBars) {
+		if (dailyBars == this.dailyBarData) return;
+		this.dailyBarData = dailyBars;
+		reset();
+	}
+
+	/**
+	 * True if the bar can be calculated: always, unless the session closes are taken from a daily series that has not
+	 * been loaded up to the bar yet
+	 */
+	public boolean isReady(BarData bars, int index) {
+		if ((dailyBarData == null) || dailyBars) return true;
+		return alignment.update(bars, dailyBarData, index) >= index;
+	}
+
+	/**
+	 * Applies the parameters. The generator is reset if anything that affects the signals changed.
+	 */
+	public void configure(ReversalParameters parameters, boolean dailyBars) {
+		int lookBackSessions = parameters.getLookBackSessions();
+		int sessionCloseMinutes = parameters.getSessionCloseTotalMinutes();
+		int lookAheadMinutes = parameters.getLookAheadMinutes();
+		boolean omitConsecutive = parameters.isOmitConsecutive();
+		if ((lookBackSessions != this.lookBackSessions) || (sessionCloseMinutes != this.sessionCloseMinutes) || (lookAheadMinutes != this.lookAheadMinutes)
+				|| (omitConsecutive != this.omitConsecutive) || (dailyBars != this.dailyBars)) {
+			this.lookBackSessions = lookBackSessions;
+			this.sessionCloseMinutes = sessionCloseMinutes;
+			this.lookAheadMinutes = lookAheadMinutes;
+			this.omitConsecutive = omitConsecutive;
+			this.dailyBars = dailyBars;
+			aggregator.configure(sessionCloseMinutes);
+			reset();
+		}
+	}
+
+	/**
+	 * Additional look backs in sessions (not positive for unused slots) whose signals are computed along with those of
+	 * the look back, see {@link #getEnsembleSignals()}. The generator is reset if they changed, so the session closes
+	 * before the chart are added again for the longest look back.
+	 */
+	public void setEnsembleLookBacks(int[] lookBackSessions) {
+		if (Arrays.equals(lookBackSessions, ensembleLookBacks)) return;
+		ensembleLookBacks = lookBackSessions.clone();
+		ensembleSignals = new Signals[lookBackSessions.length];
+		ensembleLastSignals = new Signals[lookBackSessions.length];
+		reset();
+	}
+
+	public void reset() {
+		if ((sessionCloseData != null) && (sessionCloseMinutes >= 0)) {
+			sessionCloseIndex = new SessionCloseIndex(sessionCloseData.getSessionCloseIndex(sessionCloseMinutes));
+			lateSessionCloses = sessionCloseData.getLateSessionCloseBars(sessionCloseMinutes);
+		}
+		else sessionCloseIndex.clear();
+		firstEvaluableBar = Integer.MAX_VALUE;
+		alignment.reset();
+		aggregator.reset();
+		lastSignal = Signals.NONE;
+		Arrays.fill(ensembleSignals, Signals.NONE);
+		Arrays.fill(ensembleLastSignals, Signals.NONE);
+		lastCalculatedBar = -1;
+	}
+
+	/**
+	 * Continues with the bar after the given one, whose signals were taken from elsewhere (e.g. a
+	 * {@link SignalCache}). The session close index catches up with the skipped bars on the next calculate.
+	 *
+	 * @param lastSignal state of the omit consecutive rule after the given bar
+	 */
+	public void resume(int lastCalculatedBar, Signals lastSignal) {
+		this.lastCalculatedBar = lastCalculatedBar;
+		this.lastSignal = lastSignal;
+	}
+
+	/**
+	 * Restores the omit consecutive state of an additional look back on resume
+	 */
+	public void resumeEnsemble(int slot, Signals lastSignal) {
+		ensembleLastSignals[slot] = lastSignal;
+	}
+
+	/**
+	 * Continues as {@link #resume(int, Signals)}, taking the session closes from the given index (e.g. one saved
+	 * with the signals) if it has scanned further than the own index, up to at most the given bar
+	 */
+	public void resume(int lastCalculatedBar, Signals lastSignal, SessionCloseIndex sessionCloses) {
+		resume(lastCalculatedBar, lastSignal);
+		if ((sessionCloses == null) || (sessionCloses.getLastScannedBar() > lastCalculatedBar)) return;
+		if (sessionCloses.getLastScannedBar() > sessionCloseIndex.getLastScannedBar()) {
+			sessionCloseIndex = new SessionCloseIndex(sessionCloses);
+			aggregator.reset();
+			firstEvaluableBar = Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Last bar passed to calculate since the generator was reset or resumed (-1 if none)
+	 */
+	public int getLastCalculatedBar() {
+		return lastCalculatedBar;
+	}
+
+	public SessionCloseIndex getSessionCloseIndex() {
+		return sessionCloseIndex;
+	}
+
+	public Signals getLastSignal() {
+		return lastSignal;
+	}
+
+	/**
+	 * Signals of the additional look backs for the bar of the last calculate (must not be modified)
+	 */
+	public Signals[] getEnsembleSignals() {
+		return ensembleSignals;
+	}
+
+	/**
+	 * States of the omit consecutive rule of the additional look backs (must not be modified)
+	 */
+	public Signals[] getEnsembleLastSignals() {
+		return ensembleLastSignals;
+	}
+
+	/**
+	 * First bar with enough session closes before it to be evaluated (Integer.MAX_VALUE until the look back sessions
+	 * have closed). Bars before it are skipped without looking at the session closes.
+	 */
+	public int getFirstEvaluableBar() {
+		return firstEvaluableBar;
+	}
+
+	/**
+	 * Number of evaluations that did not have enough session closes to look back on (not reset)
+	 */
+	public long getInsufficientDataCount() {
+		return insufficientData;
+	}
+
+	/**
+	 * True if the bar ending at the given time closes a session
+	 */
+	public boolean isSessionCloseBar(long barEndTime) {
+		return dailyBars || calendar.isSessionCloseBar(barEndTime, sessionCloseMinutes);
+	}
+
+	/**
+	 * Time of the session close at the end of the given bar or, for bars that do not end on the session close, within
+	 * the bar or since the previous bar. Long.MIN_VALUE if the bar does not close a session.
+	 */
+	public long getSessionCloseTime(BarData bars, int index) {
+		long barEndTime = bars.getEndTime(index);
+		if (dailyBars) return barEndTime;
+		long closeTime = calendar.getNextSessionClose(index > 0 ? bars.getEndTime(index - 1) + 1 : barEndTime, sessionCloseMinutes);
+		return closeTime <= barEndTime ? closeTime : Long.MIN_VALUE;
+	}
+
+	/**
+	 * True if a bar ending at the given time is compared against the previous session closes
+	 */
+	public boolean isEvaluationBar(long barEndTime) {
+		return dailyBars || calendar.isWithinLookAhead(barEndTime, sessionCloseMinutes, lookAheadMinutes);
+	}
+
+	/**
+	 * True if the bar at the given index is compared against the previous session closes: if it ends within the look
+	 * ahead or if the session closes during the bar (bars that are longer than the look ahead, or do not end on it)
+	 */
+	private boolean isEvaluationBar(BarData bars, int index) {
+		if (isEvaluationBar(bars.getEndTime(index))) return true;
+		int sessions = sessionCloseIndex.size();
+		return (sessions > 0) && (sessionCloseIndex.getBarIndex(sessions - 1) == index);
+	}
+
+	/**
+	 * Evaluates the (completed) bar at the given index and returns the signal it triggers, if any
+	 */
+	public Signals calculate(BarData bars, int index) {
+		lastCalculatedBar = index;
+		updateSessionCloseIndex(bars, index);
+		if (ensembleSignals.length > 0) Arrays.fill(ensembleSignals, Signals.NONE);
+		boolean evaluationBar = sessionCloseData != null
+				? sessionCloseData.isEvaluationBar(index, sessionCloseMinutes, lookAheadMinutes) || lateSessionCloses.get(index)
+				: isEvaluationBar(bars, index);
+		if (!evaluationBar) return Signals.NONE;
+		double close = bars.getClose(index);
+		if (ensembleSignals.length > 0) calculateEnsemble(index, close);
+
+		//the watermark only moves once, when the last session of the look back has closed
+		if (firstEvaluableBar == Integer.MAX_VALUE) firstEvaluableBar = sessionCloseIndex.getFirstEvaluableBar(lookBackSessions);
+		if ((index < firstEvaluableBar) || (sessionCloseIndex.computeExtrema(index, lookBackSessions) != SessionCloseIndex.EXTREMA_READY)) {
+			insufficientData++;
+			return Signals.NONE;
+		}
+
+		Signals signal = getSignal(close, sessionCloseIndex.getLowestClose(), sessionCloseIndex.getHighestClose(), lastSignal);
+		if (signal != Signals.NONE) lastSignal = signal;
+		return signal;
+	}
+
+	/**
+	 * Evaluates the bar against the additional look backs: two table lookups each
+	 */
+	private void calculateEnsemble(int index, double close) {
+		int end = sessionCloseIndex.sessionsBefore(index);
+		for (int slot = 0; slot < ensembleLookBacks.length; ++slot) {
+			int lookBack = ensembleLookBacks[slot];
+			if ((lookBack <= 0) || (end < lookBack)) continue;
+			Signals signal = getSignal(close, sessionCloseIndex.getLowestClose(end - lookBack, end), sessionCloseIndex.getHighestClose(end - lookBack, end),
+					ensembleLastSignals[slot]);
+			if (signal == Signals.NONE) continue;
+			ensembleSignals[slot] = signal;
+			ensembleLastSignals[slot] = signal;
+		}
+	}
+
+	/**
+	 * Signal of a close below the lowest or above the highest close of the look back, unless it repeats the last one
+	 * and consecutive signals are omitted
+	 */
+	private Signals getSignal(double close, double lowestClose, double highestClose, Signals lastSignal) {
+		if ((close < lowestClose) && ((!omitConsecutive) || (lastSignal != Signals.LOW))) return Signals.LOW;
+		if ((close > highestClose) && ((!omitConsecutive) || (lastSignal != Signals.HIGH))) return Signals.HIGH;
+		return Signals.NONE;
+	}
+
+	/**
+	 * Extends the session close index with all completed bars up to (and including) the given bar. On daily charts
+	 * every bar closes a session, otherwise a weekday session closes with the first bar that ends at or after the
+	 * session close time (EST), with the last price at or before the close (see {@link SessionCloseAggregator}).
+	 */
+	private void updateSessionCloseIndex(BarData bars, int index) {
+		if ((dailyBarData != null) && !dailyBars) {
+			updateSessionCloseIndexFromDailyBars(bars, index);
+			return;
+		}
+		if ((history != null) && (sessionCloseIndex.getLastScannedBar() < 0) && (sessionCloseIndex.size() == 0) && (bars.size() > 0)) {
+			addHistory(bars.getStartTime(0));
+		}
+		for (int i = sessionCloseIndex.getLastScannedBar() + 1; i <= index; ++i) {
+			if (!bars.isComplete(i)) break;
+			if (dailyBars) {
+				sessionCloseIndex.add(i, bars.getClose(i));
+			}
+			else {
+				//after a resume the aggregator starts with the last scanned bar
+				if ((aggregator.getLastTime() == Long.MIN_VALUE) && (i > 0)) aggregator.resumeAfter(bars.getEndTime(i - 1), bars.getClose(i - 1));
+				if (aggregator.onPrice(bars.getEndTime(i), bars.getClose(i))) sessionCloseIndex.add(i, aggregator.getLastSessionClose());
+			}
+			sessionCloseIndex.setLastScannedBar(i);
+		}
+	}
+
+	/**
+	 * Extends the session close index with the daily bars that closed up to (and including) the given bar. Stops at
+	 * the first bar that has not been mapped to the daily series yet.
+	 */
+	private void updateSessionCloseIndexFromDailyBars(BarData bars, int index) {
+		int mapped = Math.min(alignment.update(bars, dailyBarData, index), index);
+		for (int i = sessionCloseIndex.getLastScannedBar() + 1; i <= mapped; ++i) {
+			if (!bars.isComplete(i)) break;
+			int daily = alignment.getDailyIndex(i);
+			if (i == 0) {
+				//the longest look back of the first bar, oldest first
+				for (int k = Math.max(daily - getLongestLookBack(), 0); k < daily; ++k) sessionCloseIndex.add(k - daily, dailyBarData.getClose(k));
+			}
+			else {
+				//the daily bars that ended between the previous bar and this one closed with the previous bar
+				for (int k = Math.max(alignment.getDailyIndex(i - 1), 0); k < daily; ++k) sessionCloseIndex.add(i - 1, dailyBarData.getClose(k));
+			}
+			sessionCloseIndex.setLastScannedBar(i);
+		}
+	}
+
+	/**
+	 * Adds the session closes of the longest look back that precede the first bar from the history
+	 */
+	private void addHistory(long firstBarStartTime) {
+		double[] closes = new double[getLongestLookBack()];
+		int count = 0;
+		for (int i = history.size() - 1; (i >= 0) && (count < closes.length); --i) {
+			long barEndTime = history.getEndTime(i);
+			if ((barEndTime > firstBarStartTime) || !history.isComplete(i)) continue;
+			if (dailyBars) {
+				closes[count++] = history.getClose(i);
+				continue;
+			}
+			//the last bar at or before a session close
+			long closeTime = calendar.getNextSessionClose(barEndTime, sessionCloseMinutes);
+			if ((closeTime == barEndTime) || ((i + 1 < history.size()) && (closeTime < history.getEndTime(i + 1)))) closes[count++] = history.getClose(i);
+		}
+		//oldest first
+		for (int k = count - 1; k >= 0; --k) sessionCloseIndex.add(-1 - k, closes[k]);
+	}
+
+	/**
+	 * Longest of the look back and the additional look backs, in sessions
+	 */
+	private int getLongestLookBack() {
+		int longest = Math.max(lookBackSessions, 0);
+		for (int lookBack : ensembleLookBacks) longest = Math.max(longest, lookBack);
+		return longest;
+	}
+
+	private final SessionCalendar calendar;
+	private final SessionCloseAggregator aggregator;
+	private SessionCloseData sessionCloseData;
+	private BitSet lateSessionCloses;
+	private BarData history;
+	private BarData dailyBarData;
+	private final DailySeriesAlignment alignment = new DailySeriesAlignment();
+	private SessionCloseIndex sessionCloseIndex = new SessionCloseIndex();
+	private int lookBackSessions = -1;
+	private int sessionCloseMinutes = -1;
+	private int lookAheadMinutes = -1;
+	private boolean omitConsecutive;
+	private boolean dailyBars;
+	private Signals lastSignal = Signals.NONE;
+	private int[] ensembleLookBacks = new int[0];
+	private Signals[] ensembleSignals = new Signals[0];
+	private Signals[] ensembleLastSignals = new Signals[0];
+	private int lastCalculatedBar = -1;
+	private int firstEvaluableBar = Integer.MAX_VALUE;
+	private long insufficientData = 0;
+}
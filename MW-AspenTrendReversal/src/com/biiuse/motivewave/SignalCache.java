@@ -0,0 +1,334 @@
+package com.biiuse.motivewave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.biiuse.motivewave.AspenTrendReversalStudySingleTimeFrame.Signals;
+
+/**
+ * Signals computed for a series, per combination of signal affecting settings. Recalculating a series with settings
+ * it has already been calculated with (after a change of a visual setting, or when switching back to earlier
+ * settings) becomes a lookup. The least recently used histories are dropped beyond a fixed number.
+ * <p>
+ * If a directory is set, histories are also saved to and loaded from one file per key, together with the session
+ * close index as of the last computed bar, so a chart that is opened again only computes the bars after the saved
+ * checkpoint. A saved history is only used if a fingerprint of the bars up to its checkpoint still matches.
+ */
+public class SignalCache {
+
+	/**
+	 * Signals of one series and settings combination, computed bar by bar up to a checkpoint. Besides the signals of
+	 * the look back, those of the additional look backs of an ensemble (see
+	 * {@link SessionCloseSignalGenerator#setEnsembleLookBacks(int[])}) are kept, each entry tagged with its slot.
+	 */
+	public static class History {
+
+		/**
+		 * Last bar that has been computed (-1 if none)
+		 */
+		public int getComputedUpTo() {
+			return computedUpTo;
+		}
+
+		/**
+		 * State of the omit consecutive rule after the last computed bar
+		 */
+		public Signals getLastSignal() {
+			return lastSignal;
+		}
+
+		/**
+		 * Signal of an already computed bar
+		 */
+		public Signals getSignal(int index) {
+			return getSignal(index, 0);
+		}
+
+		/**
+		 * Signal of an already computed bar for the given additional look back of the ensemble
+		 */
+		public Signals getEnsembleSignal(int index, int slot) {
+			return getSignal(index, slot + 1);
+		}
+
+		/**
+		 * State of the omit consecutive rule of the given additional look back after the last computed bar
+		 */
+		public Signals getEnsembleLastSignal(int slot) {
+			return slot < ensembleLastSignals.length ? ensembleLastSignals[slot] : Signals.NONE;
+		}
+
+		/**
+		 * Number of signals recorded, of the look back and of the ensemble
+		 */
+		public int getSignalCount() {
+			return count;
+		}
+
+		/**
+		 * Session closes up to the checkpoint of a history loaded from file (null if it was computed in memory)
+		 */
+		public SessionCloseIndex getSessionCloses() {
+			return sessionCloses;
+		}
+
+		/**
+		 * Records the signal of the next computed bar, together with the state of the omit consecutive rule after it
+		 */
+		public void record(int index, Signals signal, Signals lastSignal) {
+			if (index <= computedUpTo) return;
+			add(index, 0, signal);
+			computedUpTo = index;
+			this.lastSignal = lastSignal;
+		}
+
+		/**
+		 * Records the signals of the next computed bar for the look back and the additional look backs of the
+		 * ensemble, together with the states of their omit consecutive rules after it
+		 */
+		public void record(int index, Signals signal, Signals lastSignal, Signals[] ensembleSignals, Signals[] ensembleLastSignals) {
+			if (index <= computedUpTo) return;
+			for (int slot = 0; slot < ensembleSignals.length; ++slot) add(index, slot + 1, ensembleSignals[slot]);
+			if (this.ensembleLastSignals.length != ensembleLastSignals.length) this.ensembleLastSignals = new Signals[ensembleLastSignals.length];
+			System.arraycopy(ensembleLastSignals, 0, this.ensembleLastSignals, 0, ensembleLastSignals.length);
+			record(index, signal, lastSignal);
+		}
+
+		private void add(int index, int slot, Signals signal) {
+			if (signal == Signals.NONE) return;
+			if (count == bars.length) {
+				bars = Arrays.copyOf(bars, count * 2);
+				signals = Arrays.copyOf(signals, count * 2);
+			}
+			bars[count] = index;
+			signals[count] = (byte) ((slot << SLOT_SHIFT) | signal.ordinal());
+			count++;
+		}
+
+		private Signals getSignal(int index, int slot) {
+			int i = Arrays.binarySearch(bars, 0, count, index);
+			if (i < 0) return Signals.NONE;
+			//the entries of a bar are adjacent
+			while ((i > 0) && (bars[i - 1] == index)) i--;
+			for (; (i < count) && (bars[i] == index); ++i) {
+				if ((signals[i] >> SLOT_SHIFT) == slot) return SIGNALS[signals[i] & SIGNAL_MASK];
+			}
+			return Signals.NONE;
+		}
+
+		private int computedUpTo = -1;
+		private Signals lastSignal = Signals.NONE;
+		private Signals[] ensembleLastSignals = new Signals[0];
+		private int count = 0;
+		private int[] bars = new int[64];
+		//slot (0 for the look back, 1.. for the ensemble) and ordinal of the signal
+		private byte[] signals = new byte[64];
+		private SessionCloseIndex sessionCloses;
+		//checkpoint of the last save
+		private int savedUpTo = -1;
+	}
+
+	final static long MAGIC = 0x4153504E53494743L; //"ASPNSIGC"
+	final static int VERSION = 2;
+	final static String FILE_EXTENSION = ".sig";
+
+	//number of bars (evenly spaced up to the checkpoint) that make up the fingerprint
+	final static int FINGERPRINT_SAMPLES = 256;
+
+	//bits of a recorded signal
+	final static int SLOT_SHIFT = 2;
+	final static int SIGNAL_MASK = (1 << SLOT_SHIFT) - 1;
+
+	private final static Signals[] SIGNALS = Signals.values();
+
+	public SignalCache(final int maxHistories) {
+		histories = new LinkedHashMap<String, History>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, History> eldest) {
+				return size() > maxHistories;
+			}
+
+			private static final long serialVersionUID = 1L;
+		};
+	}
+
+	/**
+	 * History of the given key (series and signal affecting settings), created empty if there is none yet
+	 */
+	public synchronized History get(String key) {
+		History history = histories.get(key);
+		if (history == null) {
+			history = new History();
+			histories.put(key, history);
+		}
+		return history;
+	}
+
+	/**
+	 * History of the given key; if it is not in memory it is loaded from the directory, provided the bars up to the
+	 * saved checkpoint are the bars it was computed from. Created empty otherwise.
+	 */
+	public synchronized History get(String key, BarData bars) {
+		History history = histories.get(key);
+		if (history != null) return history;
+		if (directory != null) {
+			try {
+				history = read(getFile(key), key, bars);
+			}
+			catch (IOException e) {
+				//an unreadable file is replaced on the next save
+			}
+		}
+		if (history == null) history = new History();
+		histories.put(key, history);
+		return history;
+	}
+
+	/**
+	 * Saves the history of the given key, unless nothing has been computed since the last save.
+	 *
+	 * @param bars the bars the history was computed from
+	 * @param sessionCloses the session close index as of the checkpoint of the history, or null if it is not
+	 *        available (a loaded history keeps its saved session closes)
+	 */
+	public void save(String key, BarData bars, SessionCloseIndex sessionCloses) throws IOException {
+		History history;
+		synchronized (this) {
+			history = histories.get(key);
+		}
+		if ((directory == null) || (history == null) || (history.computedUpTo < 0) || (history.computedUpTo == history.savedUpTo)) return;
+		if (bars.size() <= history.computedUpTo) return;
+		if ((sessionCloses == null) || (sessionCloses.getLastScannedBar() != history.computedUpTo)) sessionCloses = history.sessionCloses;
+		File file = getFile(key);
+		if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create " + directory);
+		File temp = new File(directory, file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			write(out, key, history, fingerprint(bars, history.computedUpTo), sessionCloses);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		history.savedUpTo = history.computedUpTo;
+	}
+
+	/**
+	 * Directory of the cache files (null to keep the histories in memory only)
+	 */
+	public synchronized void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	public synchronized File getDirectory() {
+		return directory;
+	}
+
+	public synchronized void clear() {
+		histories.clear();
+	}
+
+	/**
+	 * Hash of the start times and closes of a sample of the bars up to (and including) the given bar
+	 */
+	public static long fingerprint(BarData bars, int upTo) {
+		long hash = 0xCBF29CE484222325L ^ upTo;
+		int step = Math.max(upTo / FINGERPRINT_SAMPLES, 1);
+		for (int i = upTo; i >= 0; i -= step) {
+			hash = (hash ^ bars.getStartTime(i)) * 0x100000001B3L;
+			hash = (hash ^ Double.doubleToLongBits(bars.getClose(i))) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * File of the given key: the instrument (the key up to the first separator) and a hash of the whole key
+	 */
+	private File getFile(String key) {
+		int separator = key.indexOf('|');
+		String prefix = (separator >= 0 ? key.substring(0, separator) : key).replaceAll("[^A-Za-z0-9.-]", "");
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < key.length(); ++i) hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+		return new File(directory, prefix + "_" + Long.toHexString(hash) + FILE_EXTENSION);
+	}
+
+	private static void write(DataOutputStream out, String key, History history, long fingerprint, SessionCloseIndex sessionCloses) throws IOException {
+		out.writeLong(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(key);
+		out.writeInt(history.computedUpTo);
+		out.writeLong(fingerprint);
+		out.writeByte(history.lastSignal.ordinal());
+		out.writeByte(history.ensembleLastSignals.length);
+		for (Signals lastSignal : history.ensembleLastSignals) out.writeByte(lastSignal.ordinal());
+		out.writeInt(history.count);
+		for (int i = 0; i < history.count; ++i) {
+			out.writeInt(history.bars[i]);
+			out.writeByte(history.signals[i]);
+		}
+		if (sessionCloses == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(sessionCloses.getLastScannedBar());
+		out.writeInt(sessionCloses.size());
+		for (int i = 0; i < sessionCloses.size(); ++i) {
+			out.writeInt(sessionCloses.getBarIndex(i));
+			out.writeDouble(sessionCloses.getClose(i));
+		}
+	}
+
+	/**
+	 * Reads the history saved for the key; null if there is none or if it does not belong to the bars
+	 */
+	private static History read(File file, String key, BarData bars) throws IOException {
+		if (!file.isFile()) return null;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if ((in.readLong() != MAGIC) || (in.readInt() != VERSION) || !key.equals(in.readUTF())) return null;
+			int computedUpTo = in.readInt();
+			long fingerprint = in.readLong();
+			if ((computedUpTo < 0) || (bars.size() <= computedUpTo) || (fingerprint != fingerprint(bars, computedUpTo))) return null;
+
+			History history = new History();
+			history.lastSignal = SIGNALS[in.readByte()];
+			history.ensembleLastSignals = new Signals[in.readByte()];
+			for (int i = 0; i < history.ensembleLastSignals.length; ++i) history.ensembleLastSignals[i] = SIGNALS[in.readByte()];
+			history.count = in.readInt();
+			history.bars = new int[Math.max(history.count, 64)];
+			history.signals = new byte[history.bars.length];
+			for (int i = 0; i < history.count; ++i) {
+				history.bars[i] = in.readInt();
+				history.signals[i] = in.readByte();
+			}
+			int lastScannedBar = in.readInt();
+			if (lastScannedBar >= 0) {
+				int size = in.readInt();
+				SessionCloseIndex sessionCloses = new SessionCloseIndex(size);
+				for (int i = 0; i < size; ++i) sessionCloses.add(in.readInt(), in.readDouble());
+				sessionCloses.setLastScannedBar(lastScannedBar);
+				history.sessionCloses = sessionCloses;
+			}
+			history.computedUpTo = computedUpTo;
+			history.savedUpTo = computedUpTo;
+			return history;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private final LinkedHashMap<String, History> histories;
+	private File directory;
+}
@@ -0,0 +1,243 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+/**
+ * Order gateway for headless replays and load tests. By default market orders are filled immediately and completely
+ * at the current quote (buys at the ask, sells at the bid); P/L is calculated in price units times quantity.
+ * <p>
+ * To simulate a broker, orders can be filled with a latency (at the first quote at least that long after the order),
+ * in parts (at most a given quantity per quote) and with slippage. Orders that are not filled yet are working: they
+ * are filled in the order they were sent, and every fill is reported to the {@link FillListener}. Orders the listener
+ * sends are queued behind and share the quantity left for the quote.
+ */
+public class SimulatedOrderGateway implements OrderGateway {
+
+	/**
+	 * Receives the fills of the orders
+	 */
+	public interface FillListener {
+		/**
+		 * @param quantity filled quantity, positive for a buy and negative for a sell
+		 */
+		void onFill(long time, int quantity, double price);
+	}
+
+	/**
+	 * Time (of the quotes) from sending an order until it can be filled, in milliseconds (0 by default)
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Quantity that can be filled per quote, over all working orders (0 for any quantity, the default)
+	 */
+	public void setMaxFillQuantity(int maxFillQuantity) {
+		this.maxFillQuantity = maxFillQuantity;
+	}
+
+	/**
+	 * Price difference by which every fill is worse than the quote, in price units (0 by default)
+	 */
+	public void setSlippage(double slippage) {
+		this.slippage = slippage;
+	}
+
+	public void setFillListener(FillListener fillListener) {
+		this.fillListener = fillListener;
+	}
+
+	/**
+	 * Sets the current quote and fills the working orders that are due
+	 */
+	public void setQuote(long time, double bidPrice, double askPrice) {
+		this.time = time;
+		this.bidPrice = bidPrice;
+		this.askPrice = askPrice;
+		if (firstOrder < orderEnd) fillOrders();
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getBidPrice() {
+		return bidPrice;
+	}
+
+	public double getAskPrice() {
+		return askPrice;
+	}
+
+	@Override
+	public void buy(int quantity) {
+		send(quantity);
+	}
+
+	@Override
+	public void sell(int quantity) {
+		send(-quantity);
+	}
+
+	/**
+	 * Closes the position the account will have once the working orders are filled
+	 */
+	@Override
+	public void closeAtMarket() {
+		send(-(position + workingQuantity));
+	}
+
+	@Override
+	public int getPosition() {
+		return position;
+	}
+
+	@Override
+	public int getWorkingQuantity() {
+		return workingQuantity;
+	}
+
+	public double getAvgEntryPrice() {
+		return avgEntryPrice;
+	}
+
+	/**
+	 * Realized P/L of all closed positions
+	 */
+	@Override
+	public double getRealizedPnL() {
+		return realizedPnL;
+	}
+
+	public double getUnrealizedPnL() {
+		if (position > 0) return (bidPrice - avgEntryPrice) * position;
+		if (position < 0) return (askPrice - avgEntryPrice) * position;
+		return 0;
+	}
+
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * Number of orders that have been filled completely
+	 */
+	public int getFilledOrderCount() {
+		return filledOrders;
+	}
+
+	/**
+	 * Mean time from sending an order until its last fill, in milliseconds
+	 */
+	public double getAverageFillLatency() {
+		return filledOrders == 0 ? 0 : (double) totalFillLatency / filledOrders;
+	}
+
+	public long getMaxFillLatency() {
+		return maxFillLatency;
+	}
+
+	private void send(int quantity) {
+		if (quantity == 0) return;
+		orderCount++;
+		if ((latencyMillis == 0) && (maxFillQuantity == 0) && (firstOrder == orderEnd) && !filling) {
+			double price = getFillPrice(quantity);
+			fill(quantity, price);
+			filledOrders++;
+			if (fillListener != null) fillListener.onFill(time, quantity, price);
+			return;
+		}
+		if (orderEnd == orderQuantities.length) {
+			orderQuantities = Arrays.copyOf(orderQuantities, orderEnd * 2);
+			orderTimes = Arrays.copyOf(orderTimes, orderEnd * 2);
+		}
+		orderQuantities[orderEnd] = quantity;
+		orderTimes[orderEnd] = time;
+		orderEnd++;
+		workingQuantity += quantity;
+		//an order sent by the fill listener is filled by the loop that reported the fill, out of what is left
+		if (!filling) fillOrders();
+	}
+
+	/**
+	 * Fills the working orders that are due, in the order they were sent, as far as the quantity per quote allows
+	 */
+	private void fillOrders() {
+		int available = maxFillQuantity > 0 ? maxFillQuantity : Integer.MAX_VALUE;
+		filling = true;
+		try {
+			while ((firstOrder < orderEnd) && (available > 0) && (time - orderTimes[firstOrder] >= latencyMillis)) {
+				int remaining = orderQuantities[firstOrder];
+				int quantity = Integer.signum(remaining) * Math.min(Math.abs(remaining), available);
+				available -= Math.abs(quantity);
+				orderQuantities[firstOrder] -= quantity;
+				workingQuantity -= quantity;
+				double price = getFillPrice(quantity);
+				fill(quantity, price);
+				if (orderQuantities[firstOrder] == 0) {
+					long latency = time - orderTimes[firstOrder];
+					filledOrders++;
+					totalFillLatency += latency;
+					if (latency > maxFillLatency) maxFillLatency = latency;
+					firstOrder++;
+				}
+				//the listener may send further orders, they are queued behind
+				if (fillListener != null) fillListener.onFill(time, quantity, price);
+			}
+		}
+		finally {
+			filling = false;
+		}
+		if (firstOrder == orderEnd) firstOrder = orderEnd = 0;
+		else if (firstOrder > orderQuantities.length / 2) {
+			//move the working orders to the front rather than growing the arrays
+			System.arraycopy(orderQuantities, firstOrder, orderQuantities, 0, orderEnd - firstOrder);
+			System.arraycopy(orderTimes, firstOrder, orderTimes, 0, orderEnd - firstOrder);
+			orderEnd -= firstOrder;
+			firstOrder = 0;
+		}
+	}
+
+	private double getFillPrice(int quantity) {
+		return quantity > 0 ? askPrice + slippage : bidPrice - slippage;
+	}
+
+	private void fill(int quantity, double price) {
+		if ((position == 0) || (Integer.signum(position) == Integer.signum(quantity))) {
+			//opening or adding
+			avgEntryPrice = (avgEntryPrice * Math.abs(position) + price * Math.abs(quantity)) / (Math.abs(position) + Math.abs(quantity));
+			position += quantity;
+			return;
+		}
+		//closing (and possibly flipping)
+		int closed = Math.min(Math.abs(position), Math.abs(quantity));
+		realizedPnL += (price - avgEntryPrice) * closed * Integer.signum(position);
+		position += quantity;
+		if (position == 0) avgEntryPrice = 0;
+		else if (Integer.signum(position) == Integer.signum(quantity)) avgEntryPrice = price;
+	}
+
+	private long time;
+	private double bidPrice;
+	private double askPrice;
+	private int position = 0;
+	private double avgEntryPrice = 0;
+	private double realizedPnL = 0;
+	private int orderCount = 0;
+	private long latencyMillis = 0;
+	private int maxFillQuantity = 0;
+	private double slippage = 0;
+	private FillListener fillListener;
+	//working orders (remaining quantity and time sent) from firstOrder to orderEnd
+	private int[] orderQuantities = new int[16];
+	private long[] orderTimes = new long[16];
+	private int firstOrder = 0;
+	private int orderEnd = 0;
+	private int workingQuantity = 0;
+	//true while fills are reported to the listener
+	private boolean filling = false;
+	private int filledOrders = 0;
+	private long totalFillLatency = 0;
+	private long maxFillLatency = 0;
+}
@@ -0,0 +1,173 @@
+package com.biiuse.motivewave;
+
+import java.util.Arrays;
+
+/**
+ * Watches the stop loss levels of open positions on every quote. The levels are kept sorted by price in two heaps:
+ * long positions are stopped when the bid falls below their level (the highest level is checked first), short
+ * positions when the ask rises above their level (the lowest level is checked first). A quote that does not cross
+ * any level costs two comparisons, however many positions are open.
+ * <p>
+ * Positions are identified by an id (e.g. the slot of the instrument). A triggered stop is removed before the
+ * listener is called.
+ */
+public class StopLossMonitor {
+
+	public interface Listener {
+		/**
+		 * The stop loss of the given position was crossed by the quote at the given time
+		 */
+		void onStop(int id, boolean isLong, double level, long time, double bidPrice, double askPrice);
+	}
+
+	public StopLossMonitor(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets (or moves) the stop loss of a position
+	 */
+	public synchronized void setStop(int id, boolean isLong, double level) {
+		removeStop(id);
+		Heap heap = isLong ? longs : shorts;
+		ensureId(id);
+		heap.add(id, level);
+	}
+
+	public synchronized void removeStop(int id) {
+		if ((id >= positions.length) || (positions[id] < 0)) return;
+		(isLongId[id] ? longs : shorts).remove(positions[id]);
+	}
+
+	public synchronized boolean hasStop(int id) {
+		return (id < positions.length) && (positions[id] >= 0);
+	}
+
+	public synchronized double getStopLevel(int id) {
+		if (!hasStop(id)) return Double.NaN;
+		return (isLongId[id] ? longs : shorts).levels[positions[id]];
+	}
+
+	public synchronized int size() {
+		return longs.size + shorts.size;
+	}
+
+	/**
+	 * Checks the quote against all stop levels and triggers the crossed ones. Returns the number of stops triggered.
+	 */
+	public int onQuote(long time, double bidPrice, double askPrice) {
+		int triggered = 0;
+		while (true) {
+			int id;
+			boolean isLong;
+			double level;
+			synchronized (this) {
+				if ((longs.size > 0) && (bidPrice < longs.levels[0])) {
+					isLong = true;
+					id = longs.ids[0];
+					level = longs.levels[0];
+					longs.remove(0);
+				}
+				else if ((shorts.size > 0) && (askPrice > shorts.levels[0])) {
+					isLong = false;
+					id = shorts.ids[0];
+					level = shorts.levels[0];
+					shorts.remove(0);
+				}
+				else return triggered;
+			}
+			//outside of the lock: the listener places the closing order
+			triggered++;
+			listener.onStop(id, isLong, level, time, bidPrice, askPrice);
+		}
+	}
+
+	private void ensureId(int id) {
+		if (id < positions.length) return;
+		int length = positions.length;
+		positions = Arrays.copyOf(positions, Math.max(id + 1, length * 2));
+		isLongId = Arrays.copyOf(isLongId, positions.length);
+		Arrays.fill(positions, length, positions.length, -1);
+	}
+
+	/**
+	 * Binary heap of stop levels with the level that is crossed first at the top (the highest for longs, the lowest
+	 * for shorts). Keeps the heap position of every id up to date, so stops can be removed by id.
+	 */
+	private class Heap {
+
+		Heap(boolean isLong) {
+			this.isLong = isLong;
+		}
+
+		void add(int id, double level) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				levels = Arrays.copyOf(levels, size * 2);
+			}
+			isLongId[id] = isLong;
+			set(size, id, level);
+			siftUp(size++);
+		}
+
+		void remove(int position) {
+			positions[ids[position]] = -1;
+			size--;
+			if (position == size) return;
+			set(position, ids[size], levels[size]);
+			siftDown(position);
+			siftUp(position);
+		}
+
+		/**
+		 * True if the stop at a is crossed before the stop at b
+		 */
+		private boolean before(double a, double b) {
+			return isLong ? a > b : a < b;
+		}
+
+		private void siftUp(int position) {
+			int id = ids[position];
+			double level = levels[position];
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (!before(level, levels[parent])) break;
+				set(position, ids[parent], levels[parent]);
+				position = parent;
+			}
+			set(position, id, level);
+		}
+
+		private void siftDown(int position) {
+			int id = ids[position];
+			double level = levels[position];
+			while (true) {
+				int child = 2 * position + 1;
+				if (child >= size) break;
+				if ((child + 1 < size) && before(levels[child + 1], levels[child])) child++;
+				if (!before(levels[child], level)) break;
+				set(position, ids[child], levels[child]);
+				position = child;
+			}
+			set(position, id, level);
+		}
+
+		private void set(int position, int id, double level) {
+			ids[position] = id;
+			levels[position] = level;
+			positions[id] = position;
+		}
+
+		private final boolean isLong;
+		private int size = 0;
+		private int[] ids = new int[16];
+		private double[] levels = new double[16];
+	}
+
+	private final Listener listener;
+	//heap position of every id (-1 if it has no stop) and the heap it is in
+	private int[] positions = new int[0];
+	private boolean[] isLongId = new boolean[0];
+	private final Heap longs = new Heap(true);
+	private final Heap shorts = new Heap(false);
+}
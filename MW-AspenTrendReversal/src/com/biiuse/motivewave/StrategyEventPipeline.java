@@ -0,0 +1,345 @@
+package com.biiuse.motivewave;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock free ring of strategy events (signals, quotes, order events and life cycle changes) with a single consumer
+ * that owns all position state. The platform callbacks only publish: they claim a preallocated slot with a
+ * compare-and-set, copy the event into its primitive fields and return. The events are handled strictly in order,
+ * by one thread at a time: the publisher that finds the pipeline idle handles all events available (including those
+ * published meanwhile by other threads), the others return at once. Handing the events over through the ring makes
+ * every write of the handler visible to the thread that handles the next event, whichever thread that is.
+ * <p>
+ * No event but a superseded quote is ever lost. Quotes may only fill part of the ring; beyond that, and while such a
+ * quote is pending, only the latest quote is kept (in a slot of its own) and handled after the events queued before
+ * it. The rest of the ring is reserved for the other events. Should it still be full, the publisher helps draining and
+ * waits for room; an event published by the handler itself (a platform callback raised by an order it sends) takes
+ * its sequence all the same, but waits beside the ring, and is handled in its turn.
+ */
+public class StrategyEventPipeline {
+
+	final static byte ACTIVATE = 1;
+	final static byte DEACTIVATE = 2;
+	final static byte SETTINGS = 3;
+	final static byte SIGNAL = 4;
+	final static byte QUOTE = 5;
+	final static byte POSITION_CLOSED = 6;
+	final static byte ORDER_REJECTED = 7;
+	final static byte ORDER_FILLED = 8;
+	final static byte ORDER_CANCELLED = 9;
+
+	//share of the ring that quotes may fill, the rest is kept for the other events
+	final static int QUOTE_SHARE_DIVISOR = 4;
+
+	/**
+	 * Handles the events, always on one thread at a time and in the order they were published
+	 */
+	public interface Handler {
+		/**
+		 * @param context order context of the platform the strategy trades through
+		 */
+		void onActivate(Object context);
+
+		void onDeactivate();
+
+		void onSettings(ReversalParameters parameters);
+
+		void onSignal(Object signal, long barEndTime, double close);
+
+		void onQuote(long time, double bidPrice, double askPrice);
+
+		void onPositionClosed();
+
+		void onOrderRejected(Object order);
+
+		void onOrderFilled(Object order);
+
+		void onOrderCancelled(Object order);
+	}
+
+	/**
+	 * @param capacity maximum number of events waiting to be handled (rounded up to a power of two)
+	 */
+	public StrategyEventPipeline(Handler handler, int capacity) {
+		this.handler = handler;
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		mask = size - 1;
+		published = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) published.set(i, -1);
+		kinds = new byte[size];
+		times = new long[size];
+		prices = new double[size];
+		prices2 = new double[size];
+		values = new Object[size];
+		quoteLimit = size - size / QUOTE_SHARE_DIVISOR;
+	}
+
+	//the other events return their sequence, see awaitHandled
+
+	public long publishActivate(Object context) {
+		return publish(ACTIVATE, 0, 0, 0, context);
+	}
+
+	public long publishDeactivate() {
+		return publish(DEACTIVATE, 0, 0, 0, null);
+	}
+
+	public long publishSettings(ReversalParameters parameters) {
+		return publish(SETTINGS, 0, 0, 0, parameters);
+	}
+
+	public long publishSignal(Object signal, long barEndTime, double close) {
+		return publish(SIGNAL, barEndTime, close, 0, signal);
+	}
+
+	public long publishPositionClosed() {
+		return publish(POSITION_CLOSED, 0, 0, 0, null);
+	}
+
+	public long publishOrderRejected(Object order) {
+		return publish(ORDER_REJECTED, 0, 0, 0, order);
+	}
+
+	public long publishOrderFilled(Object order) {
+		return publish(ORDER_FILLED, 0, 0, 0, order);
+	}
+
+	public long publishOrderCancelled(Object order) {
+		return publish(ORDER_CANCELLED, 0, 0, 0, order);
+	}
+
+	/**
+	 * Queues a quote, or keeps it as the latest quote if quotes have filled their share of the ring. Returns false if
+	 * it replaced a latest quote that had not been handled yet.
+	 */
+	public boolean publishQuote(long time, double bidPrice, double askPrice) {
+		boolean replaced = false;
+		if ((latestQuote.get() != null) || !tryPublish(QUOTE, time, bidPrice, askPrice, null, quoteLimit)) {
+			replaced = latestQuote.getAndSet(new Quote(claimed.get(), time, bidPrice, askPrice)) != null;
+			if (replaced) coalescedQuotes.incrementAndGet();
+		}
+		drain();
+		return !replaced;
+	}
+
+	/**
+	 * Waits until the event of the given sequence has been handled. Returns false on timeout, or if called by the
+	 * handler itself (which cannot wait for an event behind the one it is handling, see {@link #isHandlerThread()}).
+	 */
+	public boolean awaitHandled(long sequence, long timeoutMillis) {
+		if (isHandlerThread()) return consumed > sequence;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (consumed <= sequence) {
+			if (System.currentTimeMillis() >= deadline) return false;
+			//handle the events if nobody else does, e.g. after a handler failed
+			drain();
+			if (consumed <= sequence) Thread.yield();
+		}
+		return true;
+	}
+
+	/**
+	 * True if called by the handler, e.g. from a platform callback raised by an order it sends
+	 */
+	public boolean isHandlerThread() {
+		return drainingThread == Thread.currentThread();
+	}
+
+	/**
+	 * Number of quotes that were replaced by a later quote before being handled
+	 */
+	public long getCoalescedQuotes() {
+		return coalescedQuotes.get();
+	}
+
+	/**
+	 * Number of times a publisher found the ring full and had to wait
+	 */
+	public long getDelayedEvents() {
+		return delayedEvents.get();
+	}
+
+	/**
+	 * Number of events published but not handled yet
+	 */
+	public int getPendingEvents() {
+		return (int) (claimed.get() - consumed);
+	}
+
+	/**
+	 * Queues an event and handles the available events unless another thread is doing so. Returns the sequence of
+	 * the event.
+	 */
+	private long publish(byte kind, long time, double price, double price2, Object value) {
+		while (true) {
+			long sequence = claimed.get();
+			if (sequence - consumed > mask) {
+				if (isHandlerThread()) {
+					//the handler cannot wait for room: the event waits beside the ring for its turn
+					sequence = claimed.getAndIncrement();
+					overflow.add(new Event(sequence, kind, time, price, price2, value));
+					return sequence;
+				}
+				delayedEvents.incrementAndGet();
+				drain();
+				Thread.yield();
+				continue;
+			}
+			if (!claimed.compareAndSet(sequence, sequence + 1)) continue;
+			write(sequence, kind, time, price, price2, value);
+			drain();
+			return sequence;
+		}
+	}
+
+	/**
+	 * Queues an event if fewer than limit events are pending
+	 */
+	private boolean tryPublish(byte kind, long time, double price, double price2, Object value, int limit) {
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed >= limit) return false;
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+		write(sequence, kind, time, price, price2, value);
+		return true;
+	}
+
+	private void write(long sequence, byte kind, long time, double price, double price2, Object value) {
+		int slot = (int) (sequence & mask);
+		kinds[slot] = kind;
+		times[slot] = time;
+		prices[slot] = price;
+		prices2[slot] = price2;
+		values[slot] = value;
+		published.lazySet(slot, sequence);
+	}
+
+	private void drain() {
+		while (true) {
+			if (!draining.compareAndSet(false, true)) return;
+			drainingThread = Thread.currentThread();
+			long next = consumed;
+			try {
+				while (true) {
+					int slot = (int) (next & mask);
+					//the latest quote once the events queued before it have been handled
+					Quote quote = latestQuote.get();
+					if ((quote != null) && (quote.sequence <= next)) {
+						if (latestQuote.compareAndSet(quote, null)) dispatch(QUOTE, quote.time, quote.bidPrice, quote.askPrice, null);
+						else continue;
+					}
+					else if ((!overflow.isEmpty()) && (overflow.peek().sequence == next)) {
+						//an event the handler published while the ring was full
+						Event event = overflow.poll();
+						try {
+							dispatch(event.kind, event.time, event.price, event.price2, event.value);
+						}
+						finally {
+							consumed = ++next;
+						}
+					}
+					else if (published.get(slot) == next) {
+						Object value = values[slot];
+						values[slot] = null;
+						try {
+							dispatch(kinds[slot], times[slot], prices[slot], prices2[slot], value);
+						}
+						finally {
+							consumed = ++next;
+						}
+					}
+					else {
+						break;
+					}
+				}
+			}
+			finally {
+				drainingThread = null;
+				draining.set(false);
+			}
+			//an event published after the last check but before the release would wait for the next publisher (the
+			//publisher of an event claimed but not written yet drains once it has written it)
+			Quote quote = latestQuote.get();
+			if ((published.get((int) (next & mask)) != next) && ((quote == null) || (quote.sequence > next))) return;
+		}
+	}
+
+	private void dispatch(byte kind, long time, double price, double price2, Object value) {
+		switch (kind) {
+		case ACTIVATE: handler.onActivate(value); break;
+		case DEACTIVATE: handler.onDeactivate(); break;
+		case SETTINGS: handler.onSettings((ReversalParameters) value); break;
+		case SIGNAL: handler.onSignal(value, time, price); break;
+		case QUOTE: handler.onQuote(time, price, price2); break;
+		case POSITION_CLOSED: handler.onPositionClosed(); break;
+		case ORDER_REJECTED: handler.onOrderRejected(value); break;
+		case ORDER_FILLED: handler.onOrderFilled(value); break;
+		case ORDER_CANCELLED: handler.onOrderCancelled(value); break;
+		default: break;
+		}
+	}
+
+	/**
+	 * Latest quote kept apart from the ring, handled after the events claimed before it
+	 */
+	private static class Quote {
+		Quote(long sequence, long time, double bidPrice, double askPrice) {
+			this.sequence = sequence;
+			this.time = time;
+			this.bidPrice = bidPrice;
+			this.askPrice = askPrice;
+		}
+
+		final long sequence;
+		final long time;
+		final double bidPrice;
+		final double askPrice;
+	}
+
+	/**
+	 * Event the handler published while the ring was full, waiting beside the ring for its sequence
+	 */
+	private static class Event {
+		Event(long sequence, byte kind, long time, double price, double price2, Object value) {
+			this.sequence = sequence;
+			this.kind = kind;
+			this.time = time;
+			this.price = price;
+			this.price2 = price2;
+			this.value = value;
+		}
+
+		final long sequence;
+		final byte kind;
+		final long time;
+		final double price;
+		final double price2;
+		final Object value;
+	}
+
+	private final Handler handler;
+	private final int mask;
+	private final int quoteLimit;
+	//sequence of the event in each slot once it has been published (-1 before the first)
+	private final AtomicLongArray published;
+	private final byte[] kinds;
+	private final long[] times;
+	private final double[] prices;
+	private final double[] prices2;
+	private final Object[] values;
+	//next sequence to claim by a publisher, next sequence to handle
+	private final AtomicLong claimed = new AtomicLong();
+	private volatile long consumed = 0;
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private volatile Thread drainingThread;
+	private final AtomicReference<Quote> latestQuote = new AtomicReference<Quote>();
+	//only touched by the draining thread, in sequence order
+	private final ArrayDeque<Event> overflow = new ArrayDeque<Event>();
+	private final AtomicLong coalescedQuotes = new AtomicLong();
+	private final AtomicLong delayedEvents = new AtomicLong();
+}
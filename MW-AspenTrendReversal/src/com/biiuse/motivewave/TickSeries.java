@@ -0,0 +1,114 @@
+package com.biiuse.motivewave;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Recorded quotes (time, bid, ask) in primitive arrays, in time order. Fed to the {@link StopLossMonitor} by tick
+ * level replays.
+ */
+public class TickSeries {
+
+	public TickSeries(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 16);
+		times = new long[capacity];
+		bids = new double[capacity];
+		asks = new double[capacity];
+	}
+
+	public void add(long time, double bidPrice, double askPrice) {
+		if ((size > 0) && (time < times[size - 1])) throw new IllegalArgumentException("Tick at " + time + " is older than the last tick");
+		if (size == times.length) {
+			int capacity = size * 2;
+			times = Arrays.copyOf(times, capacity);
+			bids = Arrays.copyOf(bids, capacity);
+			asks = Arrays.copyOf(asks, capacity);
+		}
+		times[size] = time;
+		bids[size] = bidPrice;
+		asks[size] = askPrice;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getTime(int index) {
+		return times[index];
+	}
+
+	public double getBidPrice(int index) {
+		return bids[index];
+	}
+
+	public double getAskPrice(int index) {
+		return asks[index];
+	}
+
+	/**
+	 * Index of the first tick after the given time (size() if there is none)
+	 */
+	public int findFirstAfter(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Loads quotes from a CSV file with one quote per line: time, bid, ask. The time is either epoch millis or a date
+	 * and time as in bar files (see {@link BarSeries#loadCsv(String, int, ZoneId)}) with optional milliseconds
+	 * (HH:mm:ss.SSS), interpreted in the given time zone. Lines that do not start with a digit are skipped.
+	 */
+	public static TickSeries loadCsv(String fileName, ZoneId zone) throws IOException {
+		TickSeries ticks = new TickSeries(64 * 1024);
+		SessionCalendar calendar = new SessionCalendar(zone);
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.US_ASCII), 1 << 16);
+		try {
+			String line;
+			int lineNumber = 0;
+			String[] fields = new String[6];
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty() || !Character.isDigit(line.charAt(0))) continue;
+				int count = BarSeries.split(line, fields);
+				try {
+					int column = 1;
+					long time;
+					if (BarSeries.isEpochMillis(fields[0])) {
+						time = Long.parseLong(fields[0]);
+					}
+					else {
+						String text = fields[0];
+						if ((count > 1) && (fields[1].indexOf(':') > 0)) text = text + ' ' + fields[column++];
+						time = calendar.toUtcMillis(BarSeries.parseLocalMillis(text));
+					}
+					if (count < column + 2) throw new IOException("Expected bid and ask");
+					ticks.add(time, Double.parseDouble(fields[column]), Double.parseDouble(fields[column + 1]));
+				}
+				catch (RuntimeException e) {
+					throw new IOException("Invalid tick in " + fileName + " line " + lineNumber + ": " + line, e);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return ticks;
+	}
+
+	private int size = 0;
+	private long[] times;
+	private double[] bids;
+	private double[] asks;
+}
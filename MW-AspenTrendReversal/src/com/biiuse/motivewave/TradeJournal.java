@@ -0,0 +1,286 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Trade journal that decouples the strategy callbacks from disk I/O. Trades (and signals) are copied into a bounded,
+ * preallocated ring of primitive slots and written in batches by a background thread: trades to the CSV file and,
+ * if a binary log is attached, trades and signals to the binary log. If the ring is full the record is dropped (and
+ * counted) rather than blocking the caller.
+ */
+public class TradeJournal {
+
+	final static String CSV_HEADER = "DATE, SYMBOL, TRADE DIRECTION, POSITION SIZE, ENTRY PRICE, EXIT PRICE, P/L $, DRAW DOWN";
+
+	/**
+	 * @param fileName CSV file the journal is appended to
+	 * @param capacity maximum number of records waiting to be written
+	 * @param flushIntervalMillis maximum time a written record may stay in the write buffer (0 = flush after every batch)
+	 * @param fsync if true the file is forced to disk on every flush
+	 */
+	public TradeJournal(String fileName, int capacity, long flushIntervalMillis, boolean fsync) {
+		this.fileName = fileName;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.fsync = fsync;
+
+		kinds = new byte[capacity];
+		times = new long[capacity];
+		symbols = new String[capacity];
+		directions = new String[capacity];
+		positionSizes = new int[capacity];
+		entryPrices = new double[capacity];
+		exitPrices = new double[capacity];
+		profits = new double[capacity];
+		drawDowns = new double[capacity];
+	}
+
+	/**
+	 * Attaches a binary trade and signal log. Must be called before {@link #start()}.
+	 */
+	public void setBinaryLog(BinaryTradeLogWriter binaryLog) {
+		this.binaryLog = binaryLog;
+	}
+
+	public synchronized void start() {
+		if (writerThread != null) return;
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "TradeJournal-" + new File(fileName).getName());
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queues a trade for writing. Never blocks on I/O; returns false if the record had to be dropped.
+	 */
+	public boolean append(long entryTime, String symbol, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+		return enqueue(BinaryTradeLog.KIND_TRADE, entryTime, symbol, tradeDirection, positionSize, entryPrice, exitPrice, PL, drawDown);
+	}
+
+	/**
+	 * Queues a signal for the binary log (signals are not written to the CSV file). Never blocks on I/O.
+	 */
+	public boolean appendSignal(long time, String symbol, String tradeDirection, double price) {
+		if (binaryLog == null) return true;
+		return enqueue(BinaryTradeLog.KIND_SIGNAL, time, symbol, tradeDirection, 0, price, Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	private boolean enqueue(byte kind, long entryTime, String symbol, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+		lock.lock();
+		try {
+			if (closed || (head - tail == times.length)) {
+				droppedRecords++;
+				return false;
+			}
+			int slot = (int) (head % times.length);
+			kinds[slot] = kind;
+			times[slot] = entryTime;
+			symbols[slot] = symbol;
+			directions[slot] = tradeDirection;
+			positionSizes[slot] = positionSize;
+			entryPrices[slot] = entryPrice;
+			exitPrices[slot] = exitPrice;
+			profits[slot] = PL;
+			drawDowns[slot] = drawDown;
+			head++;
+			notEmpty.signal();
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all queued records, flushes the file and stops the writer thread. Waits at most the given time.
+	 */
+	public void close(long timeoutMillis) {
+		Thread thread;
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+		synchronized (this) {
+			thread = writerThread;
+		}
+		if (thread == null) return;
+		try {
+			thread.join(timeoutMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public long getDroppedRecords() {
+		lock.lock();
+		try {
+			return droppedRecords;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Last I/O error encountered by the writer thread (null if none)
+	 */
+	public IOException getLastError() {
+		return lastError;
+	}
+
+	private void writeLoop() {
+		Writer out = null;
+		FileOutputStream stream = null;
+		long lastFlush = System.currentTimeMillis();
+		boolean dirty = false;
+		try {
+			File file = new File(fileName);
+			boolean writeHeader = !file.exists() || (file.length() == 0);
+			stream = new FileOutputStream(file, true);
+			out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+			if (writeHeader) {
+				out.write(CSV_HEADER);
+				out.write('\n');
+				dirty = true;
+			}
+			if (binaryLog != null) binaryLog.open();
+
+			while (true) {
+				long batchEnd;
+				boolean stop;
+				lock.lock();
+				try {
+					if ((head == tail) && !closed) {
+						//wait for new records, but not beyond the time the pending output has to be flushed
+						if (dirty) {
+							long wait = lastFlush + flushIntervalMillis - System.currentTimeMillis();
+							if (wait > 0) notEmpty.await(wait, TimeUnit.MILLISECONDS);
+						}
+						else notEmpty.await();
+					}
+					batchEnd = head;
+					stop = closed && (head == tail);
+				}
+				finally {
+					lock.unlock();
+				}
+
+				//slots between tail and batchEnd are not touched by producers until tail is advanced
+				for (long i = tail; i < batchEnd; ++i) {
+					writeRecord(out, (int) (i % times.length));
+					dirty = true;
+				}
+				if (batchEnd != tail) {
+					lock.lock();
+					try {
+						tail = batchEnd;
+					}
+					finally {
+						lock.unlock();
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (dirty && (stop || (now - lastFlush >= flushIntervalMillis))) {
+					out.flush();
+					if (fsync) stream.getChannel().force(false);
+					if (binaryLog != null) binaryLog.flush(fsync);
+					lastFlush = now;
+					dirty = false;
+				}
+				if (stop) break;
+			}
+		}
+		catch (IOException e) {
+			lastError = e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			try {
+				if (out != null) out.close();
+				else if (stream != null) stream.close();
+				if (binaryLog != null) binaryLog.close();
+			}
+			catch (IOException e) {
+				lastError = e;
+			}
+		}
+	}
+
+	private void writeRecord(Writer out, int slot) throws IOException {
+		if (kinds[slot] == BinaryTradeLog.KIND_TRADE) {
+			buffer.setLength(0);
+			appendCsvRow(buffer, timeFormat, times[slot], symbols[slot], directions[slot], positionSizes[slot], entryPrices[slot], exitPrices[slot], profits[slot], drawDowns[slot]);
+			out.append(buffer);
+			if (binaryLog != null) binaryLog.writeTrade(times[slot], directions[slot], positionSizes[slot], entryPrices[slot], exitPrices[slot], profits[slot], drawDowns[slot]);
+		}
+		else if (binaryLog != null) {
+			binaryLog.writeSignal(times[slot], BinaryTradeLog.toDirection(directions[slot]), entryPrices[slot]);
+		}
+		symbols[slot] = null;
+		directions[slot] = null;
+	}
+
+	/**
+	 * Appends one row (including the line feed) in the column layout of the CSV journal
+	 */
+	static StringBuilder appendCsvRow(StringBuilder sb, SessionCalendar timeFormat, long entryTime, String symbol, String tradeDirection, int positionSize, double entryPrice, double exitPrice, double PL, double drawDown) {
+		timeFormat.appendIsoDateTime(sb, entryTime).append(',');
+		sb.append(symbol).append(',');
+		sb.append(tradeDirection).append(',');
+		sb.append(positionSize).append(',');
+		DecimalFormatter.append(sb, entryPrice, 5).append(',');
+		DecimalFormatter.append(sb, exitPrice, 5).append(',');
+		DecimalFormatter.append(sb, PL, 2).append(", ");
+		return DecimalFormatter.append(sb, drawDown, 5).append('\n');
+	}
+
+	private final String fileName;
+	private final long flushIntervalMillis;
+	private final boolean fsync;
+	private final SessionCalendar timeFormat = new SessionCalendar(ZoneId.systemDefault());
+	private final StringBuilder buffer = new StringBuilder(128);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private long head = 0;
+	private long tail = 0;
+	private long droppedRecords = 0;
+	private boolean closed = false;
+	private volatile IOException lastError;
+	private Thread writerThread;
+	private BinaryTradeLogWriter binaryLog;
+
+	private final byte[] kinds;
+	private final long[] times;
+	private final String[] symbols;
+	private final String[] directions;
+	private final int[] positionSizes;
+	private final double[] entryPrices;
+	private final double[] exitPrices;
+	private final double[] profits;
+	private final double[] drawDowns;
+}
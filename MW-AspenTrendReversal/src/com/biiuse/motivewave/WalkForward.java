@@ -0,0 +1,334 @@
+package com.biiuse.motivewave;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walk forward analysis: the bars are split into rolling windows of an in-sample period followed by an
+ * out-of-sample period. Every fold picks the best parameter set on its in-sample bars and trades it on the
+ * out-of-sample bars that follow; the out-of-sample trades of all folds are stitched into one equity curve.
+ * <p>
+ * The out-of-sample periods are consecutive, each fold moves the windows by the out-of-sample length. All folds and
+ * all in-sample replays run on one fork / join pool and share the bars and their session close indexes read only.
+ */
+public class WalkForward {
+
+	/**
+	 * One pair of in-sample and out-of-sample windows (bar indexes) and its outcome
+	 */
+	public static class Fold {
+
+		Fold(int inSampleFrom, int outOfSampleFrom, int outOfSampleTo) {
+			this.inSampleFrom = inSampleFrom;
+			this.outOfSampleFrom = outOfSampleFrom;
+			this.outOfSampleTo = outOfSampleTo;
+		}
+
+		public int getInSampleFrom() {
+			return inSampleFrom;
+		}
+
+		/**
+		 * First out-of-sample bar, which is the end (exclusive) of the in-sample window
+		 */
+		public int getOutOfSampleFrom() {
+			return outOfSampleFrom;
+		}
+
+		public int getOutOfSampleTo() {
+			return outOfSampleTo;
+		}
+
+		/**
+		 * In-sample result of the chosen parameter set (null until run)
+		 */
+		public ReplayResult getInSampleResult() {
+			return inSampleResult;
+		}
+
+		/**
+		 * Out-of-sample result of the chosen parameter set (null until run)
+		 */
+		public ReplayResult getOutOfSampleResult() {
+			return outOfSampleResult;
+		}
+
+		public ReversalParameters getParameters() {
+			return inSampleResult != null ? inSampleResult.getParameters() : null;
+		}
+
+		private final int inSampleFrom;
+		private final int outOfSampleFrom;
+		private final int outOfSampleTo;
+		private ReplayResult inSampleResult;
+		private ReplayResult outOfSampleResult;
+	}
+
+	public WalkForward(BarData bars, boolean dailyBars) {
+		this.bars = bars;
+		this.sweep = new ParameterSweep(new SessionCloseData(bars, dailyBars));
+	}
+
+	/**
+	 * Difference between ask and bid of the simulated quotes (0 by default)
+	 */
+	public void setSpread(double spread) {
+		sweep.setSpread(spread);
+	}
+
+	/**
+	 * How the best in-sample parameter set is chosen (by profit by default)
+	 */
+	public void setRanking(ParameterSweep.Ranking ranking) {
+		this.ranking = ranking;
+	}
+
+	/**
+	 * Splits the bars into folds of the given number of in-sample days followed by the given number of out-of-sample
+	 * days. The last fold's out-of-sample window may be shorter.
+	 */
+	public List<Fold> createFolds(int inSampleDays, int outOfSampleDays) {
+		if ((inSampleDays <= 0) || (outOfSampleDays <= 0)) throw new IllegalArgumentException("In-sample and out-of-sample periods must be at least one day");
+		List<Fold> folds = new ArrayList<Fold>();
+		if (bars.size() == 0) return folds;
+		long start = bars.getStartTime(0);
+		while (true) {
+			int inSampleFrom = findFirstBar(start);
+			int outOfSampleFrom = findFirstBar(start + inSampleDays * SessionCalendar.MILLIS_PER_DAY);
+			int outOfSampleTo = findFirstBar(start + (inSampleDays + outOfSampleDays) * SessionCalendar.MILLIS_PER_DAY);
+			if (outOfSampleFrom >= bars.size()) break;
+			folds.add(new Fold(inSampleFrom, outOfSampleFrom, outOfSampleTo));
+			start += outOfSampleDays * SessionCalendar.MILLIS_PER_DAY;
+		}
+		return folds;
+	}
+
+	/**
+	 * Optimizes every fold over the candidate parameter sets on its in-sample bars and replays the best one on its
+	 * out-of-sample bars
+	 */
+	public void run(final List<Fold> folds, final List<ReversalParameters> candidates, ForkJoinPool pool) {
+		sweep.prepare(candidates);
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				List<FoldTask> tasks = new ArrayList<FoldTask>(folds.size());
+				for (Fold fold : folds) tasks.add(new FoldTask(fold, candidates));
+				invokeAll(tasks);
+			}
+
+			private static final long serialVersionUID = 1L;
+		});
+	}
+
+	/**
+	 * The out-of-sample trades of all folds in order, as one equity curve
+	 */
+	public static ReplayResult stitch(List<Fold> folds) {
+		ReplayResult stitched = new ReplayResult(null);
+		double profit = 0;
+		int barsProcessed = 0;
+		int signalCount = 0;
+		int orderCount = 0;
+		for (Fold fold : folds) {
+			ReplayResult result = fold.getOutOfSampleResult();
+			if (result == null) continue;
+			for (int t = 0; t < result.getTradeCount(); ++t) {
+				profit += result.getProfit(t);
+				stitched.onTradeClosed(result.getEntryTime(t), result.getTradeDirection(t), result.getPositionSize(t), result.getEntryPrice(t), result.getExitPrice(t),
+						profit, 0.0);
+			}
+			barsProcessed += result.getBarsProcessed();
+			signalCount += result.getSignalCount();
+			orderCount += result.getOrderCount();
+		}
+		stitched.setBarsProcessed(barsProcessed);
+		stitched.setSignalCount(signalCount);
+		stitched.setOrderCount(orderCount);
+		return stitched;
+	}
+
+	/**
+	 * Writes one row per fold: the windows, the chosen parameter set and its in-sample and out-of-sample results
+	 */
+	public void writeFolds(Writer out, List<Fold> folds, String separator) throws IOException {
+		if (folds.isEmpty() || (folds.get(0).getParameters() == null)) return;
+		SessionCalendar calendar = SessionCalendar.getNewYorkCalendar();
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("FOLD").append(separator).append("IN-SAMPLE FROM").append(separator).append("OUT-OF-SAMPLE FROM").append(separator).append("OUT-OF-SAMPLE TO");
+		for (String setting : folds.get(0).getParameters().toMap().keySet()) sb.append(separator).append(setting);
+		sb.append(separator).append("IS TRADES").append(separator).append("IS P/L").append(separator).append("OOS TRADES").append(separator).append("OOS P/L")
+				.append(separator).append("OOS MAX DRAW DOWN").append('\n');
+		out.append(sb);
+		for (int f = 0; f < folds.size(); ++f) {
+			Fold fold = folds.get(f);
+			sb.setLength(0);
+			sb.append(f + 1).append(separator);
+			calendar.appendIsoDateTime(sb, bars.getStartTime(fold.getInSampleFrom())).append(separator);
+			calendar.appendIsoDateTime(sb, bars.getStartTime(fold.getOutOfSampleFrom())).append(separator);
+			calendar.appendIsoDateTime(sb, bars.getEndTime(fold.getOutOfSampleTo() - 1));
+			for (String value : fold.getParameters().toMap().values()) sb.append(separator).append(value);
+			sb.append(separator).append(fold.getInSampleResult().getTradeCount()).append(separator);
+			DecimalFormatter.append(sb, fold.getInSampleResult().getTotalProfit(), 2).append(separator);
+			sb.append(fold.getOutOfSampleResult().getTradeCount()).append(separator);
+			DecimalFormatter.append(sb, fold.getOutOfSampleResult().getTotalProfit(), 2).append(separator);
+			DecimalFormatter.append(sb, fold.getOutOfSampleResult().getMaxDrawDown(), 2).append('\n');
+			out.append(sb);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the trades of the stitched equity curve with the equity after each trade
+	 */
+	public static void writeEquityCurve(Writer out, String symbol, ReplayResult stitched, String separator) throws IOException {
+		SessionCalendar calendar = SessionCalendar.getNewYorkCalendar();
+		StringBuilder sb = new StringBuilder(128);
+		double equity = 0;
+		for (int t = 0; t < stitched.getTradeCount(); ++t) {
+			equity += stitched.getProfit(t);
+			sb.setLength(0);
+			sb.append(symbol).append(separator);
+			calendar.appendIsoDateTime(sb, stitched.getEntryTime(t)).append(separator).append(stitched.getTradeDirection(t)).append(separator);
+			DecimalFormatter.append(sb, stitched.getEntryPrice(t), 5).append(separator);
+			DecimalFormatter.append(sb, stitched.getExitPrice(t), 5).append(separator);
+			DecimalFormatter.append(sb, stitched.getProfit(t), 2).append(separator);
+			DecimalFormatter.append(sb, equity, 2).append('\n');
+			out.append(sb);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Index of the first bar that starts at or after the given time (size() if there is none)
+	 */
+	private int findFirstBar(long time) {
+		int low = 0;
+		int high = bars.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (bars.getStartTime(mid) < time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Optimizes one fold; the in-sample replays are forked on the pool of the walk forward
+	 */
+	private class FoldTask extends RecursiveAction {
+
+		FoldTask(Fold fold, List<ReversalParameters> candidates) {
+			this.fold = fold;
+			this.candidates = candidates;
+		}
+
+		@Override
+		protected void compute() {
+			ReplayResult[] inSample = sweep.runRange(candidates, fold.getInSampleFrom(), fold.getOutOfSampleFrom());
+			fold.inSampleResult = ParameterSweep.rank(inSample, ranking)[0];
+			fold.outOfSampleResult = sweep.runRange(Collections.singletonList(fold.getParameters()), fold.getOutOfSampleFrom(), fold.getOutOfSampleTo())[0];
+		}
+
+		private static final long serialVersionUID = 1L;
+		private final Fold fold;
+		private final List<ReversalParameters> candidates;
+	}
+
+	/**
+	 * Usage: WalkForward &lt;bars.csv, bar store directory or bar store root&gt; &lt;bar size in minutes&gt; [symbols=&lt;a,b,...&gt;]
+	 * [inSample=365] [outOfSample=90] [zone=UTC] [spread=0] [mode=grid|random|lhs] [samples=1000] [seed=1]
+	 * [threads=&lt;cores&gt;] [rank=profit|drawdown|recovery] [out=&lt;equity.csv&gt;] [&lt;setting&gt;=&lt;value&gt;|&lt;a,b,c&gt;|&lt;from:to:step&gt; ...]
+	 * <p>
+	 * The in-sample and out-of-sample periods are in days. The settings are given as for the {@link ParameterSweep};
+	 * without any, the look back days (5 to 30) and the session close look ahead (15 to 60 minutes) are optimized.
+	 * With symbols, the first argument is the root of a bar store and the symbols are analyzed one after the other.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: WalkForward <bars.csv, bar store directory or bar store root> <bar size in minutes> [symbols=<a,b,...>] [inSample=365] [outOfSample=90] "
+					+ "[zone=UTC] [spread=0] [mode=grid|random|lhs] [samples=1000] [seed=1] [threads=<cores>] [rank=profit|drawdown|recovery] [out=<equity.csv>] "
+					+ "[<setting>=<value>|<a,b,c>|<from:to:step> ...]");
+			System.exit(1);
+		}
+		int barMinutes = Integer.parseInt(args[1]);
+		Map<String, String> options = ReplayEngine.parseOptions(args, 2);
+		String symbolList = ReplayEngine.remove(options, "symbols", null);
+		int inSampleDays = Integer.parseInt(ReplayEngine.remove(options, "inSample", "365"));
+		int outOfSampleDays = Integer.parseInt(ReplayEngine.remove(options, "outOfSample", "90"));
+		ZoneId zone = ZoneId.of(ReplayEngine.remove(options, "zone", "UTC"));
+		double spread = Double.parseDouble(ReplayEngine.remove(options, "spread", "0"));
+		String mode = ReplayEngine.remove(options, "mode", "grid");
+		int samples = Integer.parseInt(ReplayEngine.remove(options, "samples", "1000"));
+		long seed = Long.parseLong(ReplayEngine.remove(options, "seed", "1"));
+		int threads = Integer.parseInt(ReplayEngine.remove(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		ParameterSweep.Ranking ranking = ParameterSweep.Ranking.valueOf(ReplayEngine.remove(options, "rank", "profit").toUpperCase());
+		String outFileName = ReplayEngine.remove(options, "out", null);
+
+		ParameterSpace space = new ParameterSpace(ReversalParameters.getDefaults());
+		if (options.isEmpty()) {
+			options.put(AspenTrendReversalStudySingleTimeFrame.LOOKBACK_DAYS, "5:30:5");
+			options.put(AspenTrendReversalStudySingleTimeFrame.LOOKAHEAD_SESSION_CLOSE, "15:60:15");
+		}
+		for (Map.Entry<String, String> option : options.entrySet()) space.add(option.getKey(), option.getValue());
+		List<ReversalParameters> candidates;
+		if (mode.equals("grid")) candidates = space.grid();
+		else if (mode.equals("random")) candidates = space.random(samples, seed);
+		else if (mode.equals("lhs")) candidates = space.latinHypercube(samples, seed);
+		else throw new IllegalArgumentException("Unknown mode: " + mode);
+
+		String[] symbols = symbolList != null ? symbolList.split(",") : new String[] { new File(args[0]).getName() };
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Writer console = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		Writer equityOut = outFileName != null ? new OutputStreamWriter(new FileOutputStream(outFileName), StandardCharsets.UTF_8) : null;
+		try {
+			if (equityOut != null) equityOut.append("SYMBOL,ENTRY TIME,DIRECTION,ENTRY PRICE,EXIT PRICE,P/L,EQUITY\n");
+			double totalProfit = 0;
+			for (String symbol : symbols) {
+				long start = System.nanoTime();
+				String source = symbolList != null ? BarStore.getDirectory(new File(args[0]), symbol, barMinutes).getPath() : args[0];
+				BarData bars = ReplayEngine.loadBars(source, barMinutes, zone);
+				WalkForward walkForward = new WalkForward(bars, barMinutes >= 1440);
+				walkForward.setSpread(spread);
+				walkForward.setRanking(ranking);
+				List<Fold> folds = walkForward.createFolds(inSampleDays, outOfSampleDays);
+				walkForward.run(folds, candidates, pool);
+				ReplayResult stitched = stitch(folds);
+				long finished = System.nanoTime();
+
+				console.append(symbol).append('\n');
+				walkForward.writeFolds(console, folds, "\t");
+				StringBuilder sb = new StringBuilder(128);
+				sb.append("Out-of-sample: ").append(stitched.getTradeCount()).append(" trades, P/L ");
+				DecimalFormatter.append(sb, stitched.getTotalProfit(), 2).append(", max draw down ");
+				DecimalFormatter.append(sb, stitched.getMaxDrawDown(), 2);
+				sb.append(" (").append(folds.size()).append(" folds x ").append(candidates.size()).append(" parameter sets over ").append(bars.size()).append(" bars in ")
+						.append((finished - start) / 1000000).append(" ms)\n\n");
+				console.append(sb).flush();
+				if (equityOut != null) writeEquityCurve(equityOut, symbol, stitched, ",");
+				if (bars instanceof BarStore) ((BarStore) bars).close();
+				totalProfit += stitched.getTotalProfit();
+			}
+			if (symbols.length > 1) console.append("Total out-of-sample P/L: ").append(DecimalFormatter.format(totalProfit, 2)).append('\n').flush();
+		}
+		finally {
+			pool.shutdown();
+			if (equityOut != null) equityOut.close();
+		}
+	}
+
+	private final BarData bars;
+	private final ParameterSweep sweep;
+	private ParameterSweep.Ranking ranking = ParameterSweep.Ranking.PROFIT;
+}